@@ -0,0 +1,38 @@
+package org.angiedev.schoolfinder.dao;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.angiedev.schoolfinder.model.District;
+import org.angiedev.schoolfinder.model.School;
+
+/**
+ * BulkLoadDAO is an interface which defines the data access operations used to load
+ * many districts and schools at once.  Rows are written with multi-row upserts keyed on
+ * the district's lea id and the school's NCES id, so loading the same data again updates
+ * the rows in place rather than failing or adding duplicates.
+ * <p>
+ * The rows are written directly, bypassing the hibernate session and its caches, within
+ * the current transaction.
+ */
+public interface BulkLoadDAO {
+
+	/**
+	 * Inserts the passed in districts, or updates the name of those already in the database.
+	 * @param districts	districts to write, with distinct lea ids.
+	 * @return			district ids of the written districts keyed by their lea ids.
+	 */
+	public Map<String, Long> upsertDistricts(Collection<District> districts);
+
+	/**
+	 * Inserts the passed in schools, or updates the school data of those already in the
+	 * database.  The geo location data of existing schools is kept unless their address
+	 * changed, in which case it is cleared so the school is geo located again.
+	 * @param schools	schools to write, with distinct NCES ids, each with a district that
+	 * 					has its district id set.
+	 * @return			number of rows affected, as counted by MySQL: 1 for each inserted
+	 * 					school and 2 for each changed school.
+	 */
+	public int upsertSchools(List<School> schools);
+}
@@ -0,0 +1,34 @@
+package org.angiedev.schoolfinder.dao;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.angiedev.schoolfinder.model.GeoCodeCacheEntry;
+
+/**
+ * GeoCodeCacheDAO is an interface which defines the data access operations for the
+ * results of geo location lookups kept in the database, keyed by normalized address.
+ * Each address has at most one entry, which is replaced when it is looked up again.
+ */
+public interface GeoCodeCacheDAO {
+
+	/**
+	 * Returns the entry of the passed in address
+	 * @param addressKey	normalized address.
+	 * @return				entry of the address, or null if it was never looked up.
+	 */
+	public GeoCodeCacheEntry getEntry(String addressKey);
+
+	/**
+	 * Returns the entries of the passed in addresses.
+	 * @param addressKeys	normalized addresses.
+	 * @return				entries found, keyed by normalized address.
+	 */
+	public Map<String, GeoCodeCacheEntry> getEntries(Collection<String> addressKeys);
+
+	/**
+	 * Saves the passed in entries, replacing the entries already kept for their addresses.
+	 * @param entries	entries to save, with distinct address keys.
+	 */
+	public void saveEntries(Collection<GeoCodeCacheEntry> entries);
+}
@@ -0,0 +1,30 @@
+package org.angiedev.schoolfinder.dao;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * SchoolChangedEvent is published by the SchoolDAO after a school is inserted, updated
+ * or deleted, once the change has been committed, so copies of the school held outside
+ * of the database can be dropped.  An event with no NCES id reports that any of the
+ * schools may have changed (i.e. the spatial index was rebuilt).
+ */
+public class SchoolChangedEvent extends ApplicationEvent {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String ncesId;
+
+	/**
+	 * Creates the event for a changed school.
+	 * @param source	the DAO that changed the school.
+	 * @param ncesId	NCES id of the changed school, or null if any school may have changed.
+	 */
+	public SchoolChangedEvent(Object source, String ncesId) {
+		super(source);
+		this.ncesId = ncesId;
+	}
+
+	public String getNcesId() {
+		return ncesId;
+	}
+}
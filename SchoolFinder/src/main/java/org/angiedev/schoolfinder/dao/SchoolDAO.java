@@ -2,7 +2,9 @@ package org.angiedev.schoolfinder.dao;
 
 import java.util.List;
 
+import org.angiedev.schoolfinder.model.NameMatchMode;
 import org.angiedev.schoolfinder.model.School;
+import org.angiedev.schoolfinder.model.SchoolSearchResult;
 
 
 /**
@@ -62,6 +64,23 @@ public interface SchoolDAO {
 	 */
 	public List<School> getSchoolsByStateWithNoGeoData(String stateCode);
 	
+	/**
+	 * Retrieves schools that have geo location data (latitude and longitude fields) but
+	 * do not have a spatial cell key yet, in order of school id.
+	 * @param maxNumResults	maximum number of schools to return.
+	 * @return				list of schools with geo location data and no cell key.
+	 */
+	public List<School> getSchoolsWithGeoDataAndNoCellKey(int maxNumResults);
+	
+	/**
+	 * Retrieves the next page of all the schools ordered by school id.
+	 * @param afterSchoolId	school id of the last school of the previous page (0 for the 
+	 * 						first page).
+	 * @param maxNumResults	maximum number of schools to return.
+	 * @return				list of schools with a greater school id ordered by school id.
+	 */
+	public List<School> getSchoolsAfterSchoolId(long afterSchoolId, int maxNumResults);
+	
 	/**
 	 * Retrieves the list of schools that are located within a specified radius of a
 	 * the passed in latitude and longitude geo location.
@@ -70,9 +89,9 @@ public interface SchoolDAO {
 	 * @param searchRadius	the search radius in miles to conduct the search.
 	 * @param maxNumResults	maximum number of schools to return
 	 * @return				the list of schools within the specified radius of the passed in 
-	 * 						geo location.
+	 * 						geo location along with their distance from it.
 	 */
-	public List<School> getSchoolsNearGeoLocation(double latitude, double longitude, int searchRadius,
+	public List<SchoolSearchResult> getSchoolsNearGeoLocation(double latitude, double longitude, int searchRadius,
 			int maxNumResults);
 	
 	/**
@@ -85,8 +104,41 @@ public interface SchoolDAO {
 	 * @param searchString	search string to find at start of the school's name
 	 * @param numResults	maximum number of schools to return
 	 * @return				the list of schools within the specified radius of the passed in 
-	 * 						geo location.
+	 * 						geo location along with their distance from it.
 	 */
-	public List<School> getSchoolsNearGeoLocation(double latitude, double longitude, int searchRadius, 
+	public List<SchoolSearchResult> getSchoolsNearGeoLocation(double latitude, double longitude, int searchRadius, 
 			String searchString, int maxNumResults);
+	
+	/**
+	 * Retrieves the list of schools that are located within a specified radius of a
+	 * the passed in latitude and longitude geo location and whose name matches the passed
+	 * in search string.
+	 * @param latitude		latitude of the position to search near. 
+	 * @param longitude		longitude of the position to search near.
+	 * @param searchRadius	the search radius in miles to conduct the search.
+	 * @param searchString	search string to match against the school's name
+	 * @param matchMode		how the search string is matched against the school's name
+	 * @param maxNumResults	maximum number of schools to return
+	 * @return				the list of schools within the specified radius of the passed in 
+	 * 						geo location along with their distance from it.
+	 */
+	public List<SchoolSearchResult> getSchoolsNearGeoLocation(double latitude, double longitude, 
+			int searchRadius, String searchString, NameMatchMode matchMode, int maxNumResults);
+	
+	/**
+	 * Retrieves the schools nearest to the passed in latitude and longitude geo location
+	 * ordered by their distance from the geo location (nearest first).
+	 * @param latitude		latitude of the position to search near. 
+	 * @param longitude		longitude of the position to search near.
+	 * @param searchRadius	the search radius in miles to conduct the search, or null to 
+	 * 						return the nearest schools regardless of their distance.
+	 * @param searchString	search string to match against the school's name, or null
+	 * 						to match every school.
+	 * @param matchMode		how the search string is matched against the school's name
+	 * @param maxNumResults	maximum number of schools to return
+	 * @return				the list of the nearest schools along with their distance from the
+	 * 						geo location, ordered by distance.
+	 */
+	public List<SchoolSearchResult> getSchoolsNearestGeoLocation(double latitude, double longitude, 
+			Integer searchRadius, String searchString, NameMatchMode matchMode, int maxNumResults);
 }
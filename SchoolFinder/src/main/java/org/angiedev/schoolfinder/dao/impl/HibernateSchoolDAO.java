@@ -1,36 +1,91 @@
 package org.angiedev.schoolfinder.dao.impl;
 
+import org.angiedev.schoolfinder.model.NameMatchMode;
 import org.angiedev.schoolfinder.model.School;
+import org.angiedev.schoolfinder.model.SchoolSearchResult;
+import org.angiedev.schoolfinder.dao.SchoolChangedEvent;
 import org.angiedev.schoolfinder.dao.SchoolDAO;
+import org.angiedev.schoolfinder.util.FuzzyNameMatch;
+import org.angiedev.schoolfinder.util.GeoDistance;
+import org.angiedev.schoolfinder.util.NameTokens;
+import org.angiedev.schoolfinder.util.SpatialCellKey;
 import org.hibernate.type.DoubleType;
 import org.hibernate.type.IntegerType;
 import org.hibernate.type.LongType;
 import org.hibernate.type.StringType;
 import org.hibernate.SessionFactory;
+import org.hibernate.query.NativeQuery;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Primary;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
 
 /**
  * HibernateSchoolDAO is a hibernate based implementation of the SchoolDAO interface.
+ * <p>
+ * A {@link SchoolChangedEvent} is published for every school inserted, updated or deleted,
+ * after the transaction making the change commits.
  * 
  * @author Angela Gordon
  */
 
 @Repository 
+@Primary
 public class HibernateSchoolDAO implements SchoolDAO {
 
+	// selects each school of a search along with its district, so the districts are not loaded
+	// one at a time afterwards, and its distance from the search location.  The number of 
+	// results is limited with setMaxResults, which binds the limit as a parameter, so a search's
+	// statement text is the same for any maxNumResults and is reused from the statement caches
+	private static final String SEARCH_SELECT = "select {s.*}, {d.*}, 3956 * 2 * " +
+			" ASIN(SQRT( POWER(SIN((:latitude - s.latitude)*pi()/180/2),2)" +
+			" +COS(:latitude*pi()/180 )*COS(s.latitude*pi()/180)" + 
+			" *POWER(SIN((:longitude-s.longitude)*pi()/180/2),2)))" +
+			" as distance from School s join District d on d.district_id = s.district_id where";
+	
+	// limits a search to the cell key ranges covering the search area (uses the cell_key index),
+	// or to the bounding box of the search area for schools whose cell key isn't calculated yet
+	private static final String CELL_KEY_RANGES_CONDITION = buildCellKeyRangesCondition();
+	
+	// radius in miles of the first search for the nearest schools when no radius is passed in
+	private static final int INITIAL_NEAREST_SEARCH_RADIUS = 10;
+	
+	// search radius in miles that covers the whole earth 
+	private static final int MAX_SEARCH_RADIUS = GeoDistance.MAX_DISTANCE_MILES;
+	
+	// number of schools, nearest first, fetched at a time to be matched against a fuzzy search
+	private static final int DEFAULT_FUZZY_CANDIDATE_PAGE_SIZE = 10000;
+
 	private SessionFactory sessionFactory; 
+	private int fuzzyCandidatePageSize = DEFAULT_FUZZY_CANDIDATE_PAGE_SIZE;
+	
+	@Autowired
+	private ApplicationEventPublisher eventPublisher;
 	
 	@Autowired 
 	public HibernateSchoolDAO(SessionFactory sessionFactory) {
 		this.sessionFactory = sessionFactory;
 	}
 	
+	/* Sets the number of schools read at a time by a fuzzy search, lowered by the tests */
+	void setFuzzyCandidatePageSize(int fuzzyCandidatePageSize) {
+		this.fuzzyCandidatePageSize = fuzzyCandidatePageSize;
+	}
+	
 	@Override
 	public void insertSchool(School school) {
+		updateCellKey(school);
 		sessionFactory.getCurrentSession().save(school);
+		publishSchoolChanged(school);
 	}
 	
 	@Override 
@@ -40,12 +95,15 @@ public class HibernateSchoolDAO implements SchoolDAO {
 	
 	@Override
 	public void updateSchool(School school) {
+		updateCellKey(school);
 		sessionFactory.getCurrentSession().saveOrUpdate(school);	
+		publishSchoolChanged(school);
 	}
 
 	@Override
 	public void deleteSchool(School school) {
 		sessionFactory.getCurrentSession().delete(school);
+		publishSchoolChanged(school);
 	}
 	
 	@Override
@@ -77,48 +135,310 @@ public class HibernateSchoolDAO implements SchoolDAO {
 	}
 
 	@Override
-	public List<School> getSchoolsNearGeoLocation(double latitude, double longitude, int searchRadius,
+	@SuppressWarnings("unchecked")
+	public List<School> getSchoolsWithGeoDataAndNoCellKey(int maxNumResults) {
+		return (List<School>)sessionFactory.getCurrentSession().getNamedQuery("School.findWithGeoDataAndNoCellKey").
+			setMaxResults(maxNumResults).getResultList();
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<School> getSchoolsAfterSchoolId(long afterSchoolId, int maxNumResults) {
+		return (List<School>)sessionFactory.getCurrentSession().getNamedQuery("School.findAfterSchoolId").
+			setParameter("schoolId", afterSchoolId, LongType.INSTANCE).
+			setMaxResults(maxNumResults).getResultList();
+	}
+
+	@Override
+	public List<SchoolSearchResult> getSchoolsNearGeoLocation(double latitude, double longitude, int searchRadius,
 			int maxNumResults) {
 		
-		String queryStr = "select school_id, nces_id, name, district_id, street_address, city, state," +
-				 " zip, status, low_grade, high_grade, longitude, latitude, 3956 * 2 * " +
-		         " ASIN(SQRT( POWER(SIN((:latitude - latitude)*pi()/180/2),2)" +
-		         " +COS(:latitude*pi()/180 )*COS(latitude*pi()/180)" + 
-		         " *POWER(SIN((:longitude-longitude)*pi()/180/2),2)))" +
-		         " as distance from School where" +
-		         " longitude between (:longitude-:searchRadius/cos(radians(:latitude))*69)" + 
-		         " and (:longitude+:searchRadius/cos(radians(:latitude))*69)" +
-		         " and latitude between (:latitude-(:searchRadius/69))" +
-		         " and (:latitude+(:searchRadius/69))"+
-		         " having distance < :searchRadius order by name limit " + maxNumResults; 
+		String queryStr = SEARCH_SELECT + CELL_KEY_RANGES_CONDITION +
+		         " having distance < :searchRadius order by s.name"; 
 		
-		return sessionFactory.getCurrentSession().createNativeQuery(queryStr, School.class).
+		NativeQuery<?> query = createSearchQuery(queryStr);
+		setCellKeyRanges(query, latitude, longitude, searchRadius);
+		query.
 			setParameter("longitude", longitude, DoubleType.INSTANCE).
 			setParameter("latitude", latitude, DoubleType.INSTANCE).
-			setParameter("searchRadius", searchRadius, IntegerType.INSTANCE).getResultList();
+			setParameter("searchRadius", searchRadius, IntegerType.INSTANCE).
+			setMaxResults(maxNumResults);
+		return toSearchResults(query, latitude, longitude);
 		
 	}
 
 	@Override
-	public List<School> getSchoolsNearGeoLocation(double latitude, double longitude, int searchRadius,
+	public List<SchoolSearchResult> getSchoolsNearGeoLocation(double latitude, double longitude, int searchRadius,
 			String searchString, int maxNumResults) {
-		String queryStr = "select school_id, nces_id, name, district_id, street_address, city, state," +
-				 " zip, status, low_grade, high_grade, longitude, latitude, 3956 * 2 * " +
-		         " ASIN(SQRT( POWER(SIN((:latitude - latitude)*pi()/180/2),2)" +
-		         " +COS(:latitude*pi()/180 )*COS(latitude*pi()/180)" + 
-		         " *POWER(SIN((:longitude-longitude)*pi()/180/2),2)))" +
-		         " as distance from School where" +
-		         " name like :searchString and " +
-		         " longitude between (:longitude-:searchRadius/cos(radians(:latitude))*69)" + 
-		         " and (:longitude+:searchRadius/cos(radians(:latitude))*69)" +
-		         " and latitude between (:latitude-(:searchRadius/69))" +
-		         " and (:latitude+(:searchRadius/69))"+
-		         " having distance < :searchRadius order by name limit " + maxNumResults; 
+		return getSchoolsNearGeoLocation(latitude, longitude, searchRadius, searchString, 
+				NameMatchMode.PREFIX, maxNumResults);
+	}
+
+	@Override
+	public List<SchoolSearchResult> getSchoolsNearGeoLocation(double latitude, double longitude, 
+			int searchRadius, String searchString, NameMatchMode matchMode, int maxNumResults) {
+		if (searchString != null && matchMode == NameMatchMode.FUZZY) {
+			return rankFuzzyMatches(latitude, longitude, searchRadius, searchString, maxNumResults);
+		}
+		String queryStr = SEARCH_SELECT +
+		         nameCondition(searchString, matchMode) + CELL_KEY_RANGES_CONDITION +
+		         " having distance < :searchRadius order by s.name"; 
+		
+		NativeQuery<?> query = createSearchQuery(queryStr);
+		setCellKeyRanges(query, latitude, longitude, searchRadius);
+		setNameParameters(query, searchString, matchMode);
+		query.
+				setParameter("longitude", longitude, DoubleType.INSTANCE).
+				setParameter("latitude", latitude, DoubleType.INSTANCE).
+				setParameter("searchRadius", searchRadius, IntegerType.INSTANCE).
+			setMaxResults(maxNumResults);
+		return toSearchResults(query, latitude, longitude);
+	}
+
+	@Override
+	public List<SchoolSearchResult> getSchoolsNearestGeoLocation(double latitude, double longitude, 
+			Integer searchRadius, String searchString, NameMatchMode matchMode, int maxNumResults) {
+		if (searchRadius != null) {
+			return getSchoolsNearestGeoLocation(latitude, longitude, searchRadius.intValue(), 
+					searchString, matchMode, maxNumResults);
+		}
 		
-		return sessionFactory.getCurrentSession().createNativeQuery(queryStr, School.class).
+		// widen the search until enough schools are found so the cell key index can still be used 
+		int radius = INITIAL_NEAREST_SEARCH_RADIUS;
+		while (true) {
+			List<SchoolSearchResult> schools = getSchoolsNearestGeoLocation(latitude, longitude, radius, 
+					searchString, matchMode, maxNumResults);
+			if (schools.size() >= maxNumResults || radius >= MAX_SEARCH_RADIUS) {
+				return schools;
+			}
+			radius = Math.min(radius * 4, MAX_SEARCH_RADIUS);
+		}
+	}
+	
+	/* Retrieves the schools within the search radius ordered by distance */
+	private List<SchoolSearchResult> getSchoolsNearestGeoLocation(double latitude, double longitude, 
+			int searchRadius, String searchString, NameMatchMode matchMode, int maxNumResults) {
+		if (searchString != null && matchMode == NameMatchMode.FUZZY) {
+			List<String> tokens = NameTokens.tokenize(searchString);
+			List<SchoolSearchResult> matches = new ArrayList<SchoolSearchResult>();
+			forEachFuzzyCandidatePage(latitude, longitude, searchRadius, searchString, candidates -> {
+				for (SchoolSearchResult s: candidates) {
+					if (matches.size() < maxNumResults && 
+							FuzzyNameMatch.nameEdits(tokens, NameTokens.tokenize(s.getSchool().getName())) >= 0) {
+						matches.add(s);
+					}
+				}
+				return matches.size() < maxNumResults;
+			});
+			return matches;
+		}
+		String queryStr = SEARCH_SELECT +
+		         nameCondition(searchString, matchMode) + CELL_KEY_RANGES_CONDITION +
+		         " having distance < :searchRadius order by distance"; 
+		
+		NativeQuery<?> query = createSearchQuery(queryStr);
+		setCellKeyRanges(query, latitude, longitude, searchRadius);
+		setNameParameters(query, searchString, matchMode);
+		query.
 				setParameter("longitude", longitude, DoubleType.INSTANCE).
 				setParameter("latitude", latitude, DoubleType.INSTANCE).
 				setParameter("searchRadius", searchRadius, IntegerType.INSTANCE).
-				setParameter("searchString", searchString + "%", StringType.INSTANCE).getResultList();
+			setMaxResults(maxNumResults);
+		return toSearchResults(query, latitude, longitude);
+	}
+
+	/* 
+	 * Retrieves the schools within the search radius whose names may fuzzily match the search
+	 * string, nearest first, passing them to the passed in page consumer fuzzyCandidatePageSize
+	 * at a time until it returns false or they run out.  Edit distances can't be calculated in 
+	 * SQL, so the query only checks that the name contains a piece of each search token (see
+	 * FuzzyNameMatch.tokenPieces) and the names are matched by the consumer.
+	 */
+	private void forEachFuzzyCandidatePage(double latitude, double longitude, int searchRadius, 
+			String searchString, Predicate<List<SchoolSearchResult>> pageConsumer) {
+		List<String> tokens = NameTokens.tokenize(searchString);
+		StringBuilder nameCondition = new StringBuilder();
+		for (int i = 0; i < tokens.size(); i++) {
+			List<String> pieces = FuzzyNameMatch.tokenPieces(tokens.get(i));
+			nameCondition.append(" (");
+			for (int j = 0; j < pieces.size(); j++) {
+				nameCondition.append((j > 0) ? " or" : "").append(" s.name like :piece" + i + "_" + j);
+			}
+			nameCondition.append(") and");
+		}
+		// ties are broken by id so that the pages don't overlap
+		String queryStr = SEARCH_SELECT + nameCondition + CELL_KEY_RANGES_CONDITION +
+		         " having distance < :searchRadius order by distance, s.school_id"; 
+		
+		NativeQuery<?> query = createSearchQuery(queryStr);
+		setCellKeyRanges(query, latitude, longitude, searchRadius);
+		for (int i = 0; i < tokens.size(); i++) {
+			List<String> pieces = FuzzyNameMatch.tokenPieces(tokens.get(i));
+			for (int j = 0; j < pieces.size(); j++) {
+				query.setParameter("piece" + i + "_" + j, "%" + pieces.get(j) + "%", StringType.INSTANCE);
+			}
+		}
+		query.
+				setParameter("longitude", longitude, DoubleType.INSTANCE).
+				setParameter("latitude", latitude, DoubleType.INSTANCE).
+				setParameter("searchRadius", searchRadius, IntegerType.INSTANCE).
+			setMaxResults(fuzzyCandidatePageSize);
+		for (int first = 0; ; first += fuzzyCandidatePageSize) {
+			query.setFirstResult(first);
+			List<SchoolSearchResult> candidates = toSearchResults(query, latitude, longitude);
+			if (candidates.isEmpty() || !pageConsumer.test(candidates) || 
+					candidates.size() < fuzzyCandidatePageSize) {
+				return;
+			}
+		}
+	}
+
+	/* 
+	 * Returns the best fuzzy matches of the search string within the search radius ranked by
+	 * their score.  The candidates are read nearest first, and no more are read once none of 
+	 * those left could score better than the worst of the matches kept, even with no edits.
+	 */
+	private List<SchoolSearchResult> rankFuzzyMatches(double latitude, double longitude, 
+			int searchRadius, String searchString, int maxNumResults) {
+		List<String> tokens = NameTokens.tokenize(searchString);
+		List<SchoolSearchResult> matches = new ArrayList<SchoolSearchResult>();
+		Map<SchoolSearchResult, Double> scores = new IdentityHashMap<SchoolSearchResult, Double>();
+		forEachFuzzyCandidatePage(latitude, longitude, searchRadius, searchString, candidates -> {
+			for (SchoolSearchResult s: candidates) {
+				int edits = FuzzyNameMatch.nameEdits(tokens, NameTokens.tokenize(s.getSchool().getName()));
+				if (edits >= 0) {
+					matches.add(s);
+					scores.put(s, FuzzyNameMatch.score(edits, s.getDistance(), searchRadius));
+				}
+			}
+			matches.sort(Comparator.comparing(scores::get));
+			while (matches.size() > Math.max(maxNumResults, 0)) {
+				scores.remove(matches.remove(matches.size() - 1));
+			}
+			if (matches.size() < maxNumResults) {
+				return true;
+			}
+			double bestScoreLeft = FuzzyNameMatch.score(0, 
+					candidates.get(candidates.size() - 1).getDistance(), searchRadius);
+			return !matches.isEmpty() && scores.get(matches.get(matches.size() - 1)) > bestScoreLeft;
+		});
+		return matches;
+	}
+
+	/* 
+	 * Builds the condition matching the school's name against the search string.  A token
+	 * search matches each word of the search string at the start of the name or after a space.
+	 */
+	private static String nameCondition(String searchString, NameMatchMode matchMode) {
+		if (searchString == null) {
+			return "";
+		} else if (matchMode != NameMatchMode.TOKENS) {
+			return " s.name like :searchString and";
+		}
+		StringBuilder condition = new StringBuilder();
+		for (int i = 0; i < NameTokens.tokenize(searchString).size(); i++) {
+			condition.append(" (s.name like :nameStart" + i + " or s.name like :nameWord" + i + ") and");
+		}
+		return condition.toString();
+	}
+
+	/* Sets the search string parameters used by the name condition into the query */
+	private static void setNameParameters(NativeQuery<?> query, String searchString, NameMatchMode matchMode) {
+		if (searchString == null) {
+			return;
+		} else if (matchMode != NameMatchMode.TOKENS) {
+			query.setParameter("searchString", searchString + "%", StringType.INSTANCE);
+			return;
+		}
+		List<String> tokens = NameTokens.tokenize(searchString);
+		for (int i = 0; i < tokens.size(); i++) {
+			query.setParameter("nameStart" + i, tokens.get(i) + "%", StringType.INSTANCE);
+			query.setParameter("nameWord" + i, "% " + tokens.get(i) + "%", StringType.INSTANCE);
+		}
+	}
+
+	/* 
+	 * Creates a native search query returning each school, its district and its calculated
+	 * distance (see SEARCH_SELECT)
+	 */
+	private NativeQuery<?> createSearchQuery(String queryStr) {
+		return sessionFactory.getCurrentSession().createNativeQuery(queryStr).
+				addEntity("s", School.class).
+				addJoin("d", "s.district").
+				addScalar("distance", DoubleType.INSTANCE);
+	}
+	
+	/* Runs a search query, pairing each school with the distance calculated by the query */
+	private static List<SchoolSearchResult> toSearchResults(NativeQuery<?> query, double latitude, 
+			double longitude) {
+		List<?> rows = query.getResultList();
+		List<SchoolSearchResult> results = new ArrayList<SchoolSearchResult>(rows.size());
+		for (Object row: rows) {
+			Object[] columns = (Object[])row;
+			School school = (School)columns[0];
+			double distance = (Double)columns[columns.length - 1];
+			results.add(new SchoolSearchResult(school, distance, GeoDistance.bearing(latitude, longitude, 
+					school.getLatitude(), school.getLongitude())));
+		}
+		return results;
+	}
+
+	/* Builds the condition limiting a search to the cell key ranges covering the search area */
+	private static String buildCellKeyRangesCondition() {
+		StringBuilder condition = new StringBuilder(" (");
+		for (int i = 0; i < SpatialCellKey.MAX_RANGES; i++) {
+			if (i > 0) {
+				condition.append(" or");
+			}
+			condition.append(" s.cell_key between :cellKeyStart" + i + " and :cellKeyEnd" + i);
+		}
+		condition.append(" or (s.cell_key is null and s.latitude between :minLatitude and :maxLatitude" +
+				" and s.longitude between :minLongitude and :maxLongitude)");
+		return condition.append(")").toString();
+	}
+
+	/* 
+	 * Sets the cell key ranges and the bounding box covering the search area into the query.
+	 * A bounding box crossing the date line is widened to every longitude.
+	 */
+	private static void setCellKeyRanges(NativeQuery<?> query, double latitude, double longitude,
+			int searchRadius) {
+		long[] ranges = SpatialCellKey.coveringRanges(latitude, longitude, searchRadius);
+		for (int i = 0; i < SpatialCellKey.MAX_RANGES; i++) {
+			query.setParameter("cellKeyStart" + i, ranges[2 * i], LongType.INSTANCE);
+			query.setParameter("cellKeyEnd" + i, ranges[2 * i + 1], LongType.INSTANCE);
+		}
+		double latSpan = GeoDistance.latitudeSpan(searchRadius);
+		double longSpan = GeoDistance.longitudeSpan(latitude, searchRadius);
+		boolean allLongitudes = longitude - longSpan < -180 || longitude + longSpan > 180;
+		query.
+			setParameter("minLatitude", latitude - latSpan, DoubleType.INSTANCE).
+			setParameter("maxLatitude", latitude + latSpan, DoubleType.INSTANCE).
+			setParameter("minLongitude", allLongitudes ? -180 : longitude - longSpan, DoubleType.INSTANCE).
+			setParameter("maxLongitude", allLongitudes ? 180 : longitude + longSpan, DoubleType.INSTANCE);
+	}
+
+	/* Publishes the change of the school once the current transaction commits */
+	private void publishSchoolChanged(School school) {
+		SchoolChangedEvent event = new SchoolChangedEvent(this, school.getNcesId());
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					eventPublisher.publishEvent(event);
+				}
+			});
+		} else {
+			eventPublisher.publishEvent(event);
+		}
+	}
+
+	/* Keeps the school's cell key in sync with its geo location */
+	private static void updateCellKey(School school) {
+		if (school.getLatitude() != null && school.getLongitude() != null) {
+			school.setCellKey(SpatialCellKey.encode(school.getLatitude(), school.getLongitude()));
+		} else {
+			school.setCellKey(null);
+		}
 	}
 }
@@ -0,0 +1,109 @@
+package org.angiedev.schoolfinder.dao.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.angiedev.schoolfinder.dao.BulkLoadDAO;
+import org.angiedev.schoolfinder.model.District;
+import org.angiedev.schoolfinder.model.School;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * JdbcBulkLoadDAO is a JDBC based implementation of the BulkLoadDAO interface.  Each call
+ * writes its rows with a single multi-row INSERT ... ON DUPLICATE KEY UPDATE statement
+ * (MySQL), relying on the unique indexes on lea_id and nces_id.  The IDENTITY keys of the
+ * hibernate entities keep hibernate from batching its inserts, so a bulk load uses this
+ * DAO instead.
+ */
+@Repository
+public class JdbcBulkLoadDAO implements BulkLoadDAO {
+
+	private static final String DISTRICT_UPSERT = "insert into District (lea_id, name) values ";
+	private static final String DISTRICT_ROW = "(?,?)";
+	private static final String DISTRICT_UPDATE = " on duplicate key update name = values(name)";
+
+	private static final String DISTRICT_IDS = "select lea_id, district_id from District where lea_id in ";
+
+	private static final String SCHOOL_UPSERT = "insert into School (nces_id, name, district_id, " +
+			"street_address, city, state, zip, status, low_grade, high_grade) values ";
+	private static final String SCHOOL_ROW = "(?,?,?,?,?,?,?,?,?,?)";
+	// the geo location data is only kept while the (NOT NULL) address columns are unchanged.  
+	// MySQL assigns the columns in order, so they are compared before they are updated.
+	private static final String SCHOOL_ADDRESS_UNCHANGED = "values(street_address) = street_address and " +
+			"values(city) = city and values(state) = state and values(zip) = zip";
+	private static final String SCHOOL_UPDATE = " on duplicate key update " +
+			"latitude = case when " + SCHOOL_ADDRESS_UNCHANGED + " then latitude end, " +
+			"longitude = case when " + SCHOOL_ADDRESS_UNCHANGED + " then longitude end, " +
+			"cell_key = case when " + SCHOOL_ADDRESS_UNCHANGED + " then cell_key end, name = values(name), " +
+			"district_id = values(district_id), street_address = values(street_address), " +
+			"city = values(city), state = values(state), zip = values(zip), status = values(status), " +
+			"low_grade = values(low_grade), high_grade = values(high_grade)";
+
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	public JdbcBulkLoadDAO(DataSource dataSource) {
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
+	}
+
+	@Override
+	public Map<String, Long> upsertDistricts(Collection<District> districts) {
+		Map<String, Long> districtIds = new HashMap<String, Long>();
+		if (districts.isEmpty()) {
+			return districtIds;
+		}
+		List<Object> args = new ArrayList<Object>(districts.size() * 2);
+		List<Object> leaIds = new ArrayList<Object>(districts.size());
+		for (District district: districts) {
+			args.add(district.getLeaId());
+			args.add(district.getName());
+			leaIds.add(district.getLeaId());
+		}
+		jdbcTemplate.update(DISTRICT_UPSERT + rows(DISTRICT_ROW, districts.size()) + DISTRICT_UPDATE,
+				args.toArray());
+
+		// the generated keys of a multi-row upsert don't identify the updated rows, so the ids
+		// are read back
+		jdbcTemplate.query(DISTRICT_IDS + "(" + rows("?", leaIds.size()) + ")",
+				rs -> { districtIds.put(rs.getString(1), rs.getLong(2)); }, leaIds.toArray());
+		return districtIds;
+	}
+
+	@Override
+	public int upsertSchools(List<School> schools) {
+		if (schools.isEmpty()) {
+			return 0;
+		}
+		List<Object> args = new ArrayList<Object>(schools.size() * 10);
+		for (School school: schools) {
+			args.add(school.getNcesId());
+			args.add(school.getName());
+			args.add(school.getDistrict().getDistrictId());
+			args.add(school.getStreetAddress());
+			args.add(school.getCity());
+			args.add(school.getState());
+			args.add(school.getZip());
+			args.add(school.getStatus());
+			args.add(school.getLowGrade());
+			args.add(school.getHighGrade());
+		}
+		return jdbcTemplate.update(SCHOOL_UPSERT + rows(SCHOOL_ROW, schools.size()) + SCHOOL_UPDATE,
+				args.toArray());
+	}
+
+	/* Returns the passed in row placeholders repeated numRows times, separated by commas */
+	private static String rows(String row, int numRows) {
+		StringBuilder rows = new StringBuilder(numRows * (row.length() + 1));
+		for (int i = 0; i < numRows; i++) {
+			rows.append(i == 0 ? "" : ",").append(row);
+		}
+		return rows.toString();
+	}
+}
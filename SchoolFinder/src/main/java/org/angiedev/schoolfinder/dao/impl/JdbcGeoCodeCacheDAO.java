@@ -0,0 +1,117 @@
+package org.angiedev.schoolfinder.dao.impl;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.angiedev.schoolfinder.dao.GeoCodeCacheDAO;
+import org.angiedev.schoolfinder.model.GeoCodeCacheEntry;
+import org.angiedev.schoolfinder.model.GeoLocation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * JdbcGeoCodeCacheDAO is a JDBC based implementation of the GeoCodeCacheDAO interface,
+ * keeping the entries in the GeoCodeCache table (see schoolfinder_add_geocode_cache_ddl.sql).
+ * Entries are saved with multi-row INSERT ... ON DUPLICATE KEY UPDATE statements (MySQL)
+ * so lookups of the same address made at once by different threads don't fail.
+ * <p>
+ * The entries are read and written within the current transaction if there is one,
+ * otherwise each statement is committed on its own.
+ */
+@Repository
+public class JdbcGeoCodeCacheDAO implements GeoCodeCacheDAO {
+
+	private static final String SELECT = "select address_key, source, longitude, latitude, failure, " +
+			"looked_up_at from GeoCodeCache where address_key in ";
+
+	private static final String UPSERT = "insert into GeoCodeCache (address_key, source, longitude, " +
+			"latitude, failure, looked_up_at) values ";
+	private static final String ROW = "(?,?,?,?,?,?)";
+	private static final String UPDATE = " on duplicate key update source = values(source), " +
+			"longitude = values(longitude), latitude = values(latitude), failure = values(failure), " +
+			"looked_up_at = values(looked_up_at)";
+
+	private static final int MAX_FAILURE_LENGTH = 255;
+	// most rows read or written by one statement
+	private static final int MAX_ROWS = 1000;
+
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	public JdbcGeoCodeCacheDAO(DataSource dataSource) {
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
+	}
+
+	@Override
+	public GeoCodeCacheEntry getEntry(String addressKey) {
+		return getEntries(Collections.singletonList(addressKey)).get(addressKey);
+	}
+
+	@Override
+	public Map<String, GeoCodeCacheEntry> getEntries(Collection<String> addressKeys) {
+		Map<String, GeoCodeCacheEntry> entries = new HashMap<String, GeoCodeCacheEntry>();
+		List<String> keys = new ArrayList<String>(addressKeys);
+		for (int from = 0; from < keys.size(); from += MAX_ROWS) {
+			List<String> chunk = keys.subList(from, Math.min(from + MAX_ROWS, keys.size()));
+			jdbcTemplate.query(SELECT + "(" + rows("?", chunk.size()) + ")", rs -> {
+				GeoCodeCacheEntry entry = toEntry(rs);
+				entries.put(entry.getAddressKey(), entry);
+			}, chunk.toArray());
+		}
+		return entries;
+	}
+
+	@Override
+	public void saveEntries(Collection<GeoCodeCacheEntry> entries) {
+		List<GeoCodeCacheEntry> toSave = new ArrayList<GeoCodeCacheEntry>(entries);
+		for (int from = 0; from < toSave.size(); from += MAX_ROWS) {
+			List<GeoCodeCacheEntry> chunk = toSave.subList(from, Math.min(from + MAX_ROWS, toSave.size()));
+			List<Object> args = new ArrayList<Object>(chunk.size() * 6);
+			for (GeoCodeCacheEntry entry: chunk) {
+				GeoLocation geoLocation = entry.getGeoLocation();
+				String failure = entry.getFailure();
+				args.add(entry.getAddressKey());
+				args.add(entry.getSource());
+				args.add(geoLocation == null ? null : geoLocation.getLongitude());
+				args.add(geoLocation == null ? null : geoLocation.getLatitude());
+				args.add(failure != null && failure.length() > MAX_FAILURE_LENGTH ?
+						failure.substring(0, MAX_FAILURE_LENGTH) : failure);
+				args.add(new Timestamp(entry.getLookedUpAt().getTime()));
+			}
+			jdbcTemplate.update(UPSERT + rows(ROW, chunk.size()) + UPDATE, args.toArray());
+		}
+	}
+
+	/* Creates an entry from the current row */
+	private static GeoCodeCacheEntry toEntry(ResultSet rs) throws SQLException {
+		GeoLocation geoLocation = null;
+		double longitude = rs.getDouble("longitude");
+		if (!rs.wasNull()) {
+			geoLocation = new GeoLocation();
+			geoLocation.setLongitude(longitude);
+			geoLocation.setLatitude(rs.getDouble("latitude"));
+		}
+		return new GeoCodeCacheEntry(rs.getString("address_key"), rs.getString("source"), geoLocation,
+				rs.getString("failure"), new Date(rs.getTimestamp("looked_up_at").getTime()));
+	}
+
+	/* Returns the passed in row placeholders repeated numRows times, separated by commas */
+	private static String rows(String row, int numRows) {
+		StringBuilder rows = new StringBuilder(numRows * (row.length() + 1));
+		for (int i = 0; i < numRows; i++) {
+			rows.append(i == 0 ? "" : ",").append(row);
+		}
+		return rows.toString();
+	}
+}
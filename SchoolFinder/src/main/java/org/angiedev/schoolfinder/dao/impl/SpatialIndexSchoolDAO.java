@@ -0,0 +1,262 @@
+package org.angiedev.schoolfinder.dao.impl;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PreDestroy;
+
+import org.angiedev.schoolfinder.dao.SchoolChangedEvent;
+import org.angiedev.schoolfinder.dao.SchoolDAO;
+import org.angiedev.schoolfinder.dao.impl.index.SchoolGridIndex;
+import org.angiedev.schoolfinder.model.NameMatchMode;
+import org.angiedev.schoolfinder.model.School;
+import org.angiedev.schoolfinder.model.SchoolSearchResult;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Repository;
+
+/**
+ * SpatialIndexSchoolDAO is an implementation of the SchoolDAO interface which answers
+ * the geo location searches from an in memory spatial index of the schools that have
+ * geo location data, without a round trip to the database.
+ * <p>
+ * The index is loaded from the database by the first search and is read-only after
+ * that, so processes that never search, such as the loaders, never load it.  All other
+ * operations are passed on to the hibernate based SchoolDAO.  The index is rebuilt in the
+ * background and swapped in for the old one, changeRefreshDelaySeconds after a school is
+ * changed (see {@link SchoolChangedEvent}), so a run of changes is picked up by one
+ * rebuild, and every refreshIntervalSeconds, which picks up the changes made by other
+ * processes.  A rebuild is only made if the index was searched since it was last built;
+ * otherwise the index is marked as stale and rebuilt once searches resume.  Searches keep
+ * using the old index while the new one is built.  Once it is swapped in, a
+ * SchoolChangedEvent with no NCES id is published so the search results cached from the
+ * old index are dropped.
+ */
+@Repository
+public class SpatialIndexSchoolDAO implements SchoolDAO, ApplicationListener<SchoolChangedEvent> {
+
+	private static final Log log = LogFactory.getLog(SpatialIndexSchoolDAO.class);
+
+	private SessionFactory sessionFactory;
+	private SchoolDAO schoolDAO;
+	private volatile SchoolGridIndex index;
+
+	@Autowired
+	private ApplicationEventPublisher eventPublisher;
+
+	@Value("${schoolIndex.refreshIntervalSeconds:600}")
+	private long refreshIntervalSeconds;
+
+	@Value("${schoolIndex.changeRefreshDelaySeconds:5}")
+	private long changeRefreshDelaySeconds;
+
+	private ScheduledExecutorService refresher;
+	// whether a rebuild for changed schools is scheduled and has not started yet
+	private final AtomicBoolean refreshPending = new AtomicBoolean();
+	// whether the index was searched since it was last built
+	private final AtomicBoolean searched = new AtomicBoolean();
+	// whether a rebuild was skipped because the index was not being searched
+	private final AtomicBoolean stale = new AtomicBoolean();
+
+	@Autowired
+	public SpatialIndexSchoolDAO(SessionFactory sessionFactory,
+			@Qualifier("hibernateSchoolDAO") SchoolDAO schoolDAO) {
+		this.sessionFactory = sessionFactory;
+		this.schoolDAO = schoolDAO;
+	}
+
+	@PreDestroy
+	void shutdown() {
+		synchronized (this) {
+			if (refresher != null) {
+				refresher.shutdownNow();
+			}
+		}
+	}
+
+	/*
+	 * Returns the index to search, loading it and scheduling its periodic rebuilds on the
+	 * first search, and scheduling a rebuild if it went stale while it wasn't searched.
+	 */
+	private SchoolGridIndex index() {
+		SchoolGridIndex current = index;
+		if (current == null) {
+			synchronized (this) {
+				if (index == null) {
+					index = loadIndex();
+					if (refresher == null) {
+						startRefresher();
+					}
+				}
+				current = index;
+			}
+		}
+		if (!searched.get() && !searched.getAndSet(true) && stale.compareAndSet(true, false)) {
+			scheduleRefresh(0);
+		}
+		return current;
+	}
+
+	/* Starts the thread rebuilding the index */
+	private void startRefresher() {
+		refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "school-index-refresher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		if (refreshIntervalSeconds > 0) {
+			refresher.scheduleWithFixedDelay(this::refreshIfSearched, refreshIntervalSeconds,
+					refreshIntervalSeconds, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Rebuilds the spatial index with the schools currently in the database and swaps it
+	 * in for the old one.
+	 */
+	public void refresh() {
+		SchoolGridIndex loaded = loadIndex();
+		synchronized (this) {
+			index = loaded;
+			if (refresher == null) {
+				startRefresher();
+			}
+		}
+		eventPublisher.publishEvent(new SchoolChangedEvent(this, null));
+	}
+
+	/**
+	 * Schedules a rebuild of the index for the changed school, unless one is already
+	 * scheduled or the index hasn't been loaded yet.  Events published by this DAO after
+	 * a rebuild are ignored.
+	 * @param event		event identifying the changed school.
+	 */
+	@Override
+	public void onApplicationEvent(SchoolChangedEvent event) {
+		if (event.getSource() != this && index != null) {
+			scheduleRefresh(changeRefreshDelaySeconds);
+		}
+	}
+
+	/* Schedules a rebuild of the index, unless one is already scheduled */
+	private void scheduleRefresh(long delaySeconds) {
+		if (refreshPending.compareAndSet(false, true)) {
+			refresher.schedule(() -> {
+				refreshPending.set(false);
+				refreshIfSearched();
+			}, delaySeconds, TimeUnit.SECONDS);
+		}
+	}
+
+	/*
+	 * Rebuilds the index in the background if it was searched since it was last built,
+	 * keeping the old one if the rebuild fails.  Otherwise the index is marked as stale.
+	 */
+	private void refreshIfSearched() {
+		if (!searched.getAndSet(false)) {
+			stale.set(true);
+			return;
+		}
+		try {
+			refresh();
+		} catch (RuntimeException e) {
+			log.warn("Unable to refresh the school spatial index", e);
+		}
+	}
+
+	/* Reads the schools with geo location data and builds an index of them */
+	@SuppressWarnings("unchecked")
+	private SchoolGridIndex loadIndex() {
+		try (Session session = sessionFactory.openSession()) {
+			session.setDefaultReadOnly(true);
+			// the index holds every school, so don't flood the second level cache with them
+			session.setCacheMode(CacheMode.IGNORE);
+			List<School> schools = (List<School>)session.getNamedQuery("School.findAllWithGeoData").
+					getResultList();
+			return new SchoolGridIndex(schools);
+		}
+	}
+
+	@Override
+	public void insertSchool(School school) {
+		schoolDAO.insertSchool(school);
+	}
+
+	@Override
+	public School getSchool(long schoolId) {
+		return schoolDAO.getSchool(schoolId);
+	}
+
+	@Override
+	public School getSchoolByNcesId(String ncesId) {
+		return schoolDAO.getSchoolByNcesId(ncesId);
+	}
+
+	@Override
+	public void updateSchool(School school) {
+		schoolDAO.updateSchool(school);
+	}
+
+	@Override
+	public void deleteSchool(School school) {
+		schoolDAO.deleteSchool(school);
+	}
+
+	@Override
+	public List<School> getSchoolsByDistrictId(long districtId) {
+		return schoolDAO.getSchoolsByDistrictId(districtId);
+	}
+
+	@Override
+	public List<School> getSchoolsByStateWithNoGeoData(String stateCode) {
+		return schoolDAO.getSchoolsByStateWithNoGeoData(stateCode);
+	}
+
+	@Override
+	public List<School> getSchoolsWithGeoDataAndNoCellKey(int maxNumResults) {
+		return schoolDAO.getSchoolsWithGeoDataAndNoCellKey(maxNumResults);
+	}
+
+	@Override
+	public List<School> getSchoolsAfterSchoolId(long afterSchoolId, int maxNumResults) {
+		return schoolDAO.getSchoolsAfterSchoolId(afterSchoolId, maxNumResults);
+	}
+
+	@Override
+	public List<SchoolSearchResult> getSchoolsNearGeoLocation(double latitude, double longitude, int searchRadius,
+			int maxNumResults) {
+		return index().findWithinRadius(latitude, longitude, searchRadius, maxNumResults);
+	}
+
+	@Override
+	public List<SchoolSearchResult> getSchoolsNearGeoLocation(double latitude, double longitude, int searchRadius,
+			String searchString, int maxNumResults) {
+		return index().findWithinRadius(latitude, longitude, searchRadius, searchString,
+				maxNumResults);
+	}
+
+	@Override
+	public List<SchoolSearchResult> getSchoolsNearGeoLocation(double latitude, double longitude,
+			int searchRadius, String searchString, NameMatchMode matchMode, int maxNumResults) {
+		return index().findWithinRadius(latitude, longitude, searchRadius, searchString, matchMode,
+				maxNumResults);
+	}
+
+	@Override
+	public List<SchoolSearchResult> getSchoolsNearestGeoLocation(double latitude, double longitude,
+			Integer searchRadius, String searchString, NameMatchMode matchMode, int maxNumResults) {
+		return index().findNearest(latitude, longitude, searchRadius, searchString, matchMode,
+				maxNumResults);
+	}
+}
@@ -0,0 +1,274 @@
+package org.angiedev.schoolfinder.dao.impl.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.angiedev.schoolfinder.model.District;
+import org.angiedev.schoolfinder.model.School;
+import org.angiedev.schoolfinder.util.NameTokens;
+import org.angiedev.schoolfinder.util.SpatialCellKey;
+
+/**
+ * SchoolColumnStore is a compact, read-only, column oriented store of schools.  Each
+ * school is stored as a row number and each school field is kept in its own primitive
+ * array, so scanning the schools does not require any objects to be created.
+ * <p>
+ * The text fields of every school are stored in one shared character buffer and are
+ * referenced by offsets into it, with null fields marked separately from empty ones.
+ * Grade codes and districts are interned, so each distinct value is stored only once.
+ * School objects are only created by {@link #toSchool(int)} for the rows being returned
+ * to a caller.
+ */
+class SchoolColumnStore {
+
+	// Text fields stored in the shared character buffer
+	static final int NCES_ID = 0, NAME = 1, STREET_ADDRESS = 2, CITY = 3, STATE = 4, ZIP = 5;
+	private static final int NUM_TEXT_FIELDS = 6;
+
+	private final int size;
+	private final long[] schoolIds;
+	private final double[] latitudes;
+	private final double[] longitudes;
+	private final double[] cosLatitudes;
+	private final int[] statuses;
+	private final byte[] lowGrades;
+	private final byte[] highGrades;
+	private final String[] gradeCodes;
+	private final int[] districtIndexes;
+	private final District[] districts;
+	private final char[] text;
+	private final int[] textOffsets;	// start of each text field of each row (+ end marker)
+	private final BitSet nullTexts;		// text fields (by their position in textOffsets) that are null
+	private final int[] nameRanks;		// position of each row when ordered by name
+	private final int[] rowsByName;		// rows ordered by name
+
+	/**
+	 * Creates a store containing the passed in schools.  The schools are stored in the
+	 * order passed in and must all have geo location data.
+	 * @param schools	schools to be stored.
+	 */
+	SchoolColumnStore(List<School> schools) {
+		size = schools.size();
+		schoolIds = new long[size];
+		latitudes = new double[size];
+		longitudes = new double[size];
+		cosLatitudes = new double[size];
+		statuses = new int[size];
+		lowGrades = new byte[size];
+		highGrades = new byte[size];
+		districtIndexes = new int[size];
+		textOffsets = new int[size * NUM_TEXT_FIELDS + 1];
+		nullTexts = new BitSet();
+
+		Map<String, Integer> grades = new HashMap<String, Integer>();
+		Map<District, Integer> districtMap = new IdentityHashMap<District, Integer>();
+		List<District> districtList = new ArrayList<District>();
+		StringBuilder buffer = new StringBuilder(size * 64);
+
+		for (int row = 0; row < size; row++) {
+			School s = schools.get(row);
+			schoolIds[row] = s.getSchoolId();
+			latitudes[row] = s.getLatitude();
+			longitudes[row] = s.getLongitude();
+			cosLatitudes[row] = Math.cos(Math.toRadians(s.getLatitude()));
+			statuses[row] = s.getStatus();
+			lowGrades[row] = intern(grades, s.getLowGrade());
+			highGrades[row] = intern(grades, s.getHighGrade());
+
+			Integer districtIndex = districtMap.get(s.getDistrict());
+			if (districtIndex == null) {
+				districtIndex = districtList.size();
+				districtMap.put(s.getDistrict(), districtIndex);
+				districtList.add(s.getDistrict());
+			}
+			districtIndexes[row] = districtIndex;
+
+			String[] fields = { s.getNcesId(), s.getName(), s.getStreetAddress(), s.getCity(),
+					s.getState(), s.getZip() };
+			for (int f = 0; f < NUM_TEXT_FIELDS; f++) {
+				textOffsets[row * NUM_TEXT_FIELDS + f] = buffer.length();
+				if (fields[f] != null) {
+					buffer.append(fields[f]);
+				} else {
+					nullTexts.set(row * NUM_TEXT_FIELDS + f);
+				}
+			}
+		}
+		textOffsets[size * NUM_TEXT_FIELDS] = buffer.length();
+
+		text = new char[buffer.length()];
+		buffer.getChars(0, buffer.length(), text, 0);
+		districts = districtList.toArray(new District[districtList.size()]);
+		gradeCodes = new String[grades.size()];
+		for (Map.Entry<String, Integer> e: grades.entrySet()) {
+			gradeCodes[e.getValue()] = e.getKey();
+		}
+
+		Integer[] order = new Integer[size];
+		for (int row = 0; row < size; row++) {
+			order[row] = row;
+		}
+		// schools without a name are ranked last, and never match a name search
+		Arrays.sort(order, Comparator.comparing((Integer row) -> schools.get(row).getName(),
+				Comparator.nullsLast(String.CASE_INSENSITIVE_ORDER)).thenComparing(row -> row));
+		rowsByName = new int[size];
+		nameRanks = new int[size];
+		for (int rank = 0; rank < size; rank++) {
+			rowsByName[rank] = order[rank];
+			nameRanks[order[rank]] = rank;
+		}
+	}
+
+	/* Returns the interned code for a grade, adding it if it hasn't been seen before */
+	private static byte intern(Map<String, Integer> grades, String grade) {
+		Integer code = grades.get(grade);
+		if (code == null) {
+			if (grades.size() > 0xFF) {
+				throw new IllegalStateException("Too many distinct grade codes to intern: " + grade);
+			}
+			code = grades.size();
+			grades.put(grade, code);
+		}
+		return (byte)(int)code;
+	}
+
+	int size() {
+		return size;
+	}
+
+	double latitude(int row) {
+		return latitudes[row];
+	}
+
+	double longitude(int row) {
+		return longitudes[row];
+	}
+
+	/* cosine of the school's latitude, used by the haversine distance calculation */
+	double cosLatitude(int row) {
+		return cosLatitudes[row];
+	}
+
+	/* position of the school when all of the schools are ordered by name */
+	int nameRank(int row) {
+		return nameRanks[row];
+	}
+
+	int rowForNameRank(int rank) {
+		return rowsByName[rank];
+	}
+
+	/**
+	 * Returns the name rank of the first school whose name starts with the passed in 
+	 * prefix, ignoring case.  Schools are ranked in name order, so all of the schools 
+	 * whose name starts with the prefix have consecutive ranks from this rank up to
+	 * {@link #endNameRank(String)}.
+	 */
+	int firstNameRank(String prefix) {
+		int low = 0, high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (compareNamePrefix(rowsByName[mid], prefix) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the name rank after the last school whose name starts with the passed in
+	 * prefix, ignoring case.
+	 */
+	int endNameRank(String prefix) {
+		int low = 0, high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (compareNamePrefix(rowsByName[mid], prefix) <= 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/* 
+	 * Compares the start of the name of the passed in row with the prefix using the same
+	 * case insensitive order the names are ranked in.  Returns 0 when the name starts with 
+	 * the prefix.  A null name is ranked after every prefix.
+	 */
+	private int compareNamePrefix(int row, String prefix) {
+		if (nullTexts.get(row * NUM_TEXT_FIELDS + NAME)) {
+			return 1;
+		}
+		int start = textOffsets[row * NUM_TEXT_FIELDS + NAME];
+		int length = textOffsets[row * NUM_TEXT_FIELDS + NAME + 1] - start;
+		int n = Math.min(length, prefix.length());
+		for (int i = 0; i < n; i++) {
+			char c1 = NameTokens.fold(text[start + i]);
+			char c2 = NameTokens.fold(prefix.charAt(i));
+			if (c1 != c2) {
+				return c1 - c2;
+			}
+		}
+		return (length < prefix.length()) ? -1 : 0;
+	}
+
+	/**
+	 * Returns true if a word in the name of the passed in row starts with the passed in
+	 * case folded token (see {@link NameTokens}).
+	 */
+	boolean nameHasTokenStartingWith(int row, String token) {
+		int start = textOffsets[row * NUM_TEXT_FIELDS + NAME];
+		int end = textOffsets[row * NUM_TEXT_FIELDS + NAME + 1];
+		for (int i = start; i + token.length() <= end; i++) {
+			if (i > start && NameTokens.isTokenChar(text[i - 1])) {
+				continue;	// not the start of a word
+			}
+			int j = 0;
+			while (j < token.length() && NameTokens.fold(text[i + j]) == token.charAt(j)) {
+				j++;
+			}
+			if (j == token.length()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the text field of the passed in row, or null if the school's field is null.
+	 */
+	String text(int row, int field) {
+		if (nullTexts.get(row * NUM_TEXT_FIELDS + field)) {
+			return null;
+		}
+		int start = textOffsets[row * NUM_TEXT_FIELDS + field];
+		return new String(text, start, textOffsets[row * NUM_TEXT_FIELDS + field + 1] - start);
+	}
+
+	/**
+	 * Creates a new school object with the data stored for the passed in row, along with
+	 * a copy of its district.
+	 */
+	School toSchool(int row) {
+		District district = districts[districtIndexes[row]];
+		School school = new School(text(row, NCES_ID), text(row, NAME), text(row, STREET_ADDRESS),
+				text(row, CITY), text(row, STATE), text(row, ZIP), statuses[row],
+				gradeCodes[lowGrades[row] & 0xFF], gradeCodes[highGrades[row] & 0xFF],
+				(district == null) ? null : new District(district));
+		school.setSchoolId(schoolIds[row]);
+		school.setLatitude(latitudes[row]);
+		school.setLongitude(longitudes[row]);
+		school.setCellKey(SpatialCellKey.encode(latitudes[row], longitudes[row]));
+		return school;
+	}
+}
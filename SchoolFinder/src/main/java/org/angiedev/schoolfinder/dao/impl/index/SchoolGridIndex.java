@@ -0,0 +1,669 @@
+package org.angiedev.schoolfinder.dao.impl.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+import org.angiedev.schoolfinder.model.NameMatchMode;
+import org.angiedev.schoolfinder.model.School;
+import org.angiedev.schoolfinder.model.SchoolSearchResult;
+import org.angiedev.schoolfinder.util.FuzzyNameMatch;
+import org.angiedev.schoolfinder.util.GeoDistance;
+import org.angiedev.schoolfinder.util.NameTokens;
+
+/**
+ * SchoolGridIndex is a read-only spatial index of schools.  The index divides the
+ * globe into a grid of fixed size cells and stores the schools sorted by the cell
+ * they are located in, so all of the schools within a cell are stored next to each
+ * other.  A radius search only visits the cells overlapping the search area.
+ * <p>
+ * The schools are kept in a {@link SchoolColumnStore}, so a search scans primitive
+ * arrays and only creates school objects for the schools being returned.
+ * <p>
+ * The store also ranks the schools by name, so the schools whose name starts with a
+ * search string have a consecutive range of name ranks found by binary search.  A name
+ * search either checks the distance of the schools in that range or checks the name
+ * rank of the schools in the search area, whichever has fewer schools to check.  Searches
+ * matching the words of the name, exactly or fuzzily, use a {@link SchoolTokenIndex} 
+ * the same way.
+ * <p>
+ * Only schools with geo location data (latitude and longitude) are indexed.
+ * The index is immutable once built and is safe to be shared between threads.
+ */
+public class SchoolGridIndex {
+
+	/** Size of a grid cell in degrees */
+	static final double CELL_SIZE = 0.1;
+
+	private static final int LAT_CELLS = (int)Math.ceil(180 / CELL_SIZE);
+	private static final int LONG_CELLS = (int)Math.ceil(360 / CELL_SIZE);
+
+	// a nearest search checks every school matching the name when no more than this many match
+	private static final int NAME_MATCH_SCAN_LIMIT = 2048;
+
+	private final SchoolColumnStore store;	// schools stored in order of cell
+	private final SchoolTokenIndex tokenIndex;	// words in the school names
+	private final long[] cellKeys;			// distinct cell keys in ascending order
+	private final int[] cellStarts;			// row of first school in each cell (+ end marker)
+
+	/**
+	 * Builds an index containing the passed in schools.  Schools without geo
+	 * location data are skipped.
+	 * @param schools	schools to be indexed.
+	 */
+	public SchoolGridIndex(Collection<School> schools) {
+		List<School> located = new ArrayList<School>(schools.size());
+		for (School s: schools) {
+			if (s.getLatitude() != null && s.getLongitude() != null) {
+				located.add(s);
+			}
+		}
+		located.sort(Comparator.comparingLong(s -> cellKey(s.getLatitude(), s.getLongitude())));
+		store = new SchoolColumnStore(located);
+		tokenIndex = new SchoolTokenIndex(store);
+
+		long[] keys = new long[store.size()];
+		int[] starts = new int[store.size() + 1];
+		int numCells = 0;
+		for (int row = 0; row < store.size(); row++) {
+			long key = cellKey(store.latitude(row), store.longitude(row));
+			if (numCells == 0 || keys[numCells - 1] != key) {
+				keys[numCells] = key;
+				starts[numCells++] = row;
+			}
+		}
+		starts[numCells] = store.size();
+		cellKeys = Arrays.copyOf(keys, numCells);
+		cellStarts = Arrays.copyOf(starts, numCells + 1);
+	}
+
+	/**
+	 * Returns the number of schools in the index.
+	 * @return	number of indexed schools.
+	 */
+	public int size() {
+		return store.size();
+	}
+
+	/**
+	 * Retrieves the schools located within the search radius of the passed in geo location
+	 * ordered by name, along with their distance and bearing from the geo location.  The 
+	 * returned schools are new objects and can be modified by the caller.
+	 * @param latitude		latitude of the position to search near.
+	 * @param longitude		longitude of the position to search near.
+	 * @param searchRadius	the search radius in miles to conduct the search.
+	 * @param maxNumResults	maximum number of schools to return.
+	 * @return				the list of schools within the search radius ordered by name.
+	 */
+	public List<SchoolSearchResult> findWithinRadius(double latitude, double longitude, int searchRadius,
+			int maxNumResults) {
+		return findWithinRadius(latitude, longitude, searchRadius, null, maxNumResults);
+	}
+
+	/**
+	 * Retrieves the schools located within the search radius of the passed in geo location
+	 * whose name starts with the passed in search string (ignoring case) ordered by name, 
+	 * along with their distance and bearing from the geo location.  The returned schools 
+	 * are new objects and can be modified by the caller.
+	 * @param latitude		latitude of the position to search near.
+	 * @param longitude		longitude of the position to search near.
+	 * @param searchRadius	the search radius in miles to conduct the search.
+	 * @param searchString	search string to find at start of the school's name, or null
+	 * 						to match every school.
+	 * @param maxNumResults	maximum number of schools to return.
+	 * @return				the list of matching schools within the search radius ordered by name.
+	 */
+	public List<SchoolSearchResult> findWithinRadius(double latitude, double longitude, int searchRadius,
+			String searchString, int maxNumResults) {
+		return findWithinRadius(latitude, longitude, searchRadius, searchString, NameMatchMode.PREFIX,
+				maxNumResults);
+	}
+
+	/**
+	 * Retrieves the schools located within the search radius of the passed in geo location
+	 * whose name matches the passed in search string ordered by name, along with their 
+	 * distance and bearing from the geo location.  Fuzzy matches are ordered by their
+	 * {@link FuzzyNameMatch#score(int, double, double) score} instead of by name.  The 
+	 * returned schools are new objects and can be modified by the caller.
+	 * @param latitude		latitude of the position to search near.
+	 * @param longitude		longitude of the position to search near.
+	 * @param searchRadius	the search radius in miles to conduct the search (no schools are 
+	 * 						within a radius of zero or less).
+	 * @param searchString	search string to match against the school's name, or null
+	 * 						to match every school.
+	 * @param matchMode		how the search string is matched against the school's name.
+	 * @param maxNumResults	maximum number of schools to return.
+	 * @return				the list of matching schools within the search radius ordered by name.
+	 */
+	public List<SchoolSearchResult> findWithinRadius(double latitude, double longitude, int searchRadius,
+			String searchString, NameMatchMode matchMode, int maxNumResults) {
+		if (maxNumResults <= 0 || searchRadius <= 0) {
+			return new ArrayList<SchoolSearchResult>();
+		}
+
+		// The haversine formula calculates 2R * asin(sqrt(h)); compare h against the value
+		// for the search radius instead of calculating the distance of every school
+		double maxH = toH(searchRadius);
+		double cosLat = Math.cos(Math.toRadians(latitude));
+
+		NameFilter filter = nameFilter(searchString, matchMode);
+		if (filter.size == 0) {
+			return new ArrayList<SchoolSearchResult>();
+		}
+
+		int[] cells = coveringCells(latitude, longitude, searchRadius);
+		int numInArea = 0;
+		for (int cell: cells) {
+			numInArea += cellStarts[cell + 1] - cellStarts[cell];
+		}
+
+		if (filter.edits != null) {
+			return findFuzzyWithinRadius(latitude, longitude, searchRadius, filter, cells, 
+					filter.size < numInArea, maxNumResults);
+		}
+
+		int[] ranks;
+		if (filter.size < numInArea && filter.rows == null) {
+			// fewer schools match the name than are in the search area, so check the matching 
+			// names in name order and stop once enough of them are within the search radius
+			ranks = new int[Math.min(maxNumResults, filter.size)];
+			int numFound = 0;
+			for (int rank = filter.firstRank; rank < filter.endRank && numFound < ranks.length; rank++) {
+				if (haversine(store.rowForNameRank(rank), latitude, longitude, cosLat) < maxH) {
+					ranks[numFound++] = rank;
+				}
+			}
+			ranks = Arrays.copyOf(ranks, numFound);
+		} else if (filter.size < numInArea) {
+			// fewer schools match the name than are in the search area, so check each of them
+			NameRankHeap heap = new NameRankHeap(maxNumResults);
+			for (int row = filter.rows.nextSetBit(0); row >= 0; row = filter.rows.nextSetBit(row + 1)) {
+				int rank = store.nameRank(row);
+				if (!(heap.isFull() && rank > heap.max()) &&
+						haversine(row, latitude, longitude, cosLat) < maxH) {
+					heap.add(rank);
+				}
+			}
+			ranks = heap.sortedRanks();
+		} else {
+			// max heap of the name ranks of the best matches found so far
+			NameRankHeap heap = new NameRankHeap(maxNumResults);
+			for (int cell: cells) {
+				for (int row = cellStarts[cell]; row < cellStarts[cell + 1]; row++) {
+					int rank = store.nameRank(row);
+					if ((heap.isFull() && rank > heap.max()) || !filter.matches(row, rank)) {
+						continue;
+					}
+					if (haversine(row, latitude, longitude, cosLat) < maxH) {
+						heap.add(rank);
+					}
+				}
+			}
+			ranks = heap.sortedRanks();
+		}
+
+		List<SchoolSearchResult> results = new ArrayList<SchoolSearchResult>(ranks.length);
+		for (int rank: ranks) {
+			results.add(toSearchResult(store.rowForNameRank(rank), latitude, longitude));
+		}
+		return results;
+	}
+
+	/* 
+	 * Retrieves the fuzzy matches within the search radius ranked by their score, checking
+	 * either each of the matching schools or each of the schools in the search area.
+	 */
+	private List<SchoolSearchResult> findFuzzyWithinRadius(double latitude, double longitude, 
+			int searchRadius, NameFilter filter, int[] cells, boolean checkMatches, int maxNumResults) {
+		double maxH = toH(searchRadius);
+		double cosLat = Math.cos(Math.toRadians(latitude));
+		RowHeap heap = new RowHeap(maxNumResults);
+		if (checkMatches) {
+			for (int row = filter.firstRow(); row >= 0; row = filter.nextRow(row)) {
+				addFuzzyMatch(row, latitude, longitude, cosLat, maxH, searchRadius, filter, heap);
+			}
+		} else {
+			for (int cell: cells) {
+				for (int row = cellStarts[cell]; row < cellStarts[cell + 1]; row++) {
+					if (filter.rows.get(row)) {
+						addFuzzyMatch(row, latitude, longitude, cosLat, maxH, searchRadius, filter, heap);
+					}
+				}
+			}
+		}
+		return toSearchResults(heap, latitude, longitude);
+	}
+
+	/* Adds a fuzzy match to the heap of best matches if it is within the search radius */
+	private void addFuzzyMatch(int row, double latitude, double longitude, double cosLat, double maxH,
+			int searchRadius, NameFilter filter, RowHeap heap) {
+		double h = haversine(row, latitude, longitude, cosLat);
+		if (h < maxH) {
+			double distance = 2 * GeoDistance.EARTH_RADIUS_MILES * Math.asin(Math.sqrt(h));
+			double score = FuzzyNameMatch.score(filter.edits[row], distance, searchRadius);
+			if (!(heap.isFull() && score >= heap.maxKey())) {
+				heap.add(score, row);
+			}
+		}
+	}
+
+	/* Returns the filter selecting the schools whose name matches the search string */
+	private NameFilter nameFilter(String searchString, NameMatchMode matchMode) {
+		if (searchString != null && (matchMode == NameMatchMode.TOKENS || matchMode == NameMatchMode.FUZZY)) {
+			List<String> tokens = NameTokens.tokenize(searchString);
+			if (tokens.isEmpty()) {
+				searchString = null;
+			} else if (matchMode == NameMatchMode.FUZZY) {
+				byte[] edits = new byte[store.size()];
+				return new NameFilter(tokenIndex.findFuzzy(tokens, edits), edits);
+			} else {
+				return new NameFilter(tokenIndex.find(tokens), null);
+			}
+		}
+		// the schools whose name starts with the search string have consecutive name ranks
+		if (searchString == null) {
+			return new NameFilter(0, store.size());
+		}
+		return new NameFilter(store.firstNameRank(searchString), store.endNameRank(searchString));
+	}
+
+	/* 
+	 * Returns the occupied cells overlapping the area within the search radius of a geo location.
+	 * When the area covers more cells than are occupied, every occupied cell is checked instead
+	 * of looking up each of the covered cells.
+	 */
+	private int[] coveringCells(double latitude, double longitude, int searchRadius) {
+		double latSpan = GeoDistance.latitudeSpan(searchRadius);
+		double longSpan = GeoDistance.longitudeSpan(latitude, searchRadius);
+
+		int minLatCell = latCell(Math.max(-90, latitude - latSpan));
+		int maxLatCell = latCell(Math.min(90, latitude + latSpan));
+		int minLongCell, maxLongCell;
+		if (longSpan >= 180) {
+			minLongCell = 0;
+			maxLongCell = LONG_CELLS - 1;
+		} else {
+			minLongCell = (int)Math.floor((longitude - longSpan + 180) / CELL_SIZE);
+			maxLongCell = Math.min(minLongCell + LONG_CELLS - 1,
+					(int)Math.floor((longitude + longSpan + 180) / CELL_SIZE));
+		}
+
+		long numCovered = (long)(maxLatCell - minLatCell + 1) * (maxLongCell - minLongCell + 1);
+		if (numCovered > cellKeys.length) {
+			int[] cells = new int[cellKeys.length];
+			int numCells = 0;
+			for (int cell = 0; cell < cellKeys.length; cell++) {
+				int latCell = (int)(cellKeys[cell] / LONG_CELLS);
+				int longCell = (int)(cellKeys[cell] % LONG_CELLS);
+				// wrap around the date line
+				if (latCell >= minLatCell && latCell <= maxLatCell &&
+						Math.floorMod(longCell - minLongCell, LONG_CELLS) <= maxLongCell - minLongCell) {
+					cells[numCells++] = cell;
+				}
+			}
+			return Arrays.copyOf(cells, numCells);
+		}
+
+		int[] cells = new int[16];
+		int numCells = 0;
+		for (int latCell = minLatCell; latCell <= maxLatCell; latCell++) {
+			for (int c = minLongCell; c <= maxLongCell; c++) {
+				// wrap around the date line
+				int longCell = Math.floorMod(c, LONG_CELLS);
+				int cell = Arrays.binarySearch(cellKeys, (long)latCell * LONG_CELLS + longCell);
+				if (cell >= 0) {
+					if (numCells == cells.length) {
+						cells = Arrays.copyOf(cells, 2 * numCells);
+					}
+					cells[numCells++] = cell;
+				}
+			}
+		}
+		return Arrays.copyOf(cells, numCells);
+	}
+
+	/* 
+	 * Returns the haversine term h of the distance between a row and a geo location.  The 
+	 * haversine formula calculates the distance as 2R * asin(sqrt(h)), so h grows with the
+	 * distance and can be compared instead of the distance.
+	 */
+	private double haversine(int row, double latitude, double longitude, double cosLat) {
+		double sinLat = Math.sin(Math.toRadians(latitude - store.latitude(row)) / 2);
+		double sinLong = Math.sin(Math.toRadians(longitude - store.longitude(row)) / 2);
+		return sinLat * sinLat + cosLat * store.cosLatitude(row) * sinLong * sinLong;
+	}
+	/**
+	 * Retrieves the schools nearest to the passed in geo location ordered by distance 
+	 * (nearest first), along with their distance and bearing from it.  The grid cells are 
+	 * visited in rings of increasing distance around the geo location and the search stops
+	 * as soon as no school in the remaining cells can be nearer than the schools already 
+	 * found.  The returned schools are new objects and can be modified by the caller.
+	 * @param latitude		latitude of the position to search near.
+	 * @param longitude		longitude of the position to search near.
+	 * @param searchRadius	the search radius in miles, or null to return the nearest schools
+	 * 						regardless of their distance.
+	 * @param searchString	search string to match against the school's name, or null
+	 * 						to match every school.
+	 * @param matchMode		how the search string is matched against the school's name.
+	 * @param maxNumResults	maximum number of schools to return.
+	 * @return				the list of the nearest matching schools ordered by distance.
+	 */
+	public List<SchoolSearchResult> findNearest(double latitude, double longitude, Integer searchRadius,
+			String searchString, NameMatchMode matchMode, int maxNumResults) {
+		if (maxNumResults <= 0 || (searchRadius != null && searchRadius <= 0)) {
+			return new ArrayList<SchoolSearchResult>();
+		}
+
+		double maxH = (searchRadius == null) ? Double.POSITIVE_INFINITY : toH(searchRadius);
+		double cosLat = Math.cos(Math.toRadians(latitude));
+		RowHeap heap = new RowHeap(maxNumResults);
+
+		NameFilter filter = nameFilter(searchString, matchMode);
+		if (filter.size <= NAME_MATCH_SCAN_LIMIT) {
+			// few enough schools match the name to check all of them
+			for (int row = filter.firstRow(); row >= 0; row = filter.nextRow(row)) {
+				double h = haversine(row, latitude, longitude, cosLat);
+				if (h < maxH && !(heap.isFull() && h >= heap.maxKey())) {
+					heap.add(h, row);
+				}
+			}
+			return toSearchResults(heap, latitude, longitude);
+		}
+
+		int centerLatCell = latCell(latitude);
+		int centerLongCell = Math.floorMod((int)Math.floor((longitude + 180) / CELL_SIZE), LONG_CELLS);
+
+		// once the rings cover more cells than there are occupied cells it is cheaper to scan
+		// every school than to keep looking up mostly empty cells.  A ring must also never be
+		// wide enough to wrap around the globe and visit the same cell twice.
+		int maxRing = Math.min((int)Math.sqrt(4.0 * cellKeys.length) + 1, (LONG_CELLS - 1) / 2);
+		int ring = 0;
+		for (; ring <= maxRing; ring++) {
+			for (int latCell = centerLatCell - ring; latCell <= centerLatCell + ring; latCell++) {
+				if (latCell < 0 || latCell >= LAT_CELLS) {
+					continue;
+				}
+				boolean edgeRow = Math.abs(latCell - centerLatCell) == ring;
+				int step = edgeRow ? 1 : 2 * ring;
+				for (int c = centerLongCell - ring; c <= centerLongCell + ring; c += Math.max(1, step)) {
+					int cell = Arrays.binarySearch(cellKeys,
+							(long)latCell * LONG_CELLS + Math.floorMod(c, LONG_CELLS));
+					if (cell >= 0) {
+						scanNearest(cell, cell + 1, latitude, longitude, cosLat, maxH, filter, heap);
+					}
+				}
+			}
+
+			// nothing outside of the cells visited so far can be nearer than this bound
+			double bound = toH(distanceOutsideRing(latitude, longitude, centerLatCell, centerLongCell, ring));
+			if (bound >= maxH || (heap.isFull() && bound >= heap.maxKey())) {
+				break;
+			}
+		}
+		if (ring > maxRing) {
+			heap = new RowHeap(maxNumResults);
+			scanNearest(0, cellKeys.length, latitude, longitude, cosLat, maxH, filter, heap);
+		}
+
+		return toSearchResults(heap, latitude, longitude);
+	}
+
+	/* Creates the search results for the rows in the heap, best first */
+	private List<SchoolSearchResult> toSearchResults(RowHeap heap, double latitude, double longitude) {
+		int[] rows = heap.sortedRows();
+		List<SchoolSearchResult> results = new ArrayList<SchoolSearchResult>(rows.length);
+		for (int row: rows) {
+			results.add(toSearchResult(row, latitude, longitude));
+		}
+		return results;
+	}
+
+	/* Creates the search result for a row with its distance and bearing from the search location */
+	private SchoolSearchResult toSearchResult(int row, double latitude, double longitude) {
+		double schoolLatitude = store.latitude(row);
+		double schoolLongitude = store.longitude(row);
+		return new SchoolSearchResult(store.toSchool(row),
+				GeoDistance.distanceInMiles(latitude, longitude, schoolLatitude, schoolLongitude),
+				GeoDistance.bearing(latitude, longitude, schoolLatitude, schoolLongitude));
+	}
+
+	/* Adds the matching schools in the passed in range of cells to the heap of nearest schools */
+	private void scanNearest(int fromCell, int toCell, double latitude, double longitude, double cosLat,
+			double maxH, NameFilter filter, RowHeap heap) {
+		for (int row = cellStarts[fromCell]; row < cellStarts[toCell]; row++) {
+			if (!filter.matches(row, store.nameRank(row))) {
+				continue;
+			}
+			double h = haversine(row, latitude, longitude, cosLat);
+			if (h < maxH && !(heap.isFull() && h >= heap.maxKey())) {
+				heap.add(h, row);
+			}
+		}
+	}
+
+	/* 
+	 * Returns the minimum distance in miles from the geo location to any point outside of 
+	 * the block of cells within the passed in number of rings of the center cell.
+	 */
+	private static double distanceOutsideRing(double latitude, double longitude, int centerLatCell,
+			int centerLongCell, int ring) {
+		double minLat = (centerLatCell - ring) * CELL_SIZE - 90;
+		double maxLat = (centerLatCell + ring + 1) * CELL_SIZE - 90;
+		double latDegrees = Math.min((minLat <= -90) ? 180 : latitude - minLat,
+				(maxLat >= 90) ? 180 : maxLat - latitude);
+
+		double minLong = (centerLongCell - ring) * CELL_SIZE - 180;
+		double maxLong = (centerLongCell + ring + 1) * CELL_SIZE - 180;
+		double longDegrees = Math.min(90, Math.min(longitude - minLong, maxLong - longitude));
+
+		// distance to the nearest point on the meridians bounding the block
+		double longMiles = GeoDistance.EARTH_RADIUS_MILES * Math.asin(Math.min(1,
+				Math.cos(Math.toRadians(latitude)) * Math.sin(Math.toRadians(longDegrees))));
+		return Math.min(latDegrees * GeoDistance.MILES_PER_DEGREE, longMiles);
+	}
+
+	/* Converts a distance in miles into the haversine term compared by the searches */
+	private static double toH(double miles) {
+		double sinHalfAngle = Math.sin(Math.min(Math.PI / 2, miles / GeoDistance.EARTH_RADIUS_MILES / 2));
+		return sinHalfAngle * sinHalfAngle;
+	}
+
+	private static long cellKey(double latitude, double longitude) {
+		int longCell = Math.floorMod((int)Math.floor((longitude + 180) / CELL_SIZE), LONG_CELLS);
+		return (long)latCell(latitude) * LONG_CELLS + longCell;
+	}
+
+	private static int latCell(double latitude) {
+		return Math.min(LAT_CELLS - 1, (int)Math.floor((latitude + 90) / CELL_SIZE));
+	}
+
+	/*
+	 * NameFilter is the set of schools whose name matches a search string, either a range
+	 * of name ranks or a set of rows.
+	 */
+	private class NameFilter {
+		final int firstRank;
+		final int endRank;
+		final BitSet rows;		// matching rows, or null to match the rank range
+		final byte[] edits;		// edits of each fuzzy matching row, or null
+		final int size;
+
+		NameFilter(int firstRank, int endRank) {
+			this.firstRank = firstRank;
+			this.endRank = endRank;
+			this.rows = null;
+			this.edits = null;
+			this.size = Math.max(0, endRank - firstRank);
+		}
+
+		NameFilter(BitSet rows, byte[] edits) {
+			this.firstRank = 0;
+			this.endRank = store.size();
+			this.rows = rows;
+			this.edits = edits;
+			this.size = rows.cardinality();
+		}
+
+		boolean matches(int row, int rank) {
+			return (rows == null) ? rank >= firstRank && rank < endRank : rows.get(row);
+		}
+
+		/* first matching row, or -1 if there is none */
+		int firstRow() {
+			if (rows != null) {
+				return rows.nextSetBit(0);
+			}
+			return (size > 0) ? store.rowForNameRank(firstRank) : -1;
+		}
+
+		/* matching row after the passed in row (in name order for a rank range), or -1 */
+		int nextRow(int row) {
+			if (rows != null) {
+				return rows.nextSetBit(row + 1);
+			}
+			int rank = store.nameRank(row) + 1;
+			return (rank < endRank) ? store.rowForNameRank(rank) : -1;
+		}
+	}
+
+	/*
+	 * NameRankHeap is a bounded max heap of name ranks used to keep the first schools in
+	 * name order without sorting all of the matches.  The heap array starts small and
+	 * grows up to the limit, so a large limit doesn't allocate memory it doesn't use.
+	 */
+	private static class NameRankHeap {
+		private final int limit;
+		private int[] ranks;
+		private int size;
+
+		NameRankHeap(int limit) {
+			this.limit = limit;
+			this.ranks = new int[Math.min(limit, 64)];
+		}
+
+		boolean isFull() {
+			return size == limit;
+		}
+
+		int max() {
+			return ranks[0];
+		}
+
+		void add(int rank) {
+			if (size < limit) {
+				if (size == ranks.length) {
+					ranks = Arrays.copyOf(ranks, (int)Math.min(limit, 2L * ranks.length));
+				}
+				int i = size++;
+				while (i > 0 && ranks[(i - 1) / 2] < rank) {
+					ranks[i] = ranks[(i - 1) / 2];
+					i = (i - 1) / 2;
+				}
+				ranks[i] = rank;
+			} else if (rank < ranks[0]) {
+				int i = 0;
+				while (true) {
+					int child = 2 * i + 1;
+					if (child >= size) {
+						break;
+					}
+					if (child + 1 < size && ranks[child + 1] > ranks[child]) {
+						child++;
+					}
+					if (ranks[child] <= rank) {
+						break;
+					}
+					ranks[i] = ranks[child];
+					i = child;
+				}
+				ranks[i] = rank;
+			}
+		}
+
+		int[] sortedRanks() {
+			int[] sorted = Arrays.copyOf(ranks, size);
+			Arrays.sort(sorted);
+			return sorted;
+		}
+	}
+
+	/*
+	 * RowHeap is a bounded max heap of rows keyed by their haversine term or fuzzy match 
+	 * score, used to keep the best schools found so far.
+	 */
+	private static class RowHeap {
+		private final int limit;
+		private double[] keys;
+		private int[] rows;
+		private int size;
+
+		RowHeap(int limit) {
+			this.limit = limit;
+			this.keys = new double[Math.min(limit, 64)];
+			this.rows = new int[keys.length];
+		}
+
+		boolean isFull() {
+			return size == limit;
+		}
+
+		double maxKey() {
+			return keys[0];
+		}
+
+		void add(double h, int row) {
+			int i;
+			if (size < limit) {
+				if (size == keys.length) {
+					int capacity = (int)Math.min(limit, 2L * keys.length);
+					keys = Arrays.copyOf(keys, capacity);
+					rows = Arrays.copyOf(rows, capacity);
+				}
+				i = size++;
+				while (i > 0 && keys[(i - 1) / 2] < h) {
+					keys[i] = keys[(i - 1) / 2];
+					rows[i] = rows[(i - 1) / 2];
+					i = (i - 1) / 2;
+				}
+			} else if (h < keys[0]) {
+				i = 0;
+				while (true) {
+					int child = 2 * i + 1;
+					if (child >= size) {
+						break;
+					}
+					if (child + 1 < size && keys[child + 1] > keys[child]) {
+						child++;
+					}
+					if (keys[child] <= h) {
+						break;
+					}
+					keys[i] = keys[child];
+					rows[i] = rows[child];
+					i = child;
+				}
+			} else {
+				return;
+			}
+			keys[i] = h;
+			rows[i] = row;
+		}
+
+		/* Returns the rows ordered by key, lowest (best) first */
+		int[] sortedRows() {
+			Integer[] positions = new Integer[size];
+			for (int i = 0; i < size; i++) {
+				positions[i] = i;
+			}
+			Arrays.sort(positions, (a, b) -> Double.compare(keys[a], keys[b]));
+			int[] sorted = new int[size];
+			for (int i = 0; i < size; i++) {
+				sorted[i] = rows[positions[i]];
+			}
+			return sorted;
+		}
+	}
+}
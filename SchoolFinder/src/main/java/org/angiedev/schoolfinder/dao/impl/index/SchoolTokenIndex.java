@@ -0,0 +1,271 @@
+package org.angiedev.schoolfinder.dao.impl.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.angiedev.schoolfinder.util.FuzzyNameMatch;
+import org.angiedev.schoolfinder.util.NameTokens;
+
+/**
+ * SchoolTokenIndex is a read-only inverted index of the words (tokens) in the names of
+ * the schools in a {@link SchoolColumnStore}.  Each distinct token has a posting list
+ * of the rows whose name contains it.
+ * <p>
+ * The tokens are kept in sorted order and their posting lists are stored one after
+ * another in the same order, so all of the tokens starting with a prefix, and all of
+ * their postings, are found in one consecutive range.
+ * <p>
+ * Fuzzy searches walk the sorted tokens as if they were a trie: the edit distance table 
+ * of a token is shared with the next token for their common prefix, and every token 
+ * starting with a prefix that is already too many edits away is skipped.
+ */
+class SchoolTokenIndex {
+
+	// a query token whose postings outnumber the rows still matching by more than this
+	// factor is checked against the names of those rows instead of reading its postings
+	private static final int VERIFY_FACTOR = 8;
+
+	private final SchoolColumnStore store;
+	private final String[] tokens;			// distinct case folded tokens in ascending order
+	private final int[] postingStarts;		// start of the postings of each token (+ end marker)
+	private final int[] postings;			// rows containing each token in ascending order
+
+	/**
+	 * Builds the token index of the names of the schools in the passed in store.
+	 * @param store		store containing the schools to index.
+	 */
+	SchoolTokenIndex(SchoolColumnStore store) {
+		this.store = store;
+
+		// count the rows containing each token, holding {count, last row counted}
+		Map<String, int[]> counts = new HashMap<String, int[]>();
+		for (int row = 0; row < store.size(); row++) {
+			for (String token: NameTokens.tokenize(store.text(row, SchoolColumnStore.NAME))) {
+				int[] count = counts.get(token);
+				if (count == null) {
+					counts.put(token, new int[] { 1, row });
+				} else if (count[1] != row) {
+					count[0]++;
+					count[1] = row;
+				}
+			}
+		}
+
+		tokens = counts.keySet().toArray(new String[counts.size()]);
+		Arrays.sort(tokens);
+		postingStarts = new int[tokens.length + 1];
+		Map<String, Integer> tokenIds = new HashMap<String, Integer>();
+		for (int t = 0; t < tokens.length; t++) {
+			postingStarts[t + 1] = postingStarts[t] + counts.get(tokens[t])[0];
+			tokenIds.put(tokens[t], t);
+		}
+
+		postings = new int[postingStarts[tokens.length]];
+		int[] next = Arrays.copyOf(postingStarts, tokens.length);
+		for (int row = 0; row < store.size(); row++) {
+			for (String token: NameTokens.tokenize(store.text(row, SchoolColumnStore.NAME))) {
+				int t = tokenIds.get(token);
+				if (next[t] == postingStarts[t] || postings[next[t] - 1] != row) {
+					postings[next[t]++] = row;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the rows of the schools whose name has a word starting with each of the
+	 * passed in query tokens.  The most selective token is read from the index first and
+	 * each of the other tokens narrows down the matching rows, so the work done is bounded
+	 * by the number of rows matching the most selective token.
+	 * @param queryTokens	case folded tokens to find (see {@link NameTokens#tokenize(String)}).
+	 * @return				set of the matching rows.
+	 */
+	BitSet find(List<String> queryTokens) {
+		List<int[]> ranges = new ArrayList<int[]>(queryTokens.size());
+		for (String token: queryTokens) {
+			int first = firstToken(token);
+			ranges.add(new int[] { postingStarts[first], postingStarts[endToken(token, first)],
+					ranges.size() });
+		}
+		// most selective token first
+		Collections.sort(ranges, (a, b) -> Integer.compare(a[1] - a[0], b[1] - b[0]));
+
+		BitSet matches = new BitSet(store.size());
+		int[] range = ranges.get(0);
+		for (int p = range[0]; p < range[1]; p++) {
+			matches.set(postings[p]);
+		}
+		for (int i = 1; i < ranges.size() && !matches.isEmpty(); i++) {
+			range = ranges.get(i);
+			String token = queryTokens.get(range[2]);
+			int numMatches = matches.cardinality();
+			if (range[1] - range[0] <= (long)VERIFY_FACTOR * numMatches) {
+				BitSet tokenMatches = new BitSet(store.size());
+				for (int p = range[0]; p < range[1]; p++) {
+					tokenMatches.set(postings[p]);
+				}
+				matches.and(tokenMatches);
+			} else {
+				for (int row = matches.nextSetBit(0); row >= 0; row = matches.nextSetBit(row + 1)) {
+					if (!store.nameHasTokenStartingWith(row, token)) {
+						matches.clear(row);
+					}
+				}
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * Returns the rows of the schools whose name has a word within the allowed number of 
+	 * edits of each of the passed in query tokens (see {@link FuzzyNameMatch}), and sets
+	 * the total number of edits of each matching row into the passed in array.
+	 * @param queryTokens	case folded tokens to find (see {@link NameTokens#tokenize(String)}).
+	 * @param edits			array, one entry per row, set to the number of edits of each match.
+	 * @return				set of the matching rows.
+	 */
+	BitSet findFuzzy(List<String> queryTokens, byte[] edits) {
+		BitSet matches = null;
+		byte[] tokenEdits = new byte[store.size()];
+		for (String queryToken: queryTokens) {
+			BitSet tokenMatches = new BitSet(store.size());
+			int maxEdits = FuzzyNameMatch.maxEdits(queryToken.length());
+			int[] fuzzyTokens = fuzzyTokens(queryToken, maxEdits);
+			for (int i = 0; i < fuzzyTokens.length; i += 2) {
+				int t = fuzzyTokens[i];
+				byte tokenDistance = (byte)fuzzyTokens[i + 1];
+				for (int p = postingStarts[t]; p < postingStarts[t + 1]; p++) {
+					int row = postings[p];
+					if (!tokenMatches.get(row) || tokenEdits[row] > tokenDistance) {
+						tokenMatches.set(row);
+						tokenEdits[row] = tokenDistance;
+					}
+				}
+			}
+
+			if (matches == null) {
+				matches = tokenMatches;
+				for (int row = matches.nextSetBit(0); row >= 0; row = matches.nextSetBit(row + 1)) {
+					edits[row] = tokenEdits[row];
+				}
+			} else {
+				matches.and(tokenMatches);
+				for (int row = matches.nextSetBit(0); row >= 0; row = matches.nextSetBit(row + 1)) {
+					edits[row] += tokenEdits[row];
+				}
+			}
+			if (matches.isEmpty()) {
+				break;
+			}
+		}
+		return matches;
+	}
+
+	/* 
+	 * Returns the tokens whose start is within maxEdits edits of the query token, as pairs
+	 * of token index and number of edits.
+	 */
+	private int[] fuzzyTokens(String queryToken, int maxEdits) {
+		int m = queryToken.length();
+		int maxDepth = m + maxEdits;
+
+		// columns[j][i] is the number of edits between queryToken[0..i) and token[0..j)
+		int[][] columns = new int[maxDepth + 1][m + 1];
+		for (int i = 0; i <= m; i++) {
+			columns[0][i] = i;
+		}
+		// best[j] is the fewest edits between the whole query token and token[0..k) for k <= j
+		int[] best = new int[maxDepth + 1];
+		best[0] = m;
+
+		int[] matches = new int[16];
+		int numMatches = 0;
+		String previous = "";
+		int validDepth = 0;		// columns computed for the previous token
+		int t = 0;
+		while (t < tokens.length) {
+			String token = tokens[t];
+			int depth = Math.min(token.length(), maxDepth);
+			int j = commonPrefix(previous, token, validDepth);
+			boolean pruned = false;
+			while (j < depth) {
+				j++;
+				int[] column = columns[j];
+				int[] left = columns[j - 1];
+				column[0] = j;
+				int min = j;
+				for (int i = 1; i <= m; i++) {
+					int cost = (queryToken.charAt(i - 1) == token.charAt(j - 1)) ? 0 : 1;
+					column[i] = Math.min(Math.min(column[i - 1], left[i]) + 1, left[i - 1] + cost);
+					min = Math.min(min, column[i]);
+				}
+				best[j] = Math.min(best[j - 1], column[m]);
+				if (min > maxEdits && best[j] > maxEdits) {
+					// no token starting with token[0..j) can match, skip all of them
+					previous = token;
+					validDepth = j - 1;
+					t = endToken(token.substring(0, j), t);
+					pruned = true;
+					break;
+				}
+			}
+			if (pruned) {
+				continue;
+			}
+			if (best[depth] <= maxEdits) {
+				if (numMatches + 2 > matches.length) {
+					matches = Arrays.copyOf(matches, 2 * matches.length);
+				}
+				matches[numMatches++] = t;
+				matches[numMatches++] = best[depth];
+			}
+			previous = token;
+			validDepth = depth;
+			t++;
+		}
+		return Arrays.copyOf(matches, numMatches);
+	}
+
+	/* Returns the length of the common prefix of two tokens, up to the passed in limit */
+	private static int commonPrefix(String a, String b, int limit) {
+		int n = Math.min(limit, Math.min(a.length(), b.length()));
+		int i = 0;
+		while (i < n && a.charAt(i) == b.charAt(i)) {
+			i++;
+		}
+		return i;
+	}
+
+	/* Returns the index of the first token that is not less than the passed in prefix */
+	private int firstToken(String prefix) {
+		int low = 0, high = tokens.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (tokens[mid].compareTo(prefix) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/* Returns the index after the last token starting with the passed in prefix */
+	private int endToken(String prefix, int first) {
+		int low = first, high = tokens.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (tokens[mid].startsWith(prefix)) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+}
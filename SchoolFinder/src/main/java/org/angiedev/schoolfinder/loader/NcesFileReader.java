@@ -0,0 +1,227 @@
+package org.angiedev.schoolfinder.loader;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * NcesFileReader reads the school records of an NCES school data file, one record at a
+ * time, holding no more than a buffer of the file in memory.
+ * <p>
+ * The file is read in large blocks into a byte buffer that is reused for the whole file,
+ * and each line is split on its tabs by recording where its fields start and end in the
+ * buffer.  Nothing is allocated per line: a field is only turned into a String when it is
+ * asked for, and numbers are parsed straight from the buffer.  Tabs and line breaks can't
+ * be part of a multi-byte character, so the fields are decoded one by one using the
+ * file's character set (ISO-8859-1 by default, which maps each byte to one character).
+ * <p>
+ * Two file layouts are read:
+ * <ul>
+ *   <li>the raw directory file published by the NCES (i.e. Sch14pre.txt), recognized by
+ *   its SURVYEAR header, whose 26 columns are described in NCESDataDescription.txt.
+ *   <li>the 11 column file written from it by parseSchoolData.sh (i.e. Parsed-Sch14pre.txt).
+ * </ul>
+ * The first line of either file holds the column headers and is skipped.
+ */
+public class NcesFileReader implements Closeable {
+
+	/**
+	 * The school data fields read from a record.
+	 */
+	public enum Field { NCES_ID, LEA_ID, DISTRICT, SCHOOL, ADDRESS, CITY, STATE, ZIP, STATUS,
+		LOW_GRADE, HIGH_GRADE }
+
+	// column (starting at 0) of each field, in the order of Field, in the raw and parsed files
+	private static final int[] RAW_COLUMNS = { 1, 3, 7, 8, 15, 16, 17, 18, 21, 24, 25 };
+	private static final int[] PARSED_COLUMNS = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 };
+
+	private static final String RAW_FIRST_HEADER = "SURVYEAR";
+	private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+	private static final int MAX_COLUMNS = 32;
+
+	private final InputStream in;
+	private final Charset charset;
+	private byte[] buffer;
+	private int bufferEnd;			// end of the data read into the buffer
+	private int position;			// start of the next line in the buffer
+	private boolean endOfInput;
+
+	// start and end in the buffer of each column of the current line
+	private final int[] columnStarts = new int[MAX_COLUMNS];
+	private final int[] columnEnds = new int[MAX_COLUMNS];
+	private int numColumns;
+	private int[] columns = PARSED_COLUMNS;
+	private long lineNumber;
+
+	/**
+	 * Opens a data file from the file system.
+	 * @param fileName	path of the data file.
+	 * @throws IOException	if the file could not be opened or its header read.
+	 */
+	public NcesFileReader(String fileName) throws IOException {
+		this(new FileInputStream(fileName));
+	}
+
+	/**
+	 * Reads the data file held by the passed in stream, which is closed along with the reader.
+	 * @param in	stream of the data file.
+	 * @throws IOException	if the header could not be read.
+	 */
+	public NcesFileReader(InputStream in) throws IOException {
+		this(in, StandardCharsets.ISO_8859_1, DEFAULT_BUFFER_SIZE);
+	}
+
+	/* Reads the data file using the passed in character set and initial buffer size */
+	NcesFileReader(InputStream in, Charset charset, int bufferSize) throws IOException {
+		this.in = in;
+		this.charset = charset;
+		this.buffer = new byte[bufferSize];
+		if (nextLine() && numColumns > 0 && text(0).equals(RAW_FIRST_HEADER)) {
+			columns = RAW_COLUMNS;
+		}
+	}
+
+	/**
+	 * Advances to the next record, skipping blank lines.
+	 * @return	true if there is a record, false at the end of the file.
+	 * @throws IOException	if the file could not be read.
+	 * @throws IllegalStateException	if the record has fewer columns than the file's layout.
+	 */
+	public boolean next() throws IOException {
+		do {
+			if (!nextLine()) {
+				return false;
+			}
+		} while (numColumns == 1 && columnStarts[0] == columnEnds[0]);
+		if (numColumns <= columns[columns.length - 1]) {
+			throw new IllegalStateException("Line " + lineNumber + " has " + numColumns + " columns, expected " +
+					(columns[columns.length - 1] + 1));
+		}
+		return true;
+	}
+
+	/**
+	 * Returns a field of the current record as a String.
+	 * @param field	field to return.
+	 * @return		text of the field.
+	 */
+	public String get(Field field) {
+		return text(columns[field.ordinal()]);
+	}
+
+	/**
+	 * Returns a numeric field of the current record, parsed without creating a String.
+	 * @param field	field to return.
+	 * @return		value of the field.
+	 * @throws NumberFormatException	if the field is not an integer.
+	 */
+	public int getInt(Field field) {
+		int column = columns[field.ordinal()];
+		int i = columnStarts[column], end = columnEnds[column];
+		boolean negative = i < end && buffer[i] == '-';
+		if (negative) {
+			i++;
+		}
+		if (i == end) {
+			throw new NumberFormatException("Line " + lineNumber + ": \"" + text(column) + "\"");
+		}
+		int value = 0;
+		for (; i < end; i++) {
+			int digit = buffer[i] - '0';
+			if (digit < 0 || digit > 9) {
+				throw new NumberFormatException("Line " + lineNumber + ": \"" + text(column) + "\"");
+			}
+			value = value * 10 + digit;
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Returns true if the file has the raw NCES layout, false if it has the parsed layout.
+	 */
+	public boolean isRawLayout() {
+		return columns == RAW_COLUMNS;
+	}
+
+	/**
+	 * Returns the line number of the current record (the header is line 1).
+	 */
+	public long getLineNumber() {
+		return lineNumber;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/* Returns the text of a column of the current line */
+	private String text(int column) {
+		return new String(buffer, columnStarts[column], columnEnds[column] - columnStarts[column], charset);
+	}
+
+	/* Splits the next line into its columns, returning false at the end of the file */
+	private boolean nextLine() throws IOException {
+		int lineEnd;
+		while ((lineEnd = indexOfNewLine(position)) < 0) {
+			if (endOfInput) {
+				if (position == bufferEnd) {
+					return false;
+				}
+				lineEnd = bufferEnd;	// last line has no line break
+				break;
+			}
+			fill();
+		}
+
+		numColumns = 0;
+		int start = position;
+		int end = (lineEnd > position && buffer[lineEnd - 1] == '\r') ? lineEnd - 1 : lineEnd;
+		for (int i = start; i <= end; i++) {
+			if (i == end || buffer[i] == '\t') {
+				if (numColumns < MAX_COLUMNS) {
+					columnStarts[numColumns] = start;
+					columnEnds[numColumns] = i;
+				}
+				numColumns++;
+				start = i + 1;
+			}
+		}
+		numColumns = Math.min(numColumns, MAX_COLUMNS);
+		position = Math.min(lineEnd + 1, bufferEnd);
+		lineNumber++;
+		return true;
+	}
+
+	/* Returns the index of the next line feed at or after from in the buffer, or -1 */
+	private int indexOfNewLine(int from) {
+		for (int i = from; i < bufferEnd; i++) {
+			if (buffer[i] == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/* Moves the unread part of the buffer to its start, growing it if full, and reads more data */
+	private void fill() throws IOException {
+		int remaining = bufferEnd - position;
+		if (remaining == buffer.length) {
+			buffer = Arrays.copyOf(buffer, buffer.length * 2);		// a line longer than the buffer
+		} else {
+			System.arraycopy(buffer, position, buffer, 0, remaining);
+		}
+		position = 0;
+		bufferEnd = remaining;
+		int n = in.read(buffer, bufferEnd, buffer.length - bufferEnd);
+		if (n < 0) {
+			endOfInput = true;
+		} else {
+			bufferEnd += n;
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package org.angiedev.schoolfinder.loader;
+
+import java.util.List;
+
+import org.angiedev.schoolfinder.dao.SchoolDAO;
+import org.angiedev.schoolfinder.model.School;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * SchoolCellKeyBackfiller calculates the spatial cell key of the schools in the
+ * SchoolFinder database that have geo-location data but no cell key.  This is needed
+ * once for databases created before the cell_key column was added to the School table
+ * (see schoolfinder_add_cell_key_ddl.sql).  Schools loaded after that get their
+ * cell key when their geo-location data is saved.
+ * <p>
+ * The schools are updated in batches, with each batch committed in its own transaction.
+ * <p>
+ * Usage: SchoolCellKeyBackfiller [batchSize]
+ */
+@Component
+public class SchoolCellKeyBackfiller {
+
+	private static final int DEFAULT_BATCH_SIZE = 1000;
+
+	@Autowired
+	private SchoolDAO schoolDAO;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	/**
+	 * Kicks off the cell key backfill
+	 * @param args	Optional first argument is the number of schools updated per transaction.
+	 */
+	public static void main(String[] args) {
+		try (ClassPathXmlApplicationContext context =
+				new ClassPathXmlApplicationContext("/WEB-INF/SchoolFinderConfig.xml")) {
+			SchoolCellKeyBackfiller backfiller = context.getBean(SchoolCellKeyBackfiller.class);
+			backfiller.backfillCellKeys(args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_BATCH_SIZE);
+		}
+	}
+
+	/**
+	 * Calculates and saves the cell keys of the schools missing one.
+	 * @param batchSize	number of schools updated per transaction.
+	 */
+	public void backfillCellKeys(int batchSize) {
+		TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+		int numUpdated = 0;
+		int batch;
+		do {
+			batch = transaction.execute(status -> {
+				List<School> schools = schoolDAO.getSchoolsWithGeoDataAndNoCellKey(batchSize);
+				for (School school: schools) {
+					// the DAO calculates the cell key from the school's geo location
+					schoolDAO.updateSchool(school);
+				}
+				return schools.size();
+			});
+			numUpdated += batch;
+			System.out.println("Cell keys updated: " + numUpdated);
+		} while (batch == batchSize);
+		System.out.println("Updated cell keys for " + numUpdated + " schools");
+	}
+}
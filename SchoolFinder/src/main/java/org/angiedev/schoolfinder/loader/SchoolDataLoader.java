@@ -1,14 +1,28 @@
 package org.angiedev.schoolfinder.loader;
 
-import java.util.Scanner;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
+import org.angiedev.schoolfinder.dao.BulkLoadDAO;
 import org.angiedev.schoolfinder.dao.DistrictDAO;
 import org.angiedev.schoolfinder.dao.SchoolDAO;
+import org.angiedev.schoolfinder.loader.NcesFileReader.Field;
 import org.angiedev.schoolfinder.model.District;
 import org.angiedev.schoolfinder.model.School;
+import org.angiedev.schoolfinder.util.DisplayCase;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
 
 
 /**
@@ -35,18 +49,33 @@ import org.springframework.stereotype.Component;
  *   <li>High Grade
  *  </ul>
  *  <p>
+ *  The raw NCES data file (i.e. Sch14pre.txt), which has these fields amongst others, can 
+ *  also be loaded directly (see {@link NcesFileReader}).
+ *  <p>
  *  The first line of the input file will be skipped since it contains the data headers.
  *  <p>
+ *  The school names, street addresses and cities are stored in their display form 
+ *  (see {@link DisplayCase}) instead of the all caps form used by the NCES.
+ *  <p>
+ *  In bulk mode the rows are written with multi-row upserts (see {@link BulkLoadDAO}) 
+ *  of batchSize rows, committed every commitSize rows, rather than looked up and inserted 
+ *  one at a time.  Schools and districts already in the database are updated, so a bulk 
+ *  load can also be used to reload the data.
+ *  <p>
+ *  The pipeline mode splits a bulk load over parallel stages with several writers 
+ *  (see {@link SchoolLoadPipeline}).
+ *  <p>
+ *  Usage: SchoolDataLoader dataFileName [bulk [batchSize [commitSize]] | pipeline [numWorkers [batchSize]]]
+ *  <p>
  *   
  * @author Angela Gordon
  */
 @Component
 public class SchoolDataLoader {
 
-	// Data field positions in input file 
-	private static final int NCES_ID = 0, LEA_ID = 1, DISTRICT = 2, SCHOOL = 3, 
-			ADDRESS = 4, CITY = 5, STATE = 6, ZIP = 7, STATUS = 8, LOW_GRADE = 9, 
-			HIGH_GRADE = 10;
+	private static final int DEFAULT_BATCH_SIZE = 500;
+	private static final int DEFAULT_COMMIT_SIZE = 10000;
+	private static final int DEFAULT_NUM_WORKERS = Math.min(Runtime.getRuntime().availableProcessors(), 8);
     
     @Autowired
     private DistrictDAO districtDAO;
@@ -54,53 +83,73 @@ public class SchoolDataLoader {
     @Autowired
     private SchoolDAO schoolDAO;
     
+    @Autowired
+    private BulkLoadDAO bulkLoadDAO;
+    
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    
+    @Autowired
+    private SchoolLoadPipeline pipeline;
+    
     /**
      * Kicks off the data load using the passed in data file
-     * @param args	First argument identifies the data file that needs to be loaded
-     * 				(i.e. /data/Parsed-Sch14pre.txt).
+     * @param args	First argument identifies the data file that needs to be loaded, either 
+     * 				the raw NCES file or the one parsed from it by parseSchoolData.sh, as a 
+     * 				file system path or a classpath resource (i.e. /data/Sch14pre.txt).  An optional second argument of "bulk"
+     * 				selects the bulk mode, optionally followed by the batch size and the 
+     * 				number of rows per commit.  A second argument of "pipeline" selects the 
+     * 				pipelined bulk mode, optionally followed by the number of writers and the
+     * 				batch size.
      */
-	public static void main(String[] args) {
+	public static void main(String[] args) throws IOException {
 		try (ClassPathXmlApplicationContext context = 
 				new ClassPathXmlApplicationContext("/WEB-INF/SchoolFinderConfig.xml")) {
 			SchoolDataLoader loader = context.getBean(SchoolDataLoader.class);
 			
 			if (args.length == 0) {
-				System.out.println("Usage: java SchoolDataLoader <dataFileName>");
+				System.out.println("Usage: java SchoolDataLoader <dataFileName> " +
+						"[bulk [batchSize [commitSize]] | pipeline [numWorkers [batchSize]]]");
 				return;
 			}
-			loader.parseAndLoadData(args[0]);
+			if (args.length > 1 && args[1].equals("pipeline")) {
+				loader.pipelineLoadData(args[0], 
+						args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_NUM_WORKERS,
+						args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_BATCH_SIZE);
+			} else if (args.length > 1 && args[1].equals("bulk")) {
+				loader.bulkLoadData(args[0], 
+						args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_BATCH_SIZE,
+						args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_COMMIT_SIZE);
+			} else {
+				loader.parseAndLoadData(args[0]);
+			}
 		}
 	}
 	
 	/*
 	 * Parses and loads school data into the School Finder database.
 	 */
-	private void parseAndLoadData(String inputFile) {
+	private void parseAndLoadData(String inputFile) throws IOException {
 		
-		String s = null;
 		String lastLeaId = null;
 		District district = null;
 		
 		int numSchools = 0, numNewSchools = 0;
 		int numDistricts = 0, numNewDistricts = 0;
 		
-		try (Scanner scanner = new Scanner(this.getClass().getResourceAsStream(inputFile))) {
-			if (scanner.hasNext()) {
-				scanner.nextLine(); // skip header data
-			}
-			while (scanner.hasNext()) {
-				s = scanner.nextLine();
-				String[] tokens = s.split("\t");
+		try (NcesFileReader reader = openDataFile(inputFile)) {
+			while (reader.next()) {
+				String leaId = reader.get(Field.LEA_ID);
 				
 				// don't repeatedly try to create a district already created in input file 
 				// (note: records in input file are listed in order of districts)
-				if (!tokens[LEA_ID].equals(lastLeaId)) {
+				if (!leaId.equals(lastLeaId)) {
 					numDistricts++;
-					district = districtDAO.getDistrictByLeaId(tokens[LEA_ID]);
+					district = districtDAO.getDistrictByLeaId(leaId);
 					
 					// if district doesn't already exist then create it 
 					if (district == null) {
-						district = new District(tokens[DISTRICT], tokens[LEA_ID]);
+						district = new District(reader.get(Field.DISTRICT), leaId);
 						districtDAO.insertDistrict(district);
 						numNewDistricts++;
 					}
@@ -108,12 +157,10 @@ public class SchoolDataLoader {
 				}
 				
 				numSchools++;
-				School school = schoolDAO.getSchoolByNcesId(tokens[NCES_ID]);
+				School school = schoolDAO.getSchoolByNcesId(reader.get(Field.NCES_ID));
 				
 				if (school == null) {
-					school = new School(tokens[NCES_ID], tokens[SCHOOL], 
-						tokens[ADDRESS], tokens[CITY], tokens[STATE], tokens[ZIP], 
-						Integer.parseInt(tokens[STATUS]), tokens[LOW_GRADE], tokens[HIGH_GRADE], district);
+					school = toSchool(reader, district);
 					schoolDAO.insertSchool(school);
 					numNewSchools++;
 				}
@@ -127,5 +174,114 @@ public class SchoolDataLoader {
 			System.out.println("# of Schools added to DB: " + numNewSchools);
 		}
 	}
+	
+	/**
+	 * Parses and loads school data into the School Finder database using multi-row upserts.
+	 * @param inputFile		data file to load, a file system path or a classpath resource.
+	 * @param batchSize		number of rows written by each upsert.
+	 * @param commitSize	number of rows written per transaction, rounded up to whole batches.
+	 * @throws IOException	if the data file could not be read.
+	 */
+	public void bulkLoadData(String inputFile, int batchSize, int commitSize) throws IOException {
+		
+		// district ids of the districts already written, keyed by lea id
+		Map<String, Long> districtIds = new HashMap<String, Long>();
+		List<School> batch = new ArrayList<School>(batchSize);
+		int numRows = 0, numRowsSinceCommit = 0;
+		long start = System.nanoTime();
+		
+		TransactionStatus transaction = transactionManager.getTransaction(new DefaultTransactionDefinition());
+		try (NcesFileReader reader = openDataFile(inputFile)) {
+			boolean more = reader.next();
+			while (more) {
+				batch.add(toSchool(reader, new District(reader.get(Field.DISTRICT), reader.get(Field.LEA_ID))));
+				more = reader.next();
+				if (batch.size() == batchSize || !more) {
+					writeBatch(batch, districtIds);
+					numRows += batch.size();
+					numRowsSinceCommit += batch.size();
+					batch.clear();
+					if (numRowsSinceCommit >= commitSize) {
+						transactionManager.commit(transaction);
+						transaction = transactionManager.getTransaction(new DefaultTransactionDefinition());
+						numRowsSinceCommit = 0;
+						System.out.println("Schools loaded: " + numRows);
+					}
+				}
+			}
+			transactionManager.commit(transaction);
+		} catch (RuntimeException | IOException e) {
+			if (!transaction.isCompleted()) {
+				transactionManager.rollback(transaction);
+			}
+			throw e;
+		} finally {
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.println("Bulk load results:");
+			System.out.println("-----------------------------------------");
+			System.out.println("# of Districts loaded: " + districtIds.size());
+			System.out.println("# of Schools loaded: " + numRows);
+			System.out.println(String.format("Load time: %.1f seconds (%.0f rows/sec)", seconds, 
+					numRows / Math.max(seconds, 1e-9)));
+		}
+	}
+	
+	/**
+	 * Parses and loads school data into the School Finder database with a pipeline of 
+	 * parallel stages (see {@link SchoolLoadPipeline}).
+	 * @param inputFile		data file to load, a file system path or a classpath resource.
+	 * @param numWorkers	number of threads writing the schools.
+	 * @param batchSize		number of rows written by each upsert.
+	 * @throws IOException	if the data file could not be read.
+	 */
+	public void pipelineLoadData(String inputFile, int numWorkers, int batchSize) throws IOException {
+		try (NcesFileReader reader = openDataFile(inputFile)) {
+			pipeline.load(reader, numWorkers, batchSize);
+		}
+	}
+	
+	/* Upserts a batch of schools, writing the districts not yet written first */
+	private void writeBatch(List<School> batch, Map<String, Long> districtIds) {
+		Map<String, District> newDistricts = new LinkedHashMap<String, District>();
+		for (School school: batch) {
+			if (!districtIds.containsKey(school.getDistrict().getLeaId())) {
+				newDistricts.putIfAbsent(school.getDistrict().getLeaId(), school.getDistrict());
+			}
+		}
+		districtIds.putAll(bulkLoadDAO.upsertDistricts(newDistricts.values()));
+		
+		// the last row of an NCES id in the batch wins, as it would if written one at a time
+		Map<String, School> schools = new LinkedHashMap<String, School>();
+		for (School school: batch) {
+			school.getDistrict().setDistrictId(districtIds.get(school.getDistrict().getLeaId()));
+			schools.put(school.getNcesId(), school);
+		}
+		bulkLoadDAO.upsertSchools(new ArrayList<School>(schools.values()));
+	}
+	
+	/* 
+	 * Opens the data file at the passed in file system path or, if there is no such file, 
+	 * the classpath resource of that name 
+	 */
+	private NcesFileReader openDataFile(String inputFile) throws IOException {
+		if (new File(inputFile).isFile()) {
+			return new NcesFileReader(inputFile);
+		}
+		InputStream in = this.getClass().getResourceAsStream(inputFile);
+		if (in == null) {
+			throw new FileNotFoundException(inputFile);
+		}
+		return new NcesFileReader(in);
+	}
+	
+	/* Creates a school, in display form, from the current record of the reader */
+	static School toSchool(NcesFileReader reader, District district) {
+		School school = new School(reader.get(Field.NCES_ID), reader.get(Field.SCHOOL), 
+			reader.get(Field.ADDRESS), reader.get(Field.CITY), reader.get(Field.STATE), 
+			reader.get(Field.ZIP), reader.getInt(Field.STATUS), reader.get(Field.LOW_GRADE), 
+			reader.get(Field.HIGH_GRADE), district);
+		DisplayCase.capitalize(school);
+		return school;
+	}
 
 }
@@ -0,0 +1,79 @@
+package org.angiedev.schoolfinder.loader;
+
+import java.util.List;
+
+import org.angiedev.schoolfinder.dao.SchoolDAO;
+import org.angiedev.schoolfinder.model.School;
+import org.angiedev.schoolfinder.util.DisplayCase;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * SchoolDisplayCaseBackfiller converts the names, street addresses and cities of the 
+ * schools in the SchoolFinder database into their display form (see {@link DisplayCase}).
+ * This is needed once for databases loaded before the SchoolDataLoader stored the school 
+ * data in its display form.  Schools already in display form are left unchanged, so the 
+ * backfill can safely be run again.
+ * <p>
+ * The schools are processed in batches, with each batch committed in its own transaction.
+ * <p>
+ * Usage: SchoolDisplayCaseBackfiller [batchSize]
+ */
+@Component
+public class SchoolDisplayCaseBackfiller {
+
+	private static final int DEFAULT_BATCH_SIZE = 1000;
+
+	@Autowired
+	private SchoolDAO schoolDAO;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	/**
+	 * Kicks off the display case backfill
+	 * @param args	Optional first argument is the number of schools processed per transaction.
+	 */
+	public static void main(String[] args) {
+		try (ClassPathXmlApplicationContext context =
+				new ClassPathXmlApplicationContext("/WEB-INF/SchoolFinderConfig.xml")) {
+			SchoolDisplayCaseBackfiller backfiller = context.getBean(SchoolDisplayCaseBackfiller.class);
+			backfiller.backfillDisplayCase(args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_BATCH_SIZE);
+		}
+	}
+
+	/**
+	 * Converts and saves the school data not yet in display form.
+	 * @param batchSize	number of schools processed per transaction.
+	 */
+	public void backfillDisplayCase(int batchSize) {
+		TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+		int numProcessed = 0, numUpdated = 0;
+		long lastSchoolId = 0;
+		List<School> batch;
+		do {
+			final long afterSchoolId = lastSchoolId;
+			final int[] batchUpdated = new int[1];
+			batch = transaction.execute(status -> {
+				List<School> schools = schoolDAO.getSchoolsAfterSchoolId(afterSchoolId, batchSize);
+				for (School school: schools) {
+					if (DisplayCase.capitalize(school)) {
+						schoolDAO.updateSchool(school);
+						batchUpdated[0]++;
+					}
+				}
+				return schools;
+			});
+			if (!batch.isEmpty()) {
+				lastSchoolId = batch.get(batch.size() - 1).getSchoolId();
+			}
+			numProcessed += batch.size();
+			numUpdated += batchUpdated[0];
+			System.out.println("Schools processed: " + numProcessed + ", updated: " + numUpdated);
+		} while (batch.size() == batchSize);
+		System.out.println("Converted " + numUpdated + " of " + numProcessed + " schools to display case");
+	}
+}
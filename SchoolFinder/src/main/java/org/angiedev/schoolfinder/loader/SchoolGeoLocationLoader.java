@@ -1,16 +1,30 @@
 package org.angiedev.schoolfinder.loader;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.angiedev.schoolfinder.dao.SchoolDAO;
+import org.angiedev.schoolfinder.service.BatchGeoLocationService;
 import org.angiedev.schoolfinder.service.GeoLocationService;
+import org.angiedev.schoolfinder.model.Address;
 import org.angiedev.schoolfinder.model.GeoLocation;
 import org.angiedev.schoolfinder.model.School;
+import org.angiedev.schoolfinder.service.impl.RateLimitedGeoLocationService;
 import org.angiedev.schoolfinder.util.Props;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.client.RestTemplate;
 
 /**
@@ -29,31 +43,68 @@ import org.springframework.web.client.RestTemplate;
  * Geo-location data is needed to support the retrieval of schools based on 
  * a client's provided geo-location and search radius.
  * <p>
- * Usage: SchoolGeoLocationLoader &lt;stateCodeList&gt;
+ * The configured services keep the results of their lookups (see 
+ * {@link org.angiedev.schoolfinder.service.impl.CachingGeoLocationService}), so the 
+ * addresses looked up by an earlier run, by any of the services, are not looked up again.
+ * The loader is normally given a 
+ * {@link org.angiedev.schoolfinder.service.impl.RoutingGeoLocationService} routing the 
+ * lookups across the services, so a run keeps going when one of them slows down or runs 
+ * out of quota.  The counters of the service are printed at the end of each run.
+ * <p>
+ * In concurrent mode the schools are looked up by numWorkers lookups at a time, each 
+ * school saved in its own transaction as soon as it has been looked up.  The lookups run 
+ * on virtual threads where the JVM has them (Java 21 and later), otherwise on a pool of 
+ * numWorkers threads.  How fast they are made is left to the service, which is wrapped 
+ * in a {@link RateLimitedGeoLocationService} holding it to its provider's rate limit.
+ * <p>
+ * In batch mode, for services that can lookup batches of addresses (see 
+ * {@link BatchGeoLocationService}, i.e. "census", or the router, which passes the 
+ * batches on to "census"), the schools are looked up batchSize at a time, the 
+ * addresses identified by school id, and each batch's schools are saved in one 
+ * transaction.  The schools a batch could not find, or all of its schools if the 
+ * batch lookup failed, are then looked up again one at a time.
+ * <p>
+ * Usage: SchoolGeoLocationLoader &lt;stateCodeList&gt; [numWorkers | batch [batchSize]]
  * <ul>
  * <li>stateCodeList: a comma separated list of state codes (i.e. "CA,OR") 
+ * <li>numWorkers: number of lookups made at once, which selects the concurrent mode
+ * <li>batch: selects the batch mode, optionally followed by the number of addresses per batch
  *  </ul>
  * @author Angela Gordon
  */
 @Component
 public class SchoolGeoLocationLoader {
 
+	 private static final int DEFAULT_BATCH_SIZE = 1000;
+	 
 	 @Autowired
 	 private SchoolDAO schoolDAO;
 	 
+	 @Autowired
+	 private PlatformTransactionManager transactionManager;
+	 
 	 private GeoLocationService service;
 	 	 
 	 /**
 	  * Kicks off the geo location data loader for the schools in the states 
 	  * identified by the passed in argument
 	  * @param args First argument identifies the state codes of the schools that 
-	  *  			geo-location data should be loaded for.
+	  *  			geo-location data should be loaded for.  An optional second argument 
+	  *  			selects the concurrent mode with that many lookups made at once, or, 
+	  *  			if it is "batch", the batch mode, optionally followed by the batch size.
 	  */
-	 public static void main(String[] args) {
+	 public static void main(String[] args) throws InterruptedException {
 		try (ClassPathXmlApplicationContext context = 
 				new ClassPathXmlApplicationContext("/WEB-INF/SchoolFinderConfig.xml")) {
 			SchoolGeoLocationLoader loader = (SchoolGeoLocationLoader)context.getBean("loader");
-			loader.loadGeoLocationData(args[0]);
+			if (args.length > 1 && args[1].equals("batch")) {
+				loader.loadGeoLocationDataInBatches(args[0], 
+						args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_BATCH_SIZE);
+			} else if (args.length > 1) {
+				loader.loadGeoLocationData(args[0], Integer.parseInt(args[1]));
+			} else {
+				loader.loadGeoLocationData(args[0]);
+			}
 		}
 	 }
 	 
@@ -80,10 +131,7 @@ public class SchoolGeoLocationLoader {
 		
 			 for (School school : schools) {
 				 try {
-					 GeoLocation geoLocation = service.getGeoLocationForAddress(
-						school.getStreetAddress().replace("'", " "), school.getCity(), school.getState(),school.getZip());
-					 school.setLatitude(geoLocation.getLatitude());
-					 school.setLongitude(geoLocation.getLongitude());
+					 lookUpGeoLocation(school);
 					 schoolDAO.updateSchool(school);
 					 numSuccess++;
 				 } catch (Exception e) {
@@ -95,10 +143,181 @@ public class SchoolGeoLocationLoader {
 		 }
 		 System.out.println("Retrieved Geo location for " + numSuccess + " schools");
 		 System.out.println("Unable to retrieve Geo location for " + numFailures + " schools");
+		 System.out.println(service);
+	 }
+	 
+	 /** 
+	  * Retrieves the schools that need geo location data and looks up and stores their 
+	  * geo-location data with up to numWorkers lookups made at once.
+	  * @param stateCodeList a comma separated list of state codes of the schools 
+	  *  		that geo-location data should be loaded for.
+	  * @param numWorkers	number of lookups made at once.
+	  * @throws InterruptedException	if the load was interrupted.
+	  */
+	 public void loadGeoLocationData(String stateCodeList, int numWorkers) throws InterruptedException {
 		 
+		 TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+		 AtomicInteger numFailures = new AtomicInteger();
+		 AtomicInteger numSuccess = new AtomicInteger();
+		 long start = System.nanoTime();
+		 
+		 // the executor's queue is unbounded, so the workers are bounded by the permits
+		 Semaphore workers = new Semaphore(numWorkers);
+		 ExecutorService executor = newWorkerExecutor(numWorkers);
+		 try {
+			 for (String stateCode: stateCodeList.split(",")) {
+				 System.out.println("Getting geo codes for schools in: " + stateCode);
+				 List<School> schools = transaction.execute(status -> 
+				 		schoolDAO.getSchoolsByStateWithNoGeoData(stateCode));
+				 
+				 for (School school : schools) {
+					 workers.acquire();
+					 try {
+						 executor.execute(() -> {
+							 try {
+								 lookUpGeoLocation(school);
+								 transaction.execute(status -> { 
+									 schoolDAO.updateSchool(school); 
+									 return null; 
+								 });
+								 numSuccess.incrementAndGet();
+							 } catch (Exception e) {
+								 System.out.println("Unable to complete load of geo location data for school " + 
+										 school + "  Exception thrown: " +e);
+								 numFailures.incrementAndGet();
+							 } finally {
+								 workers.release();
+							 }
+						 });
+					 } catch (RejectedExecutionException e) {
+						 workers.release();
+						 throw e;
+					 }
+				 }
+			 }
+			 // wait for the lookups still being made
+			 workers.acquire(numWorkers);
+		 } finally {
+			 executor.shutdownNow();
+			 double seconds = (System.nanoTime() - start) / 1e9;
+			 System.out.println("Retrieved Geo location for " + numSuccess + " schools");
+			 System.out.println("Unable to retrieve Geo location for " + numFailures + " schools");
+			 System.out.println(String.format("Load time: %.1f seconds (%.1f schools/sec)", seconds, 
+					 (numSuccess.get() + numFailures.get()) / Math.max(seconds, 1e-9)));
+			 System.out.println(service);
+		 }
 	 }
 	 
-}
+	 /** 
+	  * Retrieves the schools that need geo location data and looks up and stores their 
+	  * geo-location data in batches of addresses.  The service must be a 
+	  * {@link BatchGeoLocationService}.
+	  * @param stateCodeList a comma separated list of state codes of the schools 
+	  *  		that geo-location data should be loaded for.
+	  * @param batchSize	number of addresses per batch, lowered to the most the service allows.
+	  */
+	 public void loadGeoLocationDataInBatches(String stateCodeList, int batchSize) {
+		 
+		 if (!(service instanceof BatchGeoLocationService)) {
+			 throw new IllegalStateException("Service can't lookup batches of addresses: " + service);
+		 }
+		 BatchGeoLocationService batchService = (BatchGeoLocationService)service;
+		 int size = Math.min(batchSize, batchService.getMaxBatchSize());
+		 TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+		 int numBatched = 0;
+		 int numRetried = 0;
+		 int numFailures = 0;
+		 long start = System.nanoTime();
+		 
+		 for (String stateCode: stateCodeList.split(",")) {
+			 System.out.println("Getting geo codes for schools in: " + stateCode);
+			 List<School> schools = transaction.execute(status -> 
+			 		schoolDAO.getSchoolsByStateWithNoGeoData(stateCode));
+			 
+			 for (int from = 0; from < schools.size(); from += size) {
+				 Map<String, School> batch = new LinkedHashMap<String, School>();
+				 List<Address> addresses = new ArrayList<Address>();
+				 for (School school: schools.subList(from, Math.min(from + size, schools.size()))) {
+					 String id = String.valueOf(school.getSchoolId());
+					 batch.put(id, school);
+					 addresses.add(new Address(id, school.getStreetAddress().replace("'", " "), 
+							 school.getCity(), school.getState(), school.getZip()));
+				 }
+				 
+				 Map<String, GeoLocation> geoLocations;
+				 try {
+					 geoLocations = batchService.getGeoLocationsForAddresses(addresses);
+				 } catch (Exception e) {
+					 System.out.println("Unable to complete batch lookup of " + addresses.size() + 
+							 " schools, looking them up one at a time.  Exception thrown: " + e);
+					 geoLocations = Collections.emptyMap();
+				 }
+				 
+				 List<School> found = new ArrayList<School>();
+				 List<School> notFound = new ArrayList<School>();
+				 for (Map.Entry<String, School> entry: batch.entrySet()) {
+					 GeoLocation geoLocation = geoLocations.get(entry.getKey());
+					 if (geoLocation != null) {
+						 entry.getValue().setLatitude(geoLocation.getLatitude());
+						 entry.getValue().setLongitude(geoLocation.getLongitude());
+						 found.add(entry.getValue());
+					 } else {
+						 notFound.add(entry.getValue());
+					 }
+				 }
+				 transaction.execute(status -> {
+					 for (School school: found) {
+						 schoolDAO.updateSchool(school);
+					 }
+					 return null;
+				 });
+				 numBatched += found.size();
+				 
+				 for (School school: notFound) {
+					 try {
+						 lookUpGeoLocation(school);
+						 transaction.execute(status -> { 
+							 schoolDAO.updateSchool(school); 
+							 return null; 
+						 });
+						 numRetried++;
+					 } catch (Exception e) {
+						 System.out.println("Unable to complete load of geo location data for school " + 
+								 school + "  Exception thrown: " +e);
+						 numFailures++;
+					 }
+				 }
+				 System.out.println("Schools looked up: " + (numBatched + numRetried + numFailures));
+			 }
+		 }
+		 double seconds = (System.nanoTime() - start) / 1e9;
+		 System.out.println("Retrieved Geo location for " + (numBatched + numRetried) + " schools (" + 
+				 numBatched + " in batches, " + numRetried + " one at a time)");
+		 System.out.println("Unable to retrieve Geo location for " + numFailures + " schools");
+		 System.out.println(String.format("Load time: %.1f seconds (%.1f schools/sec)", seconds, 
+				 (numBatched + numRetried + numFailures) / Math.max(seconds, 1e-9)));
+		 System.out.println(service);
+	 }
 	 
-	
-
+	 /* Looks up the geo location of the school's address and sets it on the school */
+	 private void lookUpGeoLocation(School school) throws IOException {
+		 GeoLocation geoLocation = service.getGeoLocationForAddress(
+			school.getStreetAddress().replace("'", " "), school.getCity(), school.getState(),school.getZip());
+		 school.setLatitude(geoLocation.getLatitude());
+		 school.setLongitude(geoLocation.getLongitude());
+	 }
+	 
+	 /* 
+	  * Creates the executor making the lookups: a virtual thread per lookup where the JVM 
+	  * has them, otherwise a pool of numWorkers threads 
+	  */
+	 private static ExecutorService newWorkerExecutor(int numWorkers) {
+		 try {
+			 // looked up by name since the application is built for Java 8
+			 return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		 } catch (ReflectiveOperationException e) {
+			 return Executors.newFixedThreadPool(numWorkers);
+		 }
+	 }
+	 
+}
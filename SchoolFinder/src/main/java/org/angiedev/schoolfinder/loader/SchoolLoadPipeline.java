@@ -0,0 +1,350 @@
+package org.angiedev.schoolfinder.loader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.angiedev.schoolfinder.dao.BulkLoadDAO;
+import org.angiedev.schoolfinder.loader.NcesFileReader.Field;
+import org.angiedev.schoolfinder.model.District;
+import org.angiedev.schoolfinder.model.School;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.DeadlockLoserDataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * SchoolLoadPipeline loads the schools of an NCES data file in a pipeline of stages
+ * running on their own threads:
+ * <ul>
+ *   <li>a parser stage reading the file into batches of schools.
+ *   <li>a district stage upserting the districts not yet written and setting the district
+ *   ids of the schools.  It then splits the schools into partitions by lea id.
+ *   <li>numWorkers writer stages, each upserting the batches of its own partition (see
+ *   {@link BulkLoadDAO}).
+ * </ul>
+ * The stages pass batches to each other through small bounded queues, so a stage that
+ * runs ahead waits for the next one instead of holding the whole file in memory.  Each
+ * batch is written in its own transaction.  The first stage to fail stops the others the 
+ * next time they pass on or take a batch, and its failure is thrown by the load.
+ * <p>
+ * An NCES id starts with the lea id of its district, so no two writers ever write the same
+ * school row.  They can still lock each other out: on MySQL an upsert also locks the gaps
+ * next to its keys in the nces_id index, and the keys of the partitions are interleaved, so
+ * two writers can deadlock.  A batch whose transaction is rolled back as a deadlock victim,
+ * or that timed out waiting for a lock, is written again, up to MAX_LOCK_RETRIES times.
+ * Districts are only written by the district stage, and their upserts rely on the unique
+ * lea_id index, so a district written twice (for instance by two loads run at once) is 
+ * updated rather than duplicated.
+ * <p>
+ * Each writer needs a connection of its own, so numWorkers should stay below the size of
+ * the connection pool.  When the load is done the throughput of each stage is printed along
+ * with the share of its time it spent waiting on its neighbors; the stage that rarely waits
+ * is the one holding the load back.
+ */
+@Component
+public class SchoolLoadPipeline {
+
+	// batches held by each queue between stages
+	private static final int QUEUE_CAPACITY = 8;
+	private static final long POLL_MILLIS = 100;
+
+	// times a batch rolled back for a deadlock or lock wait timeout is written again, and
+	// the pause before the first retry, doubled for each retry after it
+	private static final int MAX_LOCK_RETRIES = 5;
+	private static final long LOCK_RETRY_MILLIS = 50;
+
+	// marks the end of the batches passed on by a stage
+	private static final List<School> END = Collections.emptyList();
+
+	@Autowired
+	private BulkLoadDAO bulkLoadDAO;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	/**
+	 * Loads the schools read from the passed in reader.
+	 * @param reader		reader of the data file, positioned before its first record.
+	 * @param numWorkers	number of writer stages.
+	 * @param batchSize		number of schools per batch.
+	 * @throws IOException	if the data file could not be read.
+	 */
+	public void load(NcesFileReader reader, int numWorkers, int batchSize) throws IOException {
+		Run run = new Run(numWorkers, batchSize);
+		long start = System.nanoTime();
+		ExecutorService executor = Executors.newFixedThreadPool(numWorkers + 2);
+		try {
+			List<Future<?>> stages = new ArrayList<Future<?>>();
+			stages.add(executor.submit(() -> { run.parse(reader); return null; }));
+			stages.add(executor.submit(() -> { run.resolveDistricts(); return null; }));
+			for (int i = 0; i < numWorkers; i++) {
+				final int partition = i;
+				stages.add(executor.submit(() -> { run.write(partition); return null; }));
+			}
+			waitFor(stages, run);
+		} finally {
+			executor.shutdownNow();
+			run.printResults((System.nanoTime() - start) / 1e9);
+		}
+	}
+
+	/* Waits for the stages to finish, passing on the failure that stopped them */
+	private static void waitFor(List<Future<?>> stages, Run run) throws IOException {
+		for (Future<?> stage: stages) {
+			try {
+				stage.get();
+			} catch (ExecutionException e) {
+				run.failure.compareAndSet(null, e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				run.failure.compareAndSet(null, e);
+				throw new IllegalStateException("Interrupted while loading schools", e);
+			}
+		}
+		Throwable failure = run.failure.get();
+		if (failure instanceof IOException) {
+			throw (IOException)failure;
+		} else if (failure instanceof RuntimeException) {
+			throw (RuntimeException)failure;
+		} else if (failure instanceof Error) {
+			throw (Error)failure;
+		} else if (failure != null) {
+			throw new IllegalStateException("School load failed", failure);
+		}
+	}
+
+	/* The queues and counters of one load */
+	private final class Run {
+		final int numWorkers;
+		final int batchSize;
+		final TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+		// first failure of a stage, which stops the other stages
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final BlockingQueue<List<School>> parsed = new ArrayBlockingQueue<List<School>>(QUEUE_CAPACITY);
+		final List<BlockingQueue<List<School>>> partitions = new ArrayList<BlockingQueue<List<School>>>();
+		final StageStats parseStats = new StageStats("Parse");
+		final StageStats districtStats = new StageStats("Districts");
+		final List<StageStats> writerStats = new ArrayList<StageStats>();
+		int numDistricts;
+
+		Run(int numWorkers, int batchSize) {
+			this.numWorkers = numWorkers;
+			this.batchSize = batchSize;
+			for (int i = 0; i < numWorkers; i++) {
+				partitions.add(new ArrayBlockingQueue<List<School>>(QUEUE_CAPACITY));
+				writerStats.add(new StageStats("Writer " + (i + 1)));
+			}
+		}
+
+		/* Parser stage: reads the file into batches of schools */
+		void parse(NcesFileReader reader) throws IOException, InterruptedException {
+			StageStats stats = parseStats.start();
+			try {
+				List<School> batch = new ArrayList<School>(batchSize);
+				while (reader.next()) {
+					batch.add(SchoolDataLoader.toSchool(reader,
+							new District(reader.get(Field.DISTRICT), reader.get(Field.LEA_ID))));
+					stats.rows++;
+					if (batch.size() == batchSize) {
+						put(parsed, batch, stats);
+						batch = new ArrayList<School>(batchSize);
+					}
+				}
+				if (!batch.isEmpty()) {
+					put(parsed, batch, stats);
+				}
+				put(parsed, END, stats);
+			} catch (RuntimeException | IOException | InterruptedException e) {
+				failure.compareAndSet(null, e);
+				throw e;
+			} finally {
+				stats.finish();
+			}
+		}
+
+		/* District stage: writes the new districts and splits the schools into partitions */
+		void resolveDistricts() throws InterruptedException {
+			StageStats stats = districtStats.start();
+			try {
+				Map<String, Long> districtIds = new HashMap<String, Long>();
+				List<List<School>> pending = new ArrayList<List<School>>();
+				for (int i = 0; i < numWorkers; i++) {
+					pending.add(new ArrayList<School>(batchSize));
+				}
+				List<School> batch;
+				while ((batch = take(parsed, stats)) != END) {
+					Map<String, District> newDistricts = new LinkedHashMap<String, District>();
+					for (School school: batch) {
+						if (!districtIds.containsKey(school.getDistrict().getLeaId())) {
+							newDistricts.putIfAbsent(school.getDistrict().getLeaId(), school.getDistrict());
+						}
+					}
+					if (!newDistricts.isEmpty()) {
+						districtIds.putAll(executeRetryingLocks(status ->
+								bulkLoadDAO.upsertDistricts(newDistricts.values())));
+					}
+					for (School school: batch) {
+						String leaId = school.getDistrict().getLeaId();
+						school.getDistrict().setDistrictId(districtIds.get(leaId));
+						int partition = Math.floorMod(leaId.hashCode(), numWorkers);
+						pending.get(partition).add(school);
+						if (pending.get(partition).size() == batchSize) {
+							put(partitions.get(partition), pending.get(partition), stats);
+							pending.set(partition, new ArrayList<School>(batchSize));
+						}
+					}
+					stats.rows += batch.size();
+				}
+				for (int i = 0; i < numWorkers; i++) {
+					if (!pending.get(i).isEmpty()) {
+						put(partitions.get(i), pending.get(i), stats);
+					}
+					put(partitions.get(i), END, stats);
+				}
+				numDistricts = districtIds.size();
+			} catch (RuntimeException | InterruptedException e) {
+				failure.compareAndSet(null, e);
+				throw e;
+			} finally {
+				stats.finish();
+			}
+		}
+
+		/* Writer stage: upserts the batches of its partition */
+		void write(int partition) throws InterruptedException {
+			StageStats stats = writerStats.get(partition).start();
+			try {
+				List<School> batch;
+				while ((batch = take(partitions.get(partition), stats)) != END) {
+					final List<School> schools = batch;
+					executeRetryingLocks(status -> bulkLoadDAO.upsertSchools(schools));
+					stats.rows += batch.size();
+				}
+			} catch (RuntimeException | InterruptedException e) {
+				failure.compareAndSet(null, e);
+				throw e;
+			} finally {
+				stats.finish();
+			}
+		}
+
+		/* 
+		 * Runs the passed in callback in a transaction, running it again in a new transaction
+		 * while it is rolled back as a deadlock victim or for timing out waiting for a lock
+		 */
+		<T> T executeRetryingLocks(TransactionCallback<T> callback) throws InterruptedException {
+			long retryMillis = LOCK_RETRY_MILLIS;
+			for (int retry = 0; ; retry++) {
+				try {
+					return transaction.execute(callback);
+				} catch (DeadlockLoserDataAccessException | CannotAcquireLockException e) {
+					if (retry == MAX_LOCK_RETRIES) {
+						throw e;
+					}
+					checkNotFailed();
+					Thread.sleep(retryMillis);
+					retryMillis *= 2;
+				}
+			}
+		}
+
+		/* Passes a batch on to the next stage, waiting while its queue is full */
+		void put(BlockingQueue<List<School>> queue, List<School> batch, StageStats stats)
+				throws InterruptedException {
+			checkNotFailed();
+			long start = System.nanoTime();
+			try {
+				while (!queue.offer(batch, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+					checkNotFailed();
+				}
+			} finally {
+				stats.waitNanos += System.nanoTime() - start;
+			}
+		}
+
+		/* Takes the next batch from the previous stage, waiting while its queue is empty */
+		List<School> take(BlockingQueue<List<School>> queue, StageStats stats) throws InterruptedException {
+			checkNotFailed();
+			long start = System.nanoTime();
+			try {
+				List<School> batch;
+				while ((batch = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+					checkNotFailed();
+				}
+				return batch;
+			} finally {
+				stats.waitNanos += System.nanoTime() - start;
+			}
+		}
+
+		/* Stops a stage at its next hand-off once another stage has failed */
+		void checkNotFailed() {
+			if (failure.get() != null) {
+				throw new IllegalStateException("School load stopped by a failed stage");
+			}
+		}
+
+		void printResults(double seconds) {
+			long numSchools = 0;
+			for (StageStats stats: writerStats) {
+				numSchools += stats.rows;
+			}
+			System.out.println("Pipeline load results:");
+			System.out.println("-----------------------------------------");
+			System.out.println(parseStats);
+			System.out.println(districtStats);
+			for (StageStats stats: writerStats) {
+				System.out.println(stats);
+			}
+			System.out.println("# of Districts loaded: " + numDistricts);
+			System.out.println("# of Schools loaded: " + numSchools);
+			System.out.println(String.format("Load time: %.1f seconds (%.0f rows/sec)", seconds,
+					numSchools / Math.max(seconds, 1e-9)));
+		}
+	}
+
+	/* Rows handled by a stage and the time it took, written only by the stage's thread */
+	private static final class StageStats {
+		final String name;
+		long rows;
+		long startNanos;
+		long endNanos;
+		long waitNanos;
+
+		StageStats(String name) {
+			this.name = name;
+		}
+
+		StageStats start() {
+			startNanos = System.nanoTime();
+			return this;
+		}
+
+		void finish() {
+			endNanos = System.nanoTime();
+		}
+
+		@Override
+		public String toString() {
+			double seconds = Math.max(endNanos - startNanos, 1) / 1e9;
+			return String.format("%-10s %8d rows in %6.1f seconds: %8.0f rows/sec, %3.0f%% waiting", name + ":",
+					rows, seconds, rows / seconds, 100.0 * waitNanos / Math.max(endNanos - startNanos, 1));
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package org.angiedev.schoolfinder.model;
+
+/**
+ * Address is a data model representing a street address to be looked up in a batch
+ * of addresses (see {@link org.angiedev.schoolfinder.service.BatchGeoLocationService}).
+ * The id is chosen by the caller and identifies the address' geo-location in the
+ * results of the batch.
+ */
+public class Address {
+
+	private final String id;
+	private final String streetAddress;
+	private final String city;
+	private final String stateCode;
+	private final String zip;
+
+	/**
+	 * @param id				id of the address, unique within its batch.
+	 * @param streetAddress		street address
+	 * @param city				city
+	 * @param stateCode			two letter state code
+	 * @param zip				zip code
+	 */
+	public Address(String id, String streetAddress, String city, String stateCode, String zip) {
+		this.id = id;
+		this.streetAddress = streetAddress;
+		this.city = city;
+		this.stateCode = stateCode;
+		this.zip = zip;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getStreetAddress() {
+		return streetAddress;
+	}
+
+	public String getCity() {
+		return city;
+	}
+
+	public String getStateCode() {
+		return stateCode;
+	}
+
+	public String getZip() {
+		return zip;
+	}
+
+	@Override
+	public String toString() {
+		return "Address [id=" + id + ", streetAddress=" + streetAddress + ", city=" + city +
+				", stateCode=" + stateCode + ", zip=" + zip + "]";
+	}
+}
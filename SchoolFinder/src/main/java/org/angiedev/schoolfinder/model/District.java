@@ -1,6 +1,7 @@
 package org.angiedev.schoolfinder.model;
 
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
@@ -8,18 +9,28 @@ import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
+import javax.persistence.QueryHint;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 /**
  *  District is a data model representing a District (Local Education Agency (LEA)) responsible for a school. 
+ *  <p>
+ *  Districts are kept in the hibernate second level cache, and the results of the 
+ *  District.findByLeaId query in the query cache.
  *  
  *  @author Angela Gordon
  */
 @Entity 
 @Table(name="District")
+@Cacheable
+@Cache(usage=CacheConcurrencyStrategy.READ_WRITE)
 @NamedQueries(
 	{ @NamedQuery(name = "District.findAll", query = "from District"),
-	  @NamedQuery(name = "District.findByLeaId", query = "from District where leaId=:leaId")})
+	  @NamedQuery(name = "District.findByLeaId", query = "from District where leaId=:leaId",
+			  hints = {@QueryHint(name = "org.hibernate.cacheable", value = "true")})})
 
 public class District {
 	
@@ -37,6 +48,15 @@ public class District {
 		this.leaId = leaId;
 	}
 
+	/**
+	 * Creates a detached copy of the passed in district.
+	 * @param district	district to copy.
+	 */
+	public District(District district) {
+		this(district.getName(), district.getLeaId());
+		this.districtId = district.getDistrictId();
+	}
+
 	/**
 	 * Default constructor required for hibernate
 	 */
@@ -0,0 +1,83 @@
+package org.angiedev.schoolfinder.model;
+
+import java.util.Date;
+
+/**
+ * GeoCodeCacheEntry is a data model representing the result of looking up the geo
+ * location of an address: either the geo location found or the reason the lookup failed,
+ * along with the service that made the lookup and when it was made.
+ * <p>
+ * Entries are keyed by the normalized form of the address (see
+ * {@link org.angiedev.schoolfinder.util.AddressKey}).
+ */
+public class GeoCodeCacheEntry {
+
+	private final String addressKey;
+	private final String source;
+	private final GeoLocation geoLocation;
+	private final String failure;
+	private final Date lookedUpAt;
+
+	/**
+	 * @param addressKey	normalized address.
+	 * @param source		name of the service that made the lookup.
+	 * @param geoLocation	geo location found, or null if the lookup failed.
+	 * @param failure		reason the lookup failed, or null if it succeeded.
+	 * @param lookedUpAt	time of the lookup.
+	 */
+	public GeoCodeCacheEntry(String addressKey, String source, GeoLocation geoLocation, String failure,
+			Date lookedUpAt) {
+		this.addressKey = addressKey;
+		this.source = source;
+		this.geoLocation = geoLocation;
+		this.failure = failure;
+		this.lookedUpAt = lookedUpAt;
+	}
+
+	/**
+	 * Creates the entry of a successful lookup made now.
+	 */
+	public static GeoCodeCacheEntry found(String addressKey, String source, GeoLocation geoLocation) {
+		return new GeoCodeCacheEntry(addressKey, source, geoLocation, null, new Date());
+	}
+
+	/**
+	 * Creates the entry of a failed lookup made now.
+	 */
+	public static GeoCodeCacheEntry failed(String addressKey, String source, String failure) {
+		return new GeoCodeCacheEntry(addressKey, source, null, failure, new Date());
+	}
+
+	public String getAddressKey() {
+		return addressKey;
+	}
+
+	public String getSource() {
+		return source;
+	}
+
+	public GeoLocation getGeoLocation() {
+		return geoLocation;
+	}
+
+	public String getFailure() {
+		return failure;
+	}
+
+	public Date getLookedUpAt() {
+		return lookedUpAt;
+	}
+
+	/**
+	 * Returns true if the lookup found the geo location of the address.
+	 */
+	public boolean isFound() {
+		return geoLocation != null;
+	}
+
+	@Override
+	public String toString() {
+		return "GeoCodeCacheEntry [addressKey=" + addressKey + ", source=" + source + ", geoLocation=" +
+				geoLocation + ", failure=" + failure + ", lookedUpAt=" + lookedUpAt + "]";
+	}
+}
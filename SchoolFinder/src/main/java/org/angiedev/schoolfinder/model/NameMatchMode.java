@@ -0,0 +1,24 @@
+package org.angiedev.schoolfinder.model;
+
+/**
+ * NameMatchMode defines how a search string is matched against a school's name.
+ */
+public enum NameMatchMode {
+	
+	/** The school's name starts with the search string (ignoring case) */
+	PREFIX,
+	
+	/** 
+	 * Every word of the search string is found at the start of a word in the school's
+	 * name (ignoring case), so "lin high" matches "Abraham Lincoln High"
+	 */
+	TOKENS,
+	
+	/**
+	 * Every word of the search string is found within a small number of edits (typos) of 
+	 * the start of a word in the school's name (ignoring case).  Schools found by a radius 
+	 * search are ranked by a blend of the number of edits and their distance instead of 
+	 * by name.
+	 */
+	FUZZY
+}
@@ -1,5 +1,6 @@
 package org.angiedev.schoolfinder.model;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
@@ -9,21 +10,39 @@ import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
+import javax.persistence.QueryHint;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 
 /**
  *  School is a data model representing a School within a district.
+ *  <p>
+ *  Schools are kept in the hibernate second level cache, and the results of the 
+ *  School.findByNcesId query in the query cache.
  *  
  *  @author Angela Gordon
  */
 
 @Entity
 @Table(name="School")
+@Cacheable
+@Cache(usage=CacheConcurrencyStrategy.READ_WRITE)
 @NamedQueries({
 	@NamedQuery(name="School.findByDistrict", query="from School where district.districtId=:districtId order by name"),
-	@NamedQuery(name="School.findByNcesId", query="from School where ncesId=:ncesId"),
-	@NamedQuery(name="School.findByStateWithNoGeoData", query="from School where state=:state and longitude = null")})
+	@NamedQuery(name="School.findByNcesId", query="from School where ncesId=:ncesId",
+			hints={@QueryHint(name="org.hibernate.cacheable", value="true")}),
+	@NamedQuery(name="School.findByStateWithNoGeoData", query="from School where state=:state and longitude = null"),
+	@NamedQuery(name="School.findAllWithGeoData", query="from School s join fetch s.district " +
+			"where s.latitude is not null and s.longitude is not null"),
+	@NamedQuery(name="School.findWithGeoDataAndNoCellKey", query="from School where latitude is not null " +
+			"and longitude is not null and cellKey is null order by schoolId"),
+	@NamedQuery(name="School.findAfterSchoolId", query="from School where schoolId > :schoolId " +
+			"order by schoolId")})
 public class School {
 	
 	private long schoolId; 
@@ -38,6 +57,7 @@ public class School {
 	private String highGrade;
 	private Double longitude;
 	private Double latitude;
+	private Long cellKey;
 	private District district;
 
 	/** 
@@ -67,6 +87,20 @@ public class School {
 		this.district = district;
 	}
 	
+	/**
+	 * Creates a detached copy of the passed in school, including a copy of its district.
+	 * @param school	school to copy.
+	 */
+	public School(School school) {
+		this(school.getNcesId(), school.getName(), school.getStreetAddress(), school.getCity(),
+				school.getState(), school.getZip(), school.getStatus(), school.getLowGrade(),
+				school.getHighGrade(), (school.getDistrict() == null) ? null : new District(school.getDistrict()));
+		this.schoolId = school.getSchoolId();
+		this.longitude = school.getLongitude();
+		this.latitude = school.getLatitude();
+		this.cellKey = school.getCellKey();
+	}
+	
 	/**
 	 * Default constructor required for hibernate
 	 */
@@ -195,6 +229,21 @@ public class School {
 		this.latitude = latitude;
 	}
 
+	/**
+	 * Returns the spatial cell key calculated from the school's latitude and longitude
+	 * (see {@link org.angiedev.schoolfinder.util.SpatialCellKey}), or null if the school
+	 * does not have geo location data.
+	 */
+	@Column(name="cell_key")
+	@JsonIgnore
+	public Long getCellKey() {
+		return cellKey;
+	}
+
+	public void setCellKey(Long cellKey) {
+		this.cellKey = cellKey;
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -0,0 +1,84 @@
+package org.angiedev.schoolfinder.model;
+
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+
+/**
+ * SchoolSearchResult is a data model representing a school found by a geo location 
+ * search along with its distance and bearing from the search location.  The distance
+ * is calculated by the search itself, so clients don't need to calculate it again.
+ * <p>
+ * When converted to JSON the school's fields are written inline with the distance 
+ * and bearing.
+ */
+public class SchoolSearchResult {
+
+	private School school;
+	private double distance;
+	private double bearing;
+	
+	/**
+	 * Creates a search result for the passed in school.
+	 * @param school	school found by the search.
+	 * @param distance	distance in miles from the search location to the school.
+	 * @param bearing	initial compass bearing in degrees (0 to 360, clockwise from north) 
+	 * 					from the search location to the school.
+	 */
+	public SchoolSearchResult(School school, double distance, double bearing) {
+		this.school = school;
+		this.distance = distance;
+		this.bearing = bearing;
+	}
+
+	@JsonUnwrapped
+	public School getSchool() {
+		return school;
+	}
+
+	public double getDistance() {
+		return distance;
+	}
+
+	public double getBearing() {
+		return bearing;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		long temp;
+		temp = Double.doubleToLongBits(bearing);
+		result = prime * result + (int) (temp ^ (temp >>> 32));
+		temp = Double.doubleToLongBits(distance);
+		result = prime * result + (int) (temp ^ (temp >>> 32));
+		result = prime * result + ((school == null) ? 0 : school.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		SchoolSearchResult other = (SchoolSearchResult) obj;
+		if (Double.doubleToLongBits(bearing) != Double.doubleToLongBits(other.bearing))
+			return false;
+		if (Double.doubleToLongBits(distance) != Double.doubleToLongBits(other.distance))
+			return false;
+		if (school == null) {
+			if (other.school != null)
+				return false;
+		} else if (!school.equals(other.school))
+			return false;
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "SchoolSearchResult [school=" + school + ", distance=" + distance + 
+				", bearing=" + bearing + "]";
+	}
+}
@@ -0,0 +1,29 @@
+package org.angiedev.schoolfinder.service;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.angiedev.schoolfinder.model.Address;
+import org.angiedev.schoolfinder.model.GeoLocation;
+
+/**
+ * BatchGeoLocationService is an interface for a geo location service which can also
+ * lookup the geolocations (latitude/longitude) of a batch of addresses in one request.
+ */
+public interface BatchGeoLocationService extends GeoLocationService {
+	/**
+	  * Returns the geo locations found for the passed in addresses.  Addresses that could
+	  * not be found are left out of the results and can be looked up again on their own.
+	  * @param addresses	addresses to lookup, no more than getMaxBatchSize() of them.
+	  * @return 			geo locations of the addresses found, keyed by address id
+	  * @throws IOException	if the batch could not be looked up.
+	  */
+	public Map<String, GeoLocation> getGeoLocationsForAddresses(List<Address> addresses)
+			throws IOException;
+
+	/**
+	 * Returns the largest number of addresses the service looks up in one batch.
+	 */
+	public int getMaxBatchSize();
+}
@@ -0,0 +1,22 @@
+package org.angiedev.schoolfinder.service;
+
+import java.io.IOException;
+
+/**
+ * GeoLocationNotFoundException is thrown by a {@link GeoLocationService} when its
+ * provider answered that it has no geo location for the address (i.e. Google's
+ * ZERO_RESULTS status or no match from the Census geocoder).  Unlike the other lookup
+ * failures it is an answer about the address rather than about the provider, so the
+ * lookup would fail again if it was tried again.
+ */
+public class GeoLocationNotFoundException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * @param message	description of the failed lookup.
+	 */
+	public GeoLocationNotFoundException(String message) {
+		super(message);
+	}
+}
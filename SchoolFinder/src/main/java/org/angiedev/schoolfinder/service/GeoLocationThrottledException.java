@@ -0,0 +1,33 @@
+package org.angiedev.schoolfinder.service;
+
+import java.io.IOException;
+
+/**
+ * GeoLocationThrottledException is thrown by a {@link GeoLocationService} when its
+ * provider turned a lookup down because too many lookups were made (i.e. an HTTP 429
+ * response or Google's OVER_QUERY_LIMIT status).  Unlike the other lookup failures the
+ * lookup can succeed if it is tried again later.
+ */
+public class GeoLocationThrottledException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final long retryAfterMillis;
+
+	/**
+	 * @param message			description of the failed lookup.
+	 * @param retryAfterMillis	time the provider asked to wait before the next lookup,
+	 * 							or 0 if it didn't say.
+	 */
+	public GeoLocationThrottledException(String message, long retryAfterMillis) {
+		super(message);
+		this.retryAfterMillis = retryAfterMillis;
+	}
+
+	/**
+	 * Returns the time the provider asked to wait before the next lookup, or 0 if it didn't say.
+	 */
+	public long getRetryAfterMillis() {
+		return retryAfterMillis;
+	}
+}
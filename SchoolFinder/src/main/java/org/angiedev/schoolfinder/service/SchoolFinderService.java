@@ -2,7 +2,10 @@ package org.angiedev.schoolfinder.service;
 
 import java.util.List;
 
+import org.angiedev.schoolfinder.model.NameMatchMode;
 import org.angiedev.schoolfinder.model.School;
+import org.angiedev.schoolfinder.model.SchoolSearchResult;
+import org.angiedev.schoolfinder.util.CacheStats;
 
 /**
  * SchoolFinderService is a interface for a service which enables a user to search 
@@ -20,9 +23,10 @@ public interface SchoolFinderService {
 	 * @param searchRadius	search radius in miles to search within
 	 * @param maxNumResults	maximum number of schools to return
 	 * @return				list of schools located within search radius of search location
+	 * 						along with their distance from it
 	 * 
 	 */
-	public List<School> getSchools(double latitude, double longitude, int searchRadius,
+	public List<SchoolSearchResult> getSchools(double latitude, double longitude, int searchRadius,
 			int maxNumResults);
 	
 	/**
@@ -35,11 +39,47 @@ public interface SchoolFinderService {
 	 * @param searchString	search string to find at start of the school's name
 	 * @param maxNumResults	maximum number of schools to return
 	 * @return				list of schools located within search radius of search location
+	 * 						along with their distance from it
 	 * 
 	 */
-	public List<School> getSchools(double latitude, double longitude, int searchRadius,
+	public List<SchoolSearchResult> getSchools(double latitude, double longitude, int searchRadius,
 			String searchString, int maxNumResults);
 	
+	/**
+	 * Retrieves the list of schools that are near the specified location (in
+	 * latitude and longitude) within the passed in search radius and whose 
+	 * name matches the passed in search string.  
+	 * @param latitude		latitude of location to search from 
+	 * @param longitude		longitude of location to search from
+	 * @param searchRadius	search radius in miles to search within
+	 * @param searchString	search string to match against the school's name
+	 * @param matchMode		how the search string is matched against the school's name
+	 * @param maxNumResults	maximum number of schools to return
+	 * @return				list of schools located within search radius of search location
+	 * 						along with their distance from it
+	 * 
+	 */
+	public List<SchoolSearchResult> getSchools(double latitude, double longitude, int searchRadius,
+			String searchString, NameMatchMode matchMode, int maxNumResults);
+	
+	/**
+	 * Retrieves the list of schools nearest to the specified location (in latitude
+	 * and longitude) ordered by their distance from the location, nearest first.
+	 * @param latitude		latitude of location to search from 
+	 * @param longitude		longitude of location to search from
+	 * @param searchRadius	search radius in miles to search within, or null to return 
+	 * 						the nearest schools regardless of their distance
+	 * @param searchString	search string to match against the school's name, or null
+	 * 						to match every school
+	 * @param matchMode		how the search string is matched against the school's name
+	 * @param maxNumResults	maximum number of schools to return
+	 * @return				list of the nearest schools along with their distance from the
+	 * 						search location, ordered by distance
+	 * 
+	 */
+	public List<SchoolSearchResult> getNearestSchools(double latitude, double longitude, Integer searchRadius,
+			String searchString, NameMatchMode matchMode, int maxNumResults);
+	
 	/**
 	 * Retrieves the school identified by the passed in NCES id
 	 * @param ncesId	unique NCES id identifying the school 
@@ -48,4 +88,18 @@ public interface SchoolFinderService {
 	 * 
 	 */
 	public School getSchoolByNcesId(String ncesId);
+	
+	/**
+	 * Returns the hit, miss and eviction counts of the cache of schools looked up by 
+	 * NCES id
+	 * @return			snapshot of the cache counters
+	 */
+	public CacheStats getSchoolCacheStats();
+	
+	/**
+	 * Returns the hit, miss and eviction counts of the cache of geo location search 
+	 * results, along with its hit rate
+	 * @return			snapshot of the cache counters
+	 */
+	public CacheStats getSearchCacheStats();
 }
\ No newline at end of file
@@ -0,0 +1,97 @@
+package org.angiedev.schoolfinder.service.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.angiedev.schoolfinder.dao.GeoCodeCacheDAO;
+import org.angiedev.schoolfinder.model.Address;
+import org.angiedev.schoolfinder.model.GeoCodeCacheEntry;
+import org.angiedev.schoolfinder.model.GeoLocation;
+import org.angiedev.schoolfinder.service.BatchGeoLocationService;
+import org.angiedev.schoolfinder.util.AddressKey;
+
+/**
+ * CachingBatchGeoLocationService is a {@link CachingGeoLocationService} for a service
+ * that also looks up batches of addresses.  Only the addresses of a batch that are not
+ * in the cache are passed on to the service, as one batch, and the geo locations it
+ * finds are cached.  Addresses with a cached failure are left out of the results, as
+ * are those the service could not find, which are not cached: looked up again on their
+ * own they get a failure of their own.
+ */
+public class CachingBatchGeoLocationService extends CachingGeoLocationService
+		implements BatchGeoLocationService {
+
+	private final BatchGeoLocationService service;
+
+	/**
+	 * @param service	service making the lookups not found in the cache.
+	 * @param source	name of the service kept with its results (i.e. "census").
+	 * @param cacheDAO	DAO of the cached results.
+	 */
+	public CachingBatchGeoLocationService(BatchGeoLocationService service, String source,
+			GeoCodeCacheDAO cacheDAO) {
+		super(service, source, cacheDAO);
+		this.service = service;
+	}
+
+	@Override
+	public Map<String, GeoLocation> getGeoLocationsForAddresses(List<Address> addresses) throws IOException {
+
+		// ids of the addresses of each normalized address, and the first of these addresses
+		Map<String, List<String>> idsByKey = new LinkedHashMap<String, List<String>>();
+		Map<String, Address> addressByKey = new HashMap<String, Address>();
+		for (Address address: addresses) {
+			String key = AddressKey.normalize(address.getStreetAddress(), address.getCity(),
+					address.getStateCode(), address.getZip());
+			idsByKey.computeIfAbsent(key, k -> new ArrayList<String>()).add(address.getId());
+			addressByKey.putIfAbsent(key, address);
+		}
+
+		Map<String, GeoLocation> geoLocations = new HashMap<String, GeoLocation>();
+		Map<String, GeoCodeCacheEntry> entries = cacheDAO.getEntries(idsByKey.keySet());
+		// addresses passed on to the service, identified by their normalized address
+		List<Address> misses = new ArrayList<Address>();
+		for (Map.Entry<String, List<String>> ids: idsByKey.entrySet()) {
+			GeoCodeCacheEntry entry = entries.get(ids.getKey());
+			if (entry != null && entry.isFound()) {
+				hitCount.increment();
+				for (String id: ids.getValue()) {
+					geoLocations.put(id, copy(entry.getGeoLocation()));
+				}
+			} else if (entry != null && !isExpired(entry)) {
+				failureHitCount.increment();
+			} else {
+				missCount.increment();
+				Address address = addressByKey.get(ids.getKey());
+				misses.add(new Address(ids.getKey(), address.getStreetAddress(), address.getCity(),
+						address.getStateCode(), address.getZip()));
+			}
+		}
+		if (misses.isEmpty()) {
+			return geoLocations;
+		}
+
+		Map<String, GeoLocation> found = service.getGeoLocationsForAddresses(misses);
+		List<GeoCodeCacheEntry> newEntries = new ArrayList<GeoCodeCacheEntry>();
+		for (Map.Entry<String, GeoLocation> geoLocation: found.entrySet()) {
+			List<String> ids = idsByKey.get(geoLocation.getKey());
+			if (ids != null) {
+				newEntries.add(GeoCodeCacheEntry.found(geoLocation.getKey(), getSource(), geoLocation.getValue()));
+				for (String id: ids) {
+					geoLocations.put(id, copy(geoLocation.getValue()));
+				}
+			}
+		}
+		cacheDAO.saveEntries(newEntries);
+		return geoLocations;
+	}
+
+	@Override
+	public int getMaxBatchSize() {
+		return service.getMaxBatchSize();
+	}
+}
@@ -0,0 +1,139 @@
+package org.angiedev.schoolfinder.service.impl;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.angiedev.schoolfinder.dao.GeoCodeCacheDAO;
+import org.angiedev.schoolfinder.model.GeoCodeCacheEntry;
+import org.angiedev.schoolfinder.model.GeoLocation;
+import org.angiedev.schoolfinder.service.GeoLocationService;
+import org.angiedev.schoolfinder.service.GeoLocationNotFoundException;
+import org.angiedev.schoolfinder.util.AddressKey;
+
+/**
+ * CachingGeoLocationService keeps the result of each lookup made through another geo
+ * location service in the database (see {@link GeoCodeCacheDAO}), so an address that
+ * was looked up before, by this or any other service, is answered without calling a
+ * provider again, even after a restart.  Addresses are matched by their normalized form
+ * (see {@link AddressKey}), and each result is kept along with the name of the service
+ * that made it and when.
+ * <p>
+ * Geo locations found are kept for good.  Lookups the provider answered by not finding
+ * the address (see {@link GeoLocationNotFoundException}) are kept too, and the address
+ * is not looked up again until the failure is failureTtlHours old; until then the lookup
+ * fails straight away with a GeoLocationNotFoundException.  All other failed lookups,
+ * such as those throttled, turned down for a bad API key or failing to reach the
+ * provider, are not kept, as they say nothing about the address.
+ */
+public class CachingGeoLocationService implements GeoLocationService {
+
+	private static final long DEFAULT_FAILURE_TTL_HOURS = 7 * 24;
+
+	private final GeoLocationService service;
+	private final String source;
+	protected final GeoCodeCacheDAO cacheDAO;
+	private long failureTtlHours = DEFAULT_FAILURE_TTL_HOURS;
+
+	protected final LongAdder hitCount = new LongAdder();
+	protected final LongAdder failureHitCount = new LongAdder();
+	protected final LongAdder missCount = new LongAdder();
+
+	/**
+	 * @param service	service making the lookups not found in the cache.
+	 * @param source	name of the service kept with its results (i.e. "google").
+	 * @param cacheDAO	DAO of the cached results.
+	 */
+	public CachingGeoLocationService(GeoLocationService service, String source, GeoCodeCacheDAO cacheDAO) {
+		this.service = service;
+		this.source = source;
+		this.cacheDAO = cacheDAO;
+	}
+
+	@Override
+	public GeoLocation getGeoLocationForAddress(String address, String city, String stateCode, String zip)
+			throws IOException {
+
+		String key = AddressKey.normalize(address, city, stateCode, zip);
+		GeoCodeCacheEntry entry = cacheDAO.getEntry(key);
+		if (entry != null && entry.isFound()) {
+			hitCount.increment();
+			return copy(entry.getGeoLocation());
+		} else if (entry != null && !isExpired(entry)) {
+			failureHitCount.increment();
+			throw new GeoLocationNotFoundException("Unable to get GeoLocation for address: " + address + "," + city + "," +
+					stateCode + ".  Lookup by " + entry.getSource() + " at " + entry.getLookedUpAt() +
+					" failed: " + entry.getFailure());
+		}
+
+		missCount.increment();
+		GeoLocation geoLocation;
+		try {
+			geoLocation = service.getGeoLocationForAddress(address, city, stateCode, zip);
+		} catch (GeoLocationNotFoundException e) {
+			cacheDAO.saveEntries(Collections.singletonList(GeoCodeCacheEntry.failed(key, source, e.getMessage())));
+			throw e;
+		}
+		cacheDAO.saveEntries(Collections.singletonList(GeoCodeCacheEntry.found(key, source, geoLocation)));
+		return geoLocation;
+	}
+
+	/**
+	 * Returns true if the passed in failed lookup is old enough to be made again.
+	 */
+	protected boolean isExpired(GeoCodeCacheEntry entry) {
+		return System.currentTimeMillis() - entry.getLookedUpAt().getTime() >=
+				TimeUnit.HOURS.toMillis(failureTtlHours);
+	}
+
+	/* Returns a copy of a cached geo location, which callers are free to change */
+	protected static GeoLocation copy(GeoLocation geoLocation) {
+		GeoLocation copy = new GeoLocation();
+		copy.setLatitude(geoLocation.getLatitude());
+		copy.setLongitude(geoLocation.getLongitude());
+		return copy;
+	}
+
+	public String getSource() {
+		return source;
+	}
+
+	public long getFailureTtlHours() {
+		return failureTtlHours;
+	}
+
+	/**
+	 * Sets how long a failed lookup is kept before the address is looked up again.
+	 */
+	public void setFailureTtlHours(long failureTtlHours) {
+		this.failureTtlHours = failureTtlHours;
+	}
+
+	/**
+	 * Returns the number of lookups answered with a cached geo location.
+	 */
+	public long getHitCount() {
+		return hitCount.sum();
+	}
+
+	/**
+	 * Returns the number of lookups answered with a cached failure.
+	 */
+	public long getFailureHitCount() {
+		return failureHitCount.sum();
+	}
+
+	/**
+	 * Returns the number of addresses passed on to the service.
+	 */
+	public long getMissCount() {
+		return missCount.sum();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Geo code cache of %s: %d hits, %d failure hits, %d misses; %s", source,
+				getHitCount(), getFailureHitCount(), getMissCount(), service);
+	}
+}
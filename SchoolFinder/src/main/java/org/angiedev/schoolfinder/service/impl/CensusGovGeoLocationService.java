@@ -1,14 +1,30 @@
 package org.angiedev.schoolfinder.service.impl;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import org.angiedev.schoolfinder.model.Address;
 import org.angiedev.schoolfinder.model.GeoLocation;
-import org.angiedev.schoolfinder.service.GeoLocationService;
+import org.angiedev.schoolfinder.service.BatchGeoLocationService;
+import org.angiedev.schoolfinder.service.GeoLocationNotFoundException;
 import org.angiedev.schoolfinder.service.impl.json.CensusGovGeocodingLookupResult;
 import org.angiedev.schoolfinder.service.impl.json.LatLongGeocodingLookupResult;
+import org.angiedev.schoolfinder.util.PooledRestTemplateFactory;
 import org.angiedev.schoolfinder.util.Props;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 
@@ -16,39 +32,177 @@ import org.springframework.web.client.RestTemplate;
  * CensusGovGeoLocationService is a service which enables a user to lookup 
  * a geolocation (latitude/longitude) for an address.  This service uses 
  * the US Census Bureau's geocoding api. (https://geocoding.geo.census.gov/)
+ * <p>
+ * Batches of addresses are looked up with the api's batch lookup, which takes a CSV 
+ * file of up to 10,000 addresses (id, street address, city, state, zip) uploaded as a 
+ * multipart form and answers with a CSV line per address: its id, the address, its 
+ * match status (Match, No_Match or Tie), the match type, the matched address and its 
+ * "longitude,latitude" coordinates, followed by fields we don't use.
  * @author Angela Gordon
  *
  */
 @Service
 @Transactional(readOnly=true)
-public class CensusGovGeoLocationService implements GeoLocationService {
+public class CensusGovGeoLocationService implements BatchGeoLocationService {
 	
 	 private static final String LOOKUP_URL = "https://geocoding.geo.census.gov/geocoder/locations/onelineaddress?";
 	 private static final String ADDRESS_KEY_PARAM = "address=";
 	 private static final String BENCHMARK_PARAM = "benchmark=Public_AR_Current";
 	 private static final String JSON_PARAM = "format=json";
 	 
+	 private static final String BATCH_URL = "https://geocoding.geo.census.gov/geocoder/locations/addressbatch";
+	 private static final String BATCH_FILE_PARAM = "addressFile";
+	 private static final String BATCH_BENCHMARK_PARAM = "benchmark";
+	 private static final String BENCHMARK = "Public_AR_Current";
+	 private static final String MATCH_STATUS = "Match";
+	 private static final int MAX_BATCH_SIZE = 10000;
+	 
+	 private String lookupUrl = LOOKUP_URL;
+	 private String batchUrl = BATCH_URL;
+	 
+	 private RestTemplate restTemplate = PooledRestTemplateFactory.getSharedRestTemplate();
+	 
 	@Override
 	public GeoLocation getGeoLocationForAddress(String address, String city, 
 			String stateCode, String zip) throws IOException {
 		
-		String query = LOOKUP_URL + ADDRESS_KEY_PARAM + address + "," + city + "," + 
+		String query = lookupUrl + ADDRESS_KEY_PARAM + address + "," + city + "," + 
 				stateCode + "," + zip +  "&" + BENCHMARK_PARAM + "&" + JSON_PARAM;
 		try { 
-			RestTemplate restTemplate = new RestTemplate();
 			CensusGovGeocodingLookupResult result = 
 					restTemplate.getForObject(query, CensusGovGeocodingLookupResult.class);
 			if (result.getStatus().equals("OK")) {
 				return result.getGeoLocation();
 			} else {
-				throw new IOException("Unable to get GeoLocation for address: " + address 
+				// the geocoder found no match for the address
+				throw new GeoLocationNotFoundException("Unable to get GeoLocation for address: " + address 
 				+ "," + city + "," + stateCode + ".  CensusGovGeoCode API returned status: " +
 				result.getStatus());
 			}
 		} catch (HttpClientErrorException e) {
-			throw new IOException("Unable to get GeoLocation for address: " + address + 
+			throw LookupErrors.lookupFailed("Unable to get GeoLocation for address: " + address + 
 				 "," + city + "," + stateCode + ".  CensusGovGeoCode API threw exception: " +
-					e.getResponseBodyAsString());	
+					e.getResponseBodyAsString(), e);	
+		}
+	}
+	
+	@Override
+	public Map<String, GeoLocation> getGeoLocationsForAddresses(List<Address> addresses) throws IOException {
+		
+		if (addresses.size() > MAX_BATCH_SIZE) {
+			throw new IllegalArgumentException("A batch holds at most " + MAX_BATCH_SIZE + " addresses");
+		}
+		Map<String, GeoLocation> geoLocations = new HashMap<String, GeoLocation>();
+		if (addresses.isEmpty()) {
+			return geoLocations;
+		}
+		
+		StringBuilder csv = new StringBuilder();
+		Set<String> ids = new HashSet<String>();
+		for (Address address: addresses) {
+			ids.add(address.getId());
+			csv.append(quote(address.getId())).append(',').append(quote(address.getStreetAddress())).append(',')
+				.append(quote(address.getCity())).append(',').append(quote(address.getStateCode())).append(',')
+				.append(quote(address.getZip())).append("\r\n");
+		}
+		MultiValueMap<String, Object> form = new LinkedMultiValueMap<String, Object>();
+		form.add(BATCH_FILE_PARAM, new ByteArrayResource(csv.toString().getBytes(StandardCharsets.UTF_8)) {
+			@Override
+			public String getFilename() {
+				return "addresses.csv";
+			}
+		});
+		form.add(BATCH_BENCHMARK_PARAM, BENCHMARK);
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+		
+		String response;
+		try {
+			response = restTemplate.postForObject(batchUrl, 
+					new HttpEntity<MultiValueMap<String, Object>>(form, headers), String.class);
+		} catch (HttpClientErrorException e) {
+			throw LookupErrors.lookupFailed("Unable to get GeoLocations for a batch of " + addresses.size() + 
+					" addresses.  CensusGovGeoCode API threw exception: " + e.getResponseBodyAsString(), e);
+		}
+		
+		for (String line: (response == null ? "" : response).split("\r?\n")) {
+			List<String> fields = parseCsvLine(line);
+			if (fields.size() > 5 && fields.get(2).equals(MATCH_STATUS) && ids.contains(fields.get(0))) {
+				String[] coordinates = fields.get(5).split(",");
+				try {
+					GeoLocation geoLocation = new GeoLocation();
+					geoLocation.setLongitude(Double.parseDouble(coordinates[0].trim()));
+					geoLocation.setLatitude(Double.parseDouble(coordinates[1].trim()));
+					geoLocations.put(fields.get(0), geoLocation);
+				} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+					// no usable coordinates, the address is treated as not found
+				}
+			}
 		}
+		return geoLocations;
+	}
+	
+	@Override
+	public int getMaxBatchSize() {
+		return MAX_BATCH_SIZE;
+	}
+	
+	/* Quotes a CSV field, doubling the quotes within it */
+	private static String quote(String field) {
+		return "\"" + (field == null ? "" : field.replace("\"", "\"\"")) + "\"";
+	}
+	
+	/* Splits a CSV line into its fields, removing their quotes */
+	private static List<String> parseCsvLine(String line) {
+		List<String> fields = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (quoted) {
+				if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					field.append('"');
+					i++;
+				} else if (c == '"') {
+					quoted = false;
+				} else {
+					field.append(c);
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}
+		if (!line.isEmpty()) {
+			fields.add(field.toString());
+		}
+		return fields;
+	}
+	
+	/**
+	 * Sets the URL of the address lookup, ending before its query parameters
+	 * (defaults to the Census Bureau's onelineaddress lookup).
+	 */
+	public void setLookupUrl(String lookupUrl) {
+		this.lookupUrl = lookupUrl;
+	}
+	
+	/**
+	 * Sets the URL of the batch lookup (defaults to the Census Bureau's addressbatch lookup).
+	 */
+	public void setBatchUrl(String batchUrl) {
+		this.batchUrl = batchUrl;
+	}
+	
+	/**
+	 * Sets the RestTemplate making the API calls (defaults to the 
+	 * {@link PooledRestTemplateFactory#getSharedRestTemplate() shared RestTemplate}).
+	 */
+	public void setRestTemplate(RestTemplate restTemplate) {
+		this.restTemplate = restTemplate;
 	}
 }
@@ -4,10 +4,14 @@ import java.io.IOException;
 
 import org.angiedev.schoolfinder.service.impl.json.GoogleGeocodingLookupResult;
 import org.angiedev.schoolfinder.model.GeoLocation;
+import org.angiedev.schoolfinder.service.GeoLocationNotFoundException;
 import org.angiedev.schoolfinder.service.GeoLocationService;
+import org.angiedev.schoolfinder.service.GeoLocationThrottledException;
+import org.angiedev.schoolfinder.util.PooledRestTemplateFactory;
 import org.angiedev.schoolfinder.util.Props;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 
 /**
@@ -24,6 +28,12 @@ public class GoogleGeoLocationService implements GeoLocationService {
 	 private static final String LOOKUP_URL = "https://maps.googleapis.com/maps/api/geocode/json?";
 	 private static final String ADDRESS_KEY_PARAM = "address=";
 	 private static final String API_KEY_PARAM = "key=" + Props.getInstance().getGoogleAPIKey();
+	 // status returned when too many lookups were made (see RateLimitedGeoLocationService)
+	 private static final String OVER_QUERY_LIMIT_STATUS = "OVER_QUERY_LIMIT";
+	 // status returned when the address was not found
+	 private static final String ZERO_RESULTS_STATUS = "ZERO_RESULTS";
+	 
+	 private RestTemplate restTemplate = PooledRestTemplateFactory.getSharedRestTemplate();
 
 	@Override
 	public GeoLocation getGeoLocationForAddress(String address, String city, String stateCode, String zip) throws IOException {
@@ -36,17 +46,37 @@ public class GoogleGeoLocationService implements GeoLocationService {
 		String query = LOOKUP_URL + ADDRESS_KEY_PARAM + address + "," + city + "," + 
 				stateCode + "," + zip + "&" + API_KEY_PARAM;
 		
-		RestTemplate restTemplate = new RestTemplate();
-		GoogleGeocodingLookupResult result = 
-				restTemplate.getForObject(query, GoogleGeocodingLookupResult.class);
+		GoogleGeocodingLookupResult result;
+		try {
+			result = restTemplate.getForObject(query, GoogleGeocodingLookupResult.class);
+		} catch (HttpClientErrorException e) {
+			throw LookupErrors.lookupFailed("Unable to get GeoLocation for address: " + address + 
+				 "," + city + "," + stateCode + ".  GoogleGeoCode API threw exception: " +
+					e.getResponseBodyAsString(), e);
+		}
 		
 		if (result.getStatus().equals("OK")) {
 			return result.getGeoLocation();
+		} else if (result.getStatus().equals(OVER_QUERY_LIMIT_STATUS)) {
+			throw new GeoLocationThrottledException("Unable to get GeoLocation for address: " + address 
+			+ "," + city + "," + stateCode + ".  GoogleGeoCode API returned status: " +
+			result.getStatus(), 0);
+		} else if (result.getStatus().equals(ZERO_RESULTS_STATUS)) {
+			throw new GeoLocationNotFoundException("Unable to get GeoLocation for address: " + address 
+			+ "," + city + "," + stateCode + ".  GoogleGeoCode API returned status: " +
+			result.getStatus());
 		} else {
 			throw new IOException("Unable to get GeoLocation for address: " + address 
 			+ "," + city + "," + stateCode + ".  GoogleGeoCode API returned status: " +
 			result.getStatus());
 		}
 	}
-
+	
+	/**
+	 * Sets the RestTemplate making the API calls (defaults to the 
+	 * {@link PooledRestTemplateFactory#getSharedRestTemplate() shared RestTemplate}).
+	 */
+	public void setRestTemplate(RestTemplate restTemplate) {
+		this.restTemplate = restTemplate;
+	}
 }
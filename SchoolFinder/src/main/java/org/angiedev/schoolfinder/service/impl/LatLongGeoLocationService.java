@@ -5,6 +5,7 @@ import java.io.IOException;
 import org.angiedev.schoolfinder.model.GeoLocation;
 import org.angiedev.schoolfinder.service.GeoLocationService;
 import org.angiedev.schoolfinder.service.impl.json.LatLongGeocodingLookupResult;
+import org.angiedev.schoolfinder.util.PooledRestTemplateFactory;
 import org.angiedev.schoolfinder.util.Props;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -26,6 +27,8 @@ public class LatLongGeoLocationService implements GeoLocationService {
 	 private static final String ADDRESS_KEY_PARAM = "address=";
 	 private static final String API_KEY_PARAM = "token=" + Props.getInstance().getLatLongAPIKey();
 	 
+	 private RestTemplate restTemplate = PooledRestTemplateFactory.getSharedRestTemplate();
+	 
 	@Override
 	public GeoLocation getGeoLocationForAddress(String address, String city, 
 			String stateCode, String zip) throws IOException {
@@ -33,7 +36,6 @@ public class LatLongGeoLocationService implements GeoLocationService {
 		String query = LOOKUP_URL + ADDRESS_KEY_PARAM + address + "," + city + "," + 
 				stateCode + "," + zip +  "&" + API_KEY_PARAM;
 		try { 
-			RestTemplate restTemplate = new RestTemplate();
 			LatLongGeocodingLookupResult result = 
 					restTemplate.getForObject(query, LatLongGeocodingLookupResult.class);
 			if (result.getStatus().equals("OK")) {
@@ -44,9 +46,17 @@ public class LatLongGeoLocationService implements GeoLocationService {
 				result.getStatus());
 			}
 		} catch (HttpClientErrorException e) {
-			throw new IOException("Unable to get GeoLocation for address: " + address + 
+			throw LookupErrors.lookupFailed("Unable to get GeoLocation for address: " + address + 
 				 "," + city + "," + stateCode + ".  LatLongGeoCode API threw exception: " +
-					e.getResponseBodyAsString());	
+					e.getResponseBodyAsString(), e);	
 		}
 	}
+	
+	/**
+	 * Sets the RestTemplate making the API calls (defaults to the 
+	 * {@link PooledRestTemplateFactory#getSharedRestTemplate() shared RestTemplate}).
+	 */
+	public void setRestTemplate(RestTemplate restTemplate) {
+		this.restTemplate = restTemplate;
+	}
 }
@@ -0,0 +1,44 @@
+package org.angiedev.schoolfinder.service.impl;
+
+import java.io.IOException;
+
+import org.angiedev.schoolfinder.service.GeoLocationThrottledException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpStatusCodeException;
+
+/**
+ * LookupErrors turns the error responses of the geocoding APIs into the exceptions
+ * thrown by the geo location services.
+ */
+final class LookupErrors {
+
+	private LookupErrors() {
+	}
+
+	/**
+	 * Returns the exception for a lookup turned down by the API: a
+	 * GeoLocationThrottledException if the API throttled it, an IOException otherwise.
+	 * @param message	description of the failed lookup.
+	 * @param e			error response of the API.
+	 */
+	static IOException lookupFailed(String message, HttpStatusCodeException e) {
+		if (e.getStatusCode() == HttpStatus.TOO_MANY_REQUESTS) {
+			return new GeoLocationThrottledException(message, retryAfterMillis(e.getResponseHeaders()));
+		}
+		return new IOException(message);
+	}
+
+	/* Returns the delay, given in seconds, of the Retry-After header or 0 if there is none */
+	private static long retryAfterMillis(HttpHeaders headers) {
+		String retryAfter = headers == null ? null : headers.getFirst("Retry-After");
+		if (retryAfter != null) {
+			try {
+				return Math.max(Long.parseLong(retryAfter.trim()) * 1000, 0);
+			} catch (NumberFormatException e) {
+				// an HTTP date, left to the caller's own backoff
+			}
+		}
+		return 0;
+	}
+}
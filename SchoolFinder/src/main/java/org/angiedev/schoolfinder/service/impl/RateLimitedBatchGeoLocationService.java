@@ -0,0 +1,39 @@
+package org.angiedev.schoolfinder.service.impl;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.angiedev.schoolfinder.model.Address;
+import org.angiedev.schoolfinder.model.GeoLocation;
+import org.angiedev.schoolfinder.service.BatchGeoLocationService;
+
+/**
+ * RateLimitedBatchGeoLocationService is a {@link RateLimitedGeoLocationService} for a
+ * provider that also looks up batches of addresses.  A batch counts as one lookup against
+ * the provider's rate limit and is backed off and tried again as a whole when throttled.
+ */
+public class RateLimitedBatchGeoLocationService extends RateLimitedGeoLocationService
+		implements BatchGeoLocationService {
+
+	private final BatchGeoLocationService service;
+
+	/**
+	 * @param service				service making the lookups.
+	 * @param maxRequestsPerSecond	most lookups per second allowed by the service's provider.
+	 */
+	public RateLimitedBatchGeoLocationService(BatchGeoLocationService service, double maxRequestsPerSecond) {
+		super(service, maxRequestsPerSecond);
+		this.service = service;
+	}
+
+	@Override
+	public Map<String, GeoLocation> getGeoLocationsForAddresses(List<Address> addresses) throws IOException {
+		return limit(() -> service.getGeoLocationsForAddresses(addresses));
+	}
+
+	@Override
+	public int getMaxBatchSize() {
+		return service.getMaxBatchSize();
+	}
+}
@@ -0,0 +1,170 @@
+package org.angiedev.schoolfinder.service.impl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.angiedev.schoolfinder.model.GeoLocation;
+import org.angiedev.schoolfinder.service.GeoLocationService;
+import org.angiedev.schoolfinder.service.GeoLocationThrottledException;
+import org.angiedev.schoolfinder.util.TokenBucket;
+
+/**
+ * RateLimitedGeoLocationService makes the lookups of another geo location service no
+ * faster than its provider allows, so the lookups can be made by many threads at once.
+ * Each provider is wrapped in its own RateLimitedGeoLocationService, and so has its own
+ * limit, shared by all the threads using it.
+ * <p>
+ * The lookups are let through by a {@link TokenBucket} at up to maxRequestsPerSecond.
+ * When the provider throttles a lookup (see {@link GeoLocationThrottledException}) the
+ * rate is halved, no lookups are made for the time the provider asked for (or a backoff
+ * that doubles with each throttled try of a lookup), and the lookup is tried again.  Each
+ * successful lookup then raises the rate a little, back up to maxRequestsPerSecond.  The
+ * rate so settles just below what the provider lets through at the time.
+ * <p>
+ * A lookup still throttled after maxRetries retries (maxRetries + 1 tries in all) fails
+ * with the provider's GeoLocationThrottledException.  Other failures are passed on as they are.
+ */
+public class RateLimitedGeoLocationService implements GeoLocationService {
+
+	private static final int DEFAULT_MAX_RETRIES = 5;
+	private static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 1000;
+	private static final long MAX_BACKOFF_MILLIS = 60000;
+
+	// the rate is never lowered below this share of the maximum rate
+	private static final double MIN_RATE_FRACTION = 1.0 / 32;
+	// share of the maximum rate added back by each successful lookup
+	private static final double RATE_INCREASE_FRACTION = 1.0 / 50;
+
+	private final GeoLocationService service;
+	private final double maxRequestsPerSecond;
+	private final TokenBucket bucket;
+	private int maxRetries = DEFAULT_MAX_RETRIES;
+	private long initialBackoffMillis = DEFAULT_INITIAL_BACKOFF_MILLIS;
+
+	private final LongAdder lookupCount = new LongAdder();
+	private final LongAdder throttledCount = new LongAdder();
+
+	/**
+	 * @param service				service making the lookups.
+	 * @param maxRequestsPerSecond	most lookups per second allowed by the service's provider.
+	 */
+	public RateLimitedGeoLocationService(GeoLocationService service, double maxRequestsPerSecond) {
+		this.service = service;
+		this.maxRequestsPerSecond = maxRequestsPerSecond;
+		this.bucket = new TokenBucket(maxRequestsPerSecond, (int)Math.max(1, Math.ceil(maxRequestsPerSecond)));
+	}
+
+	@Override
+	public GeoLocation getGeoLocationForAddress(String address, String city, String stateCode, String zip)
+			throws IOException {
+		return limit(() -> service.getGeoLocationForAddress(address, city, stateCode, zip));
+	}
+
+	/**
+	 * Makes a lookup once the rate allows it, backing off and trying it again while the
+	 * provider throttles it.
+	 * @param lookup	lookup to make.
+	 * @return			result of the lookup.
+	 * @throws IOException	if the lookup failed or was still throttled after maxRetries retries.
+	 */
+	protected <T> T limit(Lookup<T> lookup) throws IOException {
+
+		long backoffMillis = initialBackoffMillis;
+		for (int attempt = 1; ; attempt++) {
+			try {
+				bucket.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting to make a lookup");
+			}
+			lookupCount.increment();
+			try {
+				T result = lookup.lookUp();
+				increaseRate();
+				return result;
+			} catch (GeoLocationThrottledException e) {
+				throttledCount.increment();
+				if (attempt > maxRetries) {
+					throw e;
+				}
+				backOff(e.getRetryAfterMillis() > 0 ? e.getRetryAfterMillis() : backoffMillis);
+				backoffMillis = Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+			}
+		}
+	}
+
+	/**
+	 * A lookup made through the provider.
+	 */
+	protected interface Lookup<T> {
+		T lookUp() throws IOException;
+	}
+
+	/* Halves the rate and pauses the lookups, unless an earlier throttled lookup already did */
+	private synchronized void backOff(long millis) {
+		if (!bucket.isPaused()) {
+			bucket.setRatePerSecond(Math.max(bucket.getRatePerSecond() / 2,
+					maxRequestsPerSecond * MIN_RATE_FRACTION));
+		}
+		bucket.pause(millis);
+	}
+
+	/* Raises the rate towards the maximum after a successful lookup */
+	private synchronized void increaseRate() {
+		double rate = bucket.getRatePerSecond();
+		if (rate < maxRequestsPerSecond) {
+			bucket.setRatePerSecond(Math.min(rate + maxRequestsPerSecond * RATE_INCREASE_FRACTION,
+					maxRequestsPerSecond));
+		}
+	}
+
+	/**
+	 * Returns the current rate of lookups, lowered from the maximum while the provider
+	 * is throttling them.
+	 */
+	public double getRequestsPerSecond() {
+		return bucket.getRatePerSecond();
+	}
+
+	public double getMaxRequestsPerSecond() {
+		return maxRequestsPerSecond;
+	}
+
+	/**
+	 * Returns the number of lookups made to the provider, including retries.
+	 */
+	public long getLookupCount() {
+		return lookupCount.sum();
+	}
+
+	/**
+	 * Returns the number of lookups throttled by the provider.
+	 */
+	public long getThrottledCount() {
+		return throttledCount.sum();
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	public void setMaxRetries(int maxRetries) {
+		this.maxRetries = maxRetries;
+	}
+
+	public long getInitialBackoffMillis() {
+		return initialBackoffMillis;
+	}
+
+	public void setInitialBackoffMillis(long initialBackoffMillis) {
+		this.initialBackoffMillis = initialBackoffMillis;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: %.1f of %.1f requests/sec, %d lookups, %d throttled",
+				service.getClass().getSimpleName(), getRequestsPerSecond(), maxRequestsPerSecond,
+				getLookupCount(), getThrottledCount());
+	}
+}
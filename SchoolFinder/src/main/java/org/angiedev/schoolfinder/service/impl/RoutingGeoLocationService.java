@@ -0,0 +1,565 @@
+package org.angiedev.schoolfinder.service.impl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.angiedev.schoolfinder.model.Address;
+import org.angiedev.schoolfinder.model.GeoLocation;
+import org.angiedev.schoolfinder.service.BatchGeoLocationService;
+import org.angiedev.schoolfinder.service.GeoLocationNotFoundException;
+import org.angiedev.schoolfinder.service.GeoLocationService;
+import org.angiedev.schoolfinder.service.GeoLocationThrottledException;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * RoutingGeoLocationService routes each lookup to one of several geo location services
+ * (i.e. "google", "census" and "latLong"), picked from how fast and how reliably each
+ * has answered lately, so a run keeps going when one provider slows down or runs out of
+ * quota.
+ * <p>
+ * Each lookup goes first to the provider with the lowest median latency over its recent
+ * lookups, raised by its recent error rate.  Providers with too few lookups yet are
+ * taken to answer in defaultLatencyMillis, so ties go to the order the providers were
+ * given in.  One lookup in exploreInterval goes to the provider used least recently
+ * instead, so the stats of the others stay current.
+ * <p>
+ * A lookup the provider has not answered within its 95th percentile latency (or
+ * defaultHedgeDelayMillis while it has too few lookups) is hedged: it is also sent to
+ * the next provider, and whichever answers first is used, the other one cancelled.  The
+ * provider that was too slow gets the time it took so far as a latency, so its stats
+ * reflect the stall.  A lookup is hedged at most once.
+ * <p>
+ * A lookup the provider throttled (see {@link GeoLocationThrottledException}) or failed
+ * to make (i.e. it could not be reached or turned the lookup down) fails over to the
+ * next provider.  A provider that throttled a lookup is not asked again until the time
+ * it asked for, or defaultCooldownMillis, has passed, unless all of the providers are
+ * cooling down.  A provider's answer that it could not find the address (see
+ * {@link GeoLocationNotFoundException}) is not failed over.
+ * <p>
+ * The latencies are those of the providers, so the router is meant to be given
+ * providers that make every lookup, and be wrapped in a {@link CachingGeoLocationService}
+ * itself, rather than route lookups to cached providers, whose cache hits would make
+ * them look faster than they are.  For the same reason the providers' rate limits should
+ * not retry throttled lookups (see {@link RateLimitedGeoLocationService#setMaxRetries}),
+ * so the router fails them over rather than wait for the provider.
+ * <p>
+ * Batches of addresses are passed on to the first of the providers that looks up
+ * batches (see {@link BatchGeoLocationService}, i.e. "census").  Without one, or if the
+ * batch lookup fails, the addresses of a batch are routed one at a time.
+ * <p>
+ * The lookups are made on daemon threads of the service's own pool, so the thread
+ * calling the service is free to hedge; the pool is shut down with the service (see
+ * {@link #destroy()}).  The counters of each provider are returned by {@link #toString()}.
+ */
+public class RoutingGeoLocationService implements BatchGeoLocationService, DisposableBean {
+
+	private static final long DEFAULT_LATENCY_MILLIS = 1000;
+	private static final long DEFAULT_HEDGE_DELAY_MILLIS = 1000;
+	private static final long MIN_HEDGE_DELAY_MILLIS = 10;
+	private static final long DEFAULT_COOLDOWN_MILLIS = 30000;
+	private static final int DEFAULT_EXPLORE_INTERVAL = 50;
+	// most addresses per batch when the batches are routed one address at a time
+	private static final int MAX_ROUTED_BATCH_SIZE = 1000;
+
+	// recent latencies kept for each provider, and how many are needed to go by them
+	private static final int LATENCY_WINDOW = 200;
+	private static final int MIN_SAMPLES = 20;
+	// weight of each lookup in a provider's error rate, and how much that rate counts
+	private static final double ERROR_RATE_WEIGHT = 0.1;
+	private static final double ERROR_PENALTY = 10;
+
+	private final List<Provider> providers = new ArrayList<Provider>();
+	// provider looking up the batches of addresses, or null if none can
+	private Provider batchProvider;
+	private final ExecutorService executor;
+
+	private long defaultLatencyMillis = DEFAULT_LATENCY_MILLIS;
+	private long defaultHedgeDelayMillis = DEFAULT_HEDGE_DELAY_MILLIS;
+	private long defaultCooldownMillis = DEFAULT_COOLDOWN_MILLIS;
+	private int exploreInterval = DEFAULT_EXPLORE_INTERVAL;
+
+	private final LongAdder lookupCount = new LongAdder();
+	private final LongAdder hedgeCount = new LongAdder();
+	private final LongAdder failoverCount = new LongAdder();
+
+	/**
+	 * @param services	services to route the lookups to by name (i.e. "google"),
+	 * 					in the order preferred while they have no stats yet.
+	 */
+	public RoutingGeoLocationService(Map<String, GeoLocationService> services) {
+		if (services.isEmpty()) {
+			throw new IllegalArgumentException("No geo location services to route lookups to");
+		}
+		for (Map.Entry<String, GeoLocationService> service: new LinkedHashMap<String, GeoLocationService>(services).entrySet()) {
+			Provider provider = new Provider(service.getKey(), service.getValue());
+			providers.add(provider);
+			if (batchProvider == null && provider.service instanceof BatchGeoLocationService) {
+				batchProvider = provider;
+			}
+		}
+		AtomicInteger threadCount = new AtomicInteger();
+		executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "geo-location-router-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@Override
+	public GeoLocation getGeoLocationForAddress(String address, String city, String stateCode, String zip)
+			throws IOException {
+
+		lookupCount.increment();
+		List<Provider> candidates = rank();
+		CompletionService<Attempt> completions = new ExecutorCompletionService<Attempt>(executor);
+		List<Future<Attempt>> futures = new ArrayList<Future<Attempt>>();
+		List<Attempt> running = new ArrayList<Attempt>();
+		IOException failure = null;
+		boolean hedged = false;
+		int next = 0;
+		try {
+			running.add(start(candidates.get(next++), completions, futures, address, city, stateCode, zip));
+			while (true) {
+				Future<Attempt> done;
+				if (!hedged && running.size() == 1 && next < candidates.size()) {
+					Attempt attempt = running.get(0);
+					long waitNanos = attempt.startNanos +
+							TimeUnit.MILLISECONDS.toNanos(hedgeDelayMillis(attempt.provider)) - System.nanoTime();
+					done = waitNanos > 0 ? completions.poll(waitNanos, TimeUnit.NANOSECONDS) : null;
+					if (done == null) {
+						hedged = true;
+						hedgeCount.increment();
+						attempt.provider.hedgeCount.increment();
+						running.add(start(candidates.get(next++), completions, futures, address, city, stateCode, zip));
+						continue;
+					}
+				} else {
+					done = completions.take();
+				}
+
+				Attempt attempt = result(done);
+				running.remove(attempt);
+				if (attempt.geoLocation != null) {
+					attempt.provider.answeredCount.increment();
+					// the providers still running took at least this long
+					for (Attempt slower: running) {
+						slower.provider.recordLatency(System.nanoTime() - slower.startNanos);
+					}
+					return attempt.geoLocation;
+				}
+
+				if (failure == null || !attempt.failOver) {
+					failure = attempt.failure;
+				}
+				if (attempt.failOver && running.isEmpty() && next < candidates.size()) {
+					failoverCount.increment();
+					running.add(start(candidates.get(next++), completions, futures, address, city, stateCode, zip));
+				} else if (running.isEmpty()) {
+					throw failure;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while looking up address: " + address);
+		} finally {
+			for (Future<Attempt> future: futures) {
+				future.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The batch is looked up by the provider that looks up batches.  If there is none, or
+	 * it throttled or failed the batch, each of its addresses is routed on its own, leaving
+	 * out those that fail.
+	 */
+	@Override
+	public Map<String, GeoLocation> getGeoLocationsForAddresses(List<Address> addresses) throws IOException {
+
+		if (batchProvider == null) {
+			return routeEach(addresses);
+		}
+
+		batchProvider.batchCount.increment();
+		try {
+			return ((BatchGeoLocationService)batchProvider.service).getGeoLocationsForAddresses(addresses);
+		} catch (GeoLocationThrottledException e) {
+			batchProvider.throttledCount.increment();
+			batchProvider.recordThrottled(e.getRetryAfterMillis());
+		} catch (InterruptedIOException e) {
+			throw e;
+		} catch (IOException | RuntimeException e) {
+			batchProvider.errorCount.increment();
+			batchProvider.recordError();
+		}
+		failoverCount.increment();
+		return routeEach(addresses);
+	}
+
+	/* Routes each of the passed in addresses on its own, leaving out those that fail */
+	private Map<String, GeoLocation> routeEach(List<Address> addresses) throws IOException {
+		Map<String, GeoLocation> geoLocations = new HashMap<String, GeoLocation>();
+		for (Address address: addresses) {
+			try {
+				geoLocations.put(address.getId(), getGeoLocationForAddress(address.getStreetAddress(),
+						address.getCity(), address.getStateCode(), address.getZip()));
+			} catch (InterruptedIOException e) {
+				throw e;
+			} catch (IOException e) {
+				// not found, or failed by every provider, left out of the results
+			}
+		}
+		return geoLocations;
+	}
+
+	@Override
+	public int getMaxBatchSize() {
+		return batchProvider == null ? MAX_ROUTED_BATCH_SIZE :
+				((BatchGeoLocationService)batchProvider.service).getMaxBatchSize();
+	}
+
+	/**
+	 * Stops the threads making the lookups, cancelling those still running.
+	 */
+	@Override
+	public void destroy() {
+		executor.shutdownNow();
+	}
+
+	/*
+	 * Returns the providers to try a lookup with, best first, leaving out those cooling
+	 * down unless all of them are
+	 */
+	private List<Provider> rank() {
+
+		long now = System.currentTimeMillis();
+		List<Provider> available = new ArrayList<Provider>();
+		for (Provider provider: providers) {
+			if (provider.cooldownUntil <= now) {
+				available.add(provider);
+			}
+		}
+		if (available.isEmpty()) {
+			available.addAll(providers);
+			available.sort(Comparator.comparingLong(provider -> provider.cooldownUntil));
+			return available;
+		}
+
+		// stable sort, so providers with no stats keep their order
+		double[] scores = new double[providers.size()];
+		for (Provider provider: available) {
+			scores[providers.indexOf(provider)] = provider.score();
+		}
+		available.sort(Comparator.comparingDouble(provider -> scores[providers.indexOf(provider)]));
+		if (exploreInterval > 0 && lookupCount.sum() % exploreInterval == 0) {
+			Provider leastRecent = available.stream()
+					.min(Comparator.comparingLong(provider -> provider.lastStartNanos)).get();
+			available.remove(leastRecent);
+			available.add(0, leastRecent);
+		}
+		return available;
+	}
+
+	/* Starts a lookup by the passed in provider */
+	private Attempt start(Provider provider, CompletionService<Attempt> completions,
+			List<Future<Attempt>> futures, String address, String city, String stateCode, String zip) {
+		Attempt attempt = new Attempt(provider);
+		provider.lookupCount.increment();
+		provider.lastStartNanos = attempt.startNanos;
+		futures.add(completions.submit(() -> attempt.lookUp(address, city, stateCode, zip)));
+		return attempt;
+	}
+
+	/* Returns the finished attempt of the passed in future */
+	private static Attempt result(Future<Attempt> future) throws IOException, InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			throw new IOException("Geo location lookup failed", e.getCause());
+		}
+	}
+
+	/* Returns how long a lookup by the passed in provider runs before it is hedged */
+	private long hedgeDelayMillis(Provider provider) {
+		long p95 = provider.latencyPercentileMillis(0.95);
+		return p95 < 0 ? defaultHedgeDelayMillis : Math.max(p95, MIN_HEDGE_DELAY_MILLIS);
+	}
+
+	/**
+	 * Returns the names of the providers the lookups are routed to.
+	 */
+	public List<String> getProviderNames() {
+		List<String> names = new ArrayList<String>();
+		for (Provider provider: providers) {
+			names.add(provider.name);
+		}
+		return names;
+	}
+
+	/**
+	 * Returns the number of lookups made by the named provider, including hedges and fail overs.
+	 */
+	public long getLookupCount(String name) {
+		return provider(name).lookupCount.sum();
+	}
+
+	/**
+	 * Returns the number of lookups answered by the named provider.
+	 */
+	public long getAnsweredCount(String name) {
+		return provider(name).answeredCount.sum();
+	}
+
+	/**
+	 * Returns the number of lookups the named provider was too slow to answer, which were hedged.
+	 */
+	public long getHedgeCount(String name) {
+		return provider(name).hedgeCount.sum();
+	}
+
+	/**
+	 * Returns the number of lookups the named provider throttled.
+	 */
+	public long getThrottledCount(String name) {
+		return provider(name).throttledCount.sum();
+	}
+
+	/**
+	 * Returns the number of lookups the named provider failed to make.
+	 */
+	public long getErrorCount(String name) {
+		return provider(name).errorCount.sum();
+	}
+
+	/**
+	 * Returns the number of batches of addresses looked up by the named provider.
+	 */
+	public long getBatchCount(String name) {
+		return provider(name).batchCount.sum();
+	}
+
+	/**
+	 * Returns the number of lookups routed by this service.
+	 */
+	public long getLookupCount() {
+		return lookupCount.sum();
+	}
+
+	/**
+	 * Returns the number of lookups that were sent to a second provider for being slow.
+	 */
+	public long getHedgeCount() {
+		return hedgeCount.sum();
+	}
+
+	/**
+	 * Returns the number of times a lookup, or a batch, failed over to another provider.
+	 */
+	public long getFailoverCount() {
+		return failoverCount.sum();
+	}
+
+	private Provider provider(String name) {
+		for (Provider provider: providers) {
+			if (provider.name.equals(name)) {
+				return provider;
+			}
+		}
+		throw new IllegalArgumentException("No geo location provider named: " + name);
+	}
+
+	public long getDefaultLatencyMillis() {
+		return defaultLatencyMillis;
+	}
+
+	/**
+	 * Sets the latency assumed of a provider with too few lookups to go by.
+	 */
+	public void setDefaultLatencyMillis(long defaultLatencyMillis) {
+		this.defaultLatencyMillis = defaultLatencyMillis;
+	}
+
+	public long getDefaultHedgeDelayMillis() {
+		return defaultHedgeDelayMillis;
+	}
+
+	/**
+	 * Sets how long a lookup runs before it is hedged, while its provider has too few
+	 * lookups to go by.
+	 */
+	public void setDefaultHedgeDelayMillis(long defaultHedgeDelayMillis) {
+		this.defaultHedgeDelayMillis = defaultHedgeDelayMillis;
+	}
+
+	public long getDefaultCooldownMillis() {
+		return defaultCooldownMillis;
+	}
+
+	/**
+	 * Sets how long a provider that throttled a lookup, without saying for how long, is
+	 * not asked again.
+	 */
+	public void setDefaultCooldownMillis(long defaultCooldownMillis) {
+		this.defaultCooldownMillis = defaultCooldownMillis;
+	}
+
+	public int getExploreInterval() {
+		return exploreInterval;
+	}
+
+	/**
+	 * Sets how many lookups apart the provider used least recently is tried first
+	 * (0 never).
+	 */
+	public void setExploreInterval(int exploreInterval) {
+		this.exploreInterval = exploreInterval;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder(String.format(
+				"Geo location router: %d lookups, %d hedged, %d failed over",
+				getLookupCount(), getHedgeCount(), getFailoverCount()));
+		for (Provider provider: providers) {
+			result.append(System.lineSeparator()).append("  ").append(provider);
+		}
+		return result.toString();
+	}
+
+	/* A provider the lookups are routed to, with the stats of its lookups */
+	private final class Provider {
+
+		final String name;
+		final GeoLocationService service;
+
+		final LongAdder lookupCount = new LongAdder();
+		final LongAdder answeredCount = new LongAdder();
+		final LongAdder notFoundCount = new LongAdder();
+		final LongAdder hedgeCount = new LongAdder();
+		final LongAdder throttledCount = new LongAdder();
+		final LongAdder errorCount = new LongAdder();
+		final LongAdder batchCount = new LongAdder();
+
+		// ring of the recent latencies in nanos, and the number recorded
+		private final long[] latencies = new long[LATENCY_WINDOW];
+		private long numLatencies;
+		private double errorRate;
+
+		volatile long cooldownUntil;
+		volatile long lastStartNanos;
+
+		Provider(String name, GeoLocationService service) {
+			this.name = name;
+			this.service = service;
+		}
+
+		/* Records the latency of a lookup the provider made */
+		synchronized void recordLatency(long nanos) {
+			latencies[(int)(numLatencies++ % LATENCY_WINDOW)] = nanos;
+			errorRate *= 1 - ERROR_RATE_WEIGHT;
+		}
+
+		/* Records a lookup the provider failed to make */
+		synchronized void recordError() {
+			errorRate = errorRate * (1 - ERROR_RATE_WEIGHT) + ERROR_RATE_WEIGHT;
+		}
+
+		/* Records a lookup the provider throttled, which it is not asked again for a while */
+		void recordThrottled(long retryAfterMillis) {
+			recordError();
+			cooldownUntil = System.currentTimeMillis() +
+					(retryAfterMillis > 0 ? retryAfterMillis : defaultCooldownMillis);
+		}
+
+		/* Returns the percentile of the recent latencies, or -1 if there are too few */
+		synchronized long latencyPercentileMillis(double percentile) {
+			int size = (int)Math.min(numLatencies, LATENCY_WINDOW);
+			if (size < MIN_SAMPLES) {
+				return -1;
+			}
+			long[] sorted = Arrays.copyOf(latencies, size);
+			Arrays.sort(sorted);
+			return TimeUnit.NANOSECONDS.toMillis(sorted[(int)Math.ceil(percentile * size) - 1]);
+		}
+
+		/* Returns the expected latency, raised by the error rate (lower is better) */
+		synchronized double score() {
+			long median = latencyPercentileMillis(0.5);
+			return (median < 0 ? defaultLatencyMillis : median) * (1 + ERROR_PENALTY * errorRate);
+		}
+
+		@Override
+		public synchronized String toString() {
+			return String.format("%s: %d lookups, %d answered, %d not found, %d hedged, %d throttled, " +
+					"%d errors, %d batches, p50 %d ms, p95 %d ms (%s)", name, lookupCount.sum(),
+					answeredCount.sum(), notFoundCount.sum(), hedgeCount.sum(), throttledCount.sum(),
+					errorCount.sum(), batchCount.sum(), latencyPercentileMillis(0.5),
+					latencyPercentileMillis(0.95), service);
+		}
+	}
+
+	/* A lookup by one provider, and its outcome */
+	private static final class Attempt {
+
+		final Provider provider;
+		final long startNanos = System.nanoTime();
+		GeoLocation geoLocation;
+		IOException failure;
+		// whether the lookup should be made by another provider
+		boolean failOver;
+
+		Attempt(Provider provider) {
+			this.provider = provider;
+		}
+
+		Attempt lookUp(String address, String city, String stateCode, String zip) {
+			try {
+				geoLocation = provider.service.getGeoLocationForAddress(address, city, stateCode, zip);
+				provider.recordLatency(System.nanoTime() - startNanos);
+			} catch (GeoLocationThrottledException e) {
+				provider.throttledCount.increment();
+				provider.recordThrottled(e.getRetryAfterMillis());
+				failure = e;
+				failOver = true;
+			} catch (InterruptedIOException e) {
+				// cancelled, or timed out
+				failure = e;
+				failOver = true;
+			} catch (GeoLocationNotFoundException e) {
+				provider.notFoundCount.increment();
+				provider.recordLatency(System.nanoTime() - startNanos);
+				failure = e;
+			} catch (IOException e) {
+				provider.errorCount.increment();
+				provider.recordError();
+				failure = e;
+				failOver = true;
+			} catch (RuntimeException e) {
+				provider.errorCount.increment();
+				provider.recordError();
+				failure = new IOException("Unable to get GeoLocation for address: " + address + "," +
+						city + "," + stateCode + ".  Lookup by " + provider.name + " failed: " + e, e);
+				failOver = true;
+			}
+			return this;
+		}
+	}
+}
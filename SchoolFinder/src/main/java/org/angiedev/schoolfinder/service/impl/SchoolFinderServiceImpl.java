@@ -1,69 +1,175 @@
 package org.angiedev.schoolfinder.service.impl;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+import javax.annotation.PostConstruct;
+
+import org.angiedev.schoolfinder.dao.SchoolChangedEvent;
 import org.angiedev.schoolfinder.dao.SchoolDAO;
+import org.angiedev.schoolfinder.model.NameMatchMode;
 import org.angiedev.schoolfinder.model.School;
+import org.angiedev.schoolfinder.model.SchoolSearchResult;
 import org.angiedev.schoolfinder.service.SchoolFinderService;
-import org.apache.commons.lang3.text.WordUtils;
+import org.angiedev.schoolfinder.util.CacheStats;
+import org.angiedev.schoolfinder.util.SegmentedLruCache;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationListener;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 /**
  * SchoolFinderServiceImpl is a service which enables a user to search 
  * through the SchoolFinder database for a particular set of schools.
+ * <p>
+ * The school data is stored in its display form (see 
+ * {@link org.angiedev.schoolfinder.util.DisplayCase}), so the schools are returned
+ * as read without being modified.
+ * <p>
+ * Schools looked up by NCES id are kept in a bounded cache (see {@link SegmentedLruCache})
+ * holding detached copies, so the popular schools are served without a database query.
+ * Each caller gets its own copy of the cached school.  A school is dropped from the cache
+ * when the SchoolDAO reports it changed (see {@link SchoolChangedEvent}), and in any case
+ * after the cache's time to live, which bounds how long changes made by another process,
+ * such as the loaders, take to show up.
+ * <p>
+ * The results of geo location searches are cached by search area (see 
+ * {@link SchoolSearchCache}), so searches from nearly the same location share the 
+ * schools found.  Fuzzy searches, whose ranking depends on the exact search location, and
+ * searches for the nearest schools without a search radius are not cached.
  *
  * @author Angela Gordon
  */
 @Service
 @Transactional(readOnly = true)
-public class SchoolFinderServiceImpl implements SchoolFinderService {
+public class SchoolFinderServiceImpl implements SchoolFinderService, ApplicationListener<SchoolChangedEvent> {
 
 	@Autowired 
+	@Qualifier("spatialIndexSchoolDAO")
 	SchoolDAO schoolDAO;
 	
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+	
+	@Value("${schoolCache.maxSize:10000}")
+	private int schoolCacheMaxSize;
+	
+	@Value("${schoolCache.timeToLiveSeconds:600}")
+	private long schoolCacheTimeToLive;
+	
+	@Value("${searchCache.cellSizeDegrees:0.01}")
+	private double searchCacheCellSize;
+	
+	@Value("${searchCache.maxCandidates:200000}")
+	private long searchCacheMaxCandidates;
+	
+	@Value("${searchCache.maxCandidatesPerSearch:1000}")
+	private int searchCacheMaxCandidatesPerSearch;
+	
+	@Value("${searchCache.timeToLiveSeconds:300}")
+	private long searchCacheTimeToLive;
+	
+	private SegmentedLruCache<String, School> schoolCache;
+	private SchoolSearchCache searchCache;
+	private TransactionTemplate readOnlyTransaction;
+	
+	@PostConstruct
+	void initCaches() {
+		schoolCache = new SegmentedLruCache<String, School>(schoolCacheMaxSize, schoolCacheTimeToLive,
+				TimeUnit.SECONDS);
+		searchCache = new SchoolSearchCache(searchCacheCellSize, searchCacheMaxCandidates,
+				searchCacheMaxCandidatesPerSearch, searchCacheTimeToLive);
+		readOnlyTransaction = new TransactionTemplate(transactionManager);
+		readOnlyTransaction.setReadOnly(true);
+	}
+	
 	@Override
-	public List<School> getSchools(double latitude, double longitude, int searchRadius, int maxNumResults) {
-		List<School> schools = schoolDAO.getSchoolsNearGeoLocation(latitude, longitude, searchRadius, maxNumResults);
-		fixCapitalization(schools);
-		return schools;
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public List<SchoolSearchResult> getSchools(double latitude, double longitude, int searchRadius, int maxNumResults) {
+		return getSchools(latitude, longitude, searchRadius, null, NameMatchMode.PREFIX, maxNumResults);
 	}
 
 	@Override
-	public List<School> getSchools(double latitude, double longitude, int searchRadius, String searchString,
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public List<SchoolSearchResult> getSchools(double latitude, double longitude, int searchRadius, String searchString,
 			int maxNumResults) {
-		List <School> schools = schoolDAO.getSchoolsNearGeoLocation(latitude, longitude, 
-			searchRadius, searchString, maxNumResults);
-		fixCapitalization(schools);
-		return schools;
+		return getSchools(latitude, longitude, searchRadius, searchString, NameMatchMode.PREFIX, maxNumResults);
 	}
 	
 	@Override
-	public School getSchoolByNcesId(String ncesId) {
-		School school = schoolDAO.getSchoolByNcesId(ncesId);
-		fixCapitalization(school);
-		return school;
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public List<SchoolSearchResult> getSchools(double latitude, double longitude, int searchRadius, 
+			String searchString, NameMatchMode matchMode, int maxNumResults) {
+		if (searchString != null && matchMode == NameMatchMode.FUZZY) {
+			return schoolDAO.getSchoolsNearGeoLocation(latitude, longitude, 
+				searchRadius, searchString, matchMode, maxNumResults);
+		}
+		return searchCache.find(latitude, longitude, searchRadius, searchString, matchMode, false, maxNumResults,
+			(lat, lon, radius, max) -> schoolDAO.getSchoolsNearGeoLocation(lat, lon, radius, searchString, 
+				matchMode, max));
 	}
-	
-	/* Modifies the words in each school name, street address and city to begin 
-	 * with a capitalized letter followed by lower case instead of being in all caps
-	 */
-	private void fixCapitalization(List<School> schools ) {
-		for (School s: schools) {
-			fixCapitalization(s);
+
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public List<SchoolSearchResult> getNearestSchools(double latitude, double longitude, Integer searchRadius,
+			String searchString, NameMatchMode matchMode, int maxNumResults) {
+		if (searchRadius == null || (searchString != null && matchMode == NameMatchMode.FUZZY)) {
+			return schoolDAO.getSchoolsNearestGeoLocation(latitude, longitude,
+				searchRadius, searchString, matchMode, maxNumResults);
 		}
+		return searchCache.find(latitude, longitude, searchRadius, searchString, matchMode, true, maxNumResults,
+			(lat, lon, radius, max) -> schoolDAO.getSchoolsNearestGeoLocation(lat, lon, radius, searchString, 
+				matchMode, max));
 	}
 	
-	/* Modifies the words in the school's name, street address, city to begin 
-	 * with a capitalized letter followed by lower case instead of being in all caps
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Runs without a transaction, only starting one to load a school missing from the cache.
 	 */
-	private void fixCapitalization(School s) {
-		char [] delims = {'(', ' '};
-		s.setName(WordUtils.capitalizeFully(s.getName(), delims));
-		s.setCity(WordUtils.capitalizeFully(s.getCity(), delims));
-		s.setStreetAddress(WordUtils.capitalizeFully(s.getStreetAddress(), delims));
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public School getSchoolByNcesId(String ncesId) {
+		School school = schoolCache.get(ncesId, this::loadSchool);
+		return (school == null) ? null : new School(school);
 	}
 	
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public CacheStats getSchoolCacheStats() {
+		return schoolCache.getStats();
+	}
 	
-}
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public CacheStats getSearchCacheStats() {
+		return searchCache.getStats();
+	}
+	
+	/**
+	 * Drops the changed school from the school cache, and all of the cached search results
+	 * as any of them may include it.
+	 * @param event		event identifying the changed school.
+	 */
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public void onApplicationEvent(SchoolChangedEvent event) {
+		if (event.getNcesId() != null) {
+			schoolCache.invalidate(event.getNcesId());
+		}
+		searchCache.invalidateAll();
+	}
+	
+	/* Reads the school from the database, returning a detached copy to cache */
+	private School loadSchool(String ncesId) {
+		return readOnlyTransaction.execute(status -> {
+			School school = schoolDAO.getSchoolByNcesId(ncesId);
+			return (school == null) ? null : new School(school);
+		});
+	}
+}
\ No newline at end of file
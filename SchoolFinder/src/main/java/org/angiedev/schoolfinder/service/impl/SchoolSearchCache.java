@@ -0,0 +1,223 @@
+package org.angiedev.schoolfinder.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.angiedev.schoolfinder.model.NameMatchMode;
+import org.angiedev.schoolfinder.model.School;
+import org.angiedev.schoolfinder.model.SchoolSearchResult;
+import org.angiedev.schoolfinder.util.CacheStats;
+import org.angiedev.schoolfinder.util.GeoDistance;
+import org.angiedev.schoolfinder.util.SegmentedLruCache;
+
+/**
+ * SchoolSearchCache caches the schools found by geo location searches so that searches
+ * from nearly the same location share their results.
+ * <p>
+ * The search location is snapped to a grid cell (cellSize degrees on a side) and the
+ * cache holds, for each cell, search radius and name search, the candidate schools
+ * within the search radius of any location in the cell: the schools within the search
+ * radius plus half the cell's diagonal of the cell's center.  Each search then calculates
+ * the exact distance from its own location to the candidates, drops the ones outside its
+ * search radius and returns the first maxNumResults of the rest, so the results are the
+ * same as those of an uncached search.
+ * <p>
+ * As the candidates are complete they serve any maxNumResults.  When a cell has more than
+ * maxCandidatesPerSearch candidates nothing is cached for it, but the search radius is 
+ * remembered as too large for the cell and name search, and the cell's searches with that
+ * radius or a larger one are passed straight on without looking for candidates again.
+ * Names are matched ignoring case, so searches whose search strings only differ in case
+ * share their candidates.  The cache is bounded by the total number of candidates it holds.  The cached schools are never handed out: each search returns copies of
+ * them, so callers may modify the schools they are returned.
+ */
+class SchoolSearchCache {
+
+	/**
+	 * CandidateSearch runs an uncached search.
+	 */
+	interface CandidateSearch {
+
+		/**
+		 * Returns the schools within the search radius of the passed in location.
+		 * @param latitude		latitude of location to search from.
+		 * @param longitude		longitude of location to search from.
+		 * @param searchRadius	search radius in miles to search within.
+		 * @param maxNumResults	maximum number of schools to return.
+		 * @return				schools found, ordered as the search orders them.
+		 */
+		List<SchoolSearchResult> find(double latitude, double longitude, int searchRadius, int maxNumResults);
+	}
+
+	// most cells and name searches whose too large search radius is remembered
+	private static final int MAX_OVERSIZED_CELLS = 10000;
+
+	private final double cellSize;
+	private final int maxCandidatesPerSearch;
+	private final SegmentedLruCache<SearchKey, List<School>> cache;
+	// smallest search radius found to have too many candidates, by cell and name search
+	private final SegmentedLruCache<SearchKey, Integer> oversizedRadii;
+
+	/**
+	 * Creates an empty search cache.
+	 * @param cellSize					size in degrees of the cells search locations are
+	 * 									snapped to.
+	 * @param maxCandidates				maximum total number of candidate schools held.
+	 * @param maxCandidatesPerSearch	maximum number of candidate schools of a cell.
+	 * @param timeToLive				time in seconds after which cached candidates expire.
+	 */
+	SchoolSearchCache(double cellSize, long maxCandidates, int maxCandidatesPerSearch, long timeToLive) {
+		this.cellSize = cellSize;
+		this.maxCandidatesPerSearch = maxCandidatesPerSearch;
+		this.cache = new SegmentedLruCache<SearchKey, List<School>>(maxCandidates,
+				candidates -> Math.max(1, candidates.size()), timeToLive, TimeUnit.SECONDS);
+		this.oversizedRadii = new SegmentedLruCache<SearchKey, Integer>(MAX_OVERSIZED_CELLS, timeToLive,
+				TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Returns the schools within the search radius of the passed in location, from the
+	 * cached candidates of its cell if possible.
+	 * @param latitude		latitude of location to search from.
+	 * @param longitude		longitude of location to search from.
+	 * @param searchRadius	search radius in miles to search within.
+	 * @param searchString	search string matched against the school's name, or null.
+	 * @param matchMode		how the search string is matched against the school's name
+	 * 						(not FUZZY, whose ranking depends on the search location).
+	 * @param byDistance	true if the schools are ordered by distance, false if they are
+	 * 						ordered by name.
+	 * @param maxNumResults	maximum number of schools to return.
+	 * @param search		uncached search, passed the location, radius and maximum
+	 * 						number of schools to find.
+	 * @return				schools found along with their distance from the search location,
+	 * 						or an empty list if the search radius or maxNumResults is not
+	 * 						positive.
+	 */
+	List<SchoolSearchResult> find(double latitude, double longitude, int searchRadius, String searchString,
+			NameMatchMode matchMode, boolean byDistance, int maxNumResults, CandidateSearch search) {
+		if (searchRadius <= 0 || maxNumResults <= 0) {
+			return new ArrayList<SchoolSearchResult>();
+		}
+		long row = (long)Math.floor(latitude / cellSize), column = (long)Math.floor(longitude / cellSize);
+		String foldedString = (searchString == null) ? null : searchString.toLowerCase(Locale.ROOT);
+		// the candidates don't depend on the order of the schools
+		SearchKey cellKey = new SearchKey(row, column, 0, foldedString, matchMode, false);
+		Integer oversizedRadius = oversizedRadii.get(cellKey);
+		if (oversizedRadius != null && searchRadius >= oversizedRadius) {
+			return search.find(latitude, longitude, searchRadius, maxNumResults);
+		}
+		SearchKey key = new SearchKey(row, column, searchRadius, foldedString, matchMode, byDistance);
+		List<School> candidates = cache.get(key, k -> findCandidates(k, search));
+		if (candidates == null) {
+			oversizedRadii.put(cellKey, searchRadius);
+			return search.find(latitude, longitude, searchRadius, maxNumResults);
+		}
+
+		List<SchoolSearchResult> results = new ArrayList<SchoolSearchResult>();
+		for (School school: candidates) {
+			double distance = GeoDistance.distanceInMiles(latitude, longitude, school.getLatitude(),
+					school.getLongitude());
+			if (distance < searchRadius) {
+				results.add(new SchoolSearchResult(new School(school), distance, GeoDistance.bearing(latitude, longitude,
+						school.getLatitude(), school.getLongitude())));
+				if (!byDistance && results.size() == maxNumResults) {
+					break;
+				}
+			}
+		}
+		if (byDistance) {
+			Collections.sort(results, Comparator.comparingDouble(SchoolSearchResult::getDistance));
+		}
+		return (results.size() > maxNumResults) ? results.subList(0, maxNumResults) : results;
+	}
+
+	/**
+	 * Drops all of the cached candidates.
+	 */
+	void invalidateAll() {
+		cache.invalidateAll();
+		oversizedRadii.invalidateAll();
+	}
+
+	/**
+	 * Returns a snapshot of the cache's hit, miss and eviction counts.
+	 */
+	CacheStats getStats() {
+		return cache.getStats();
+	}
+
+	/* 
+	 * Finds the candidate schools of all of the searches from the key's cell, in search order,
+	 * or returns null if there are too many
+	 */
+	private List<School> findCandidates(SearchKey key, CandidateSearch search) {
+		double south = key.row * cellSize, west = key.column * cellSize;
+		double centerLatitude = south + cellSize / 2, centerLongitude = west + cellSize / 2;
+		double halfDiagonal = 0;
+		for (double cornerLatitude: new double[] { Math.max(-90, south), Math.min(90, south + cellSize) }) {
+			for (double cornerLongitude: new double[] { west, west + cellSize }) {
+				halfDiagonal = Math.max(halfDiagonal, GeoDistance.distanceInMiles(centerLatitude,
+						centerLongitude, cornerLatitude, cornerLongitude));
+			}
+		}
+
+		List<SchoolSearchResult> found = search.find(centerLatitude, centerLongitude,
+				(int)Math.ceil(key.searchRadius + halfDiagonal), maxCandidatesPerSearch + 1);
+		if (found.size() > maxCandidatesPerSearch) {
+			return null;
+		}
+		List<School> schools = new ArrayList<School>(found.size());
+		for (SchoolSearchResult result: found) {
+			schools.add(new School(result.getSchool()));
+		}
+		return schools;
+	}
+
+	/* Cell and search parameters shared by the searches whose candidates are cached together */
+	private static final class SearchKey {
+		final long row;
+		final long column;
+		final int searchRadius;
+		final String searchString;
+		final NameMatchMode matchMode;
+		final boolean byDistance;
+
+		SearchKey(long row, long column, int searchRadius, String searchString, NameMatchMode matchMode,
+				boolean byDistance) {
+			this.row = row;
+			this.column = column;
+			this.searchRadius = searchRadius;
+			this.searchString = searchString;
+			this.matchMode = matchMode;
+			this.byDistance = byDistance;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + (byDistance ? 1231 : 1237);
+			result = prime * result + (int) (column ^ (column >>> 32));
+			result = prime * result + ((matchMode == null) ? 0 : matchMode.hashCode());
+			result = prime * result + (int) (row ^ (row >>> 32));
+			result = prime * result + searchRadius;
+			result = prime * result + ((searchString == null) ? 0 : searchString.hashCode());
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null || getClass() != obj.getClass())
+				return false;
+			SearchKey other = (SearchKey) obj;
+			return row == other.row && column == other.column && searchRadius == other.searchRadius &&
+					byDistance == other.byDistance && matchMode == other.matchMode &&
+					(searchString == null ? other.searchString == null : searchString.equals(other.searchString));
+		}
+	}
+}
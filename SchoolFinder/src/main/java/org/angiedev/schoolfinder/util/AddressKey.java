@@ -0,0 +1,72 @@
+package org.angiedev.schoolfinder.util;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * AddressKey is a utility class used to turn an address into a key that is the same for
+ * the different ways of writing that address, so the result of looking it up can be found
+ * again (see {@link org.angiedev.schoolfinder.service.impl.CachingGeoLocationService}).
+ * <p>
+ * The street address and city are split into case folded tokens (see {@link NameTokens}),
+ * dropping punctuation and extra spaces, and the usual street suffixes and directions are
+ * replaced by their postal abbreviations ("North Main Street" and "N. Main St" both become
+ * "n main st").  The zip code is cut to its first 5 digits.
+ */
+public final class AddressKey {
+
+	private static final char SEPARATOR = '|';
+	private static final int ZIP_LENGTH = 5;
+
+	// postal abbreviations of the words commonly written in full
+	private static final Map<String, String> ABBREVIATIONS = new HashMap<String, String>();
+	static {
+		String[][] abbreviations = {
+			{ "street", "st" }, { "avenue", "ave" }, { "road", "rd" }, { "boulevard", "blvd" },
+			{ "drive", "dr" }, { "lane", "ln" }, { "court", "ct" }, { "place", "pl" },
+			{ "circle", "cir" }, { "highway", "hwy" }, { "parkway", "pkwy" }, { "terrace", "ter" },
+			{ "square", "sq" }, { "trail", "trl" }, { "suite", "ste" }, { "saint", "st" },
+			{ "north", "n" }, { "south", "s" }, { "east", "e" }, { "west", "w" },
+			{ "northeast", "ne" }, { "northwest", "nw" }, { "southeast", "se" }, { "southwest", "sw" }
+		};
+		for (String[] abbreviation: abbreviations) {
+			ABBREVIATIONS.put(abbreviation[0], abbreviation[1]);
+		}
+	}
+
+	private AddressKey() {
+	}
+
+	/**
+	 * Returns the normalized form of the passed in address.
+	 * @param streetAddress		street address
+	 * @param city				city
+	 * @param stateCode			two letter state code
+	 * @param zip				zip code
+	 * @return					key of the address.
+	 */
+	public static String normalize(String streetAddress, String city, String stateCode, String zip) {
+		StringBuilder key = new StringBuilder();
+		appendTokens(key, streetAddress);
+		key.append(SEPARATOR);
+		appendTokens(key, city);
+		key.append(SEPARATOR);
+		appendTokens(key, stateCode);
+		key.append(SEPARATOR);
+		if (zip != null) {
+			String trimmed = zip.trim();
+			key.append(trimmed.length() > ZIP_LENGTH ? trimmed.substring(0, ZIP_LENGTH) : trimmed);
+		}
+		return key.toString();
+	}
+
+	/* Appends the abbreviated tokens of the passed in text, separated by spaces */
+	private static void appendTokens(StringBuilder key, String text) {
+		List<String> tokens = NameTokens.tokenize(text);
+		for (int i = 0; i < tokens.size(); i++) {
+			String abbreviation = ABBREVIATIONS.get(tokens.get(i));
+			key.append(i == 0 ? "" : " ").append(abbreviation != null ? abbreviation : tokens.get(i));
+		}
+	}
+}
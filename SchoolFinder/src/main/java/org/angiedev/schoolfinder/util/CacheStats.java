@@ -0,0 +1,57 @@
+package org.angiedev.schoolfinder.util;
+
+/**
+ * CacheStats is a snapshot of the counters of a cache, taken at one point in time.
+ */
+public final class CacheStats {
+
+	private final long hitCount;
+	private final long missCount;
+	private final long evictionCount;
+	private final long size;
+
+	/**
+	 * Creates a snapshot of cache counters.
+	 * @param hitCount		number of lookups that found a value in the cache.
+	 * @param missCount		number of lookups that did not find a value in the cache.
+	 * @param evictionCount	number of values dropped to stay within the cache's size limit.
+	 * @param size			number of values in the cache.
+	 */
+	public CacheStats(long hitCount, long missCount, long evictionCount, long size) {
+		this.hitCount = hitCount;
+		this.missCount = missCount;
+		this.evictionCount = evictionCount;
+		this.size = size;
+	}
+
+	public long getHitCount() {
+		return hitCount;
+	}
+
+	public long getMissCount() {
+		return missCount;
+	}
+
+	public long getEvictionCount() {
+		return evictionCount;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the fraction of lookups that found a value in the cache, or 0 if there
+	 * were no lookups.
+	 */
+	public double getHitRate() {
+		long lookups = hitCount + missCount;
+		return (lookups == 0) ? 0 : (double)hitCount / lookups;
+	}
+
+	@Override
+	public String toString() {
+		return "CacheStats [hits=" + hitCount + ", misses=" + missCount + ", evictions=" +
+				evictionCount + ", size=" + size + ", hitRate=" + String.format("%.3f", getHitRate()) + "]";
+	}
+}
@@ -0,0 +1,113 @@
+package org.angiedev.schoolfinder.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+/**
+ * ConnectionPoolMetrics collects the metrics of a HikariCP connection pool: the number of
+ * active, idle and total connections and of threads waiting for one, read from the pool,
+ * and the time threads waited to get a connection, recorded by the pool as connections
+ * are handed out.
+ * <p>
+ * It is set as the pool's metrics tracker factory and is then read by whoever wants to
+ * report on the pool.  The connection counts are refreshed by the pool at most once a
+ * second.
+ */
+public class ConnectionPoolMetrics implements MetricsTrackerFactory {
+
+	private volatile PoolStats poolStats;
+	private final LongAdder acquiredCount = new LongAdder();
+	private final LongAdder totalWaitNanos = new LongAdder();
+	private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+	private final LongAdder timeoutCount = new LongAdder();
+
+	@Override
+	public IMetricsTracker create(String poolName, PoolStats poolStats) {
+		this.poolStats = poolStats;
+		return new IMetricsTracker() {
+			@Override
+			public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+				acquiredCount.increment();
+				totalWaitNanos.add(elapsedAcquiredNanos);
+				maxWaitNanos.accumulate(elapsedAcquiredNanos);
+			}
+
+			@Override
+			public void recordConnectionTimeout() {
+				timeoutCount.increment();
+			}
+		};
+	}
+
+	/**
+	 * Returns the number of connections in use, or 0 if the pool has not started.
+	 */
+	public int getActiveConnections() {
+		return (poolStats == null) ? 0 : poolStats.getActiveConnections();
+	}
+
+	/**
+	 * Returns the number of open connections not in use, or 0 if the pool has not started.
+	 */
+	public int getIdleConnections() {
+		return (poolStats == null) ? 0 : poolStats.getIdleConnections();
+	}
+
+	/**
+	 * Returns the number of open connections, or 0 if the pool has not started.
+	 */
+	public int getTotalConnections() {
+		return (poolStats == null) ? 0 : poolStats.getTotalConnections();
+	}
+
+	/**
+	 * Returns the number of threads waiting for a connection, or 0 if the pool has not started.
+	 */
+	public int getPendingThreads() {
+		return (poolStats == null) ? 0 : poolStats.getPendingThreads();
+	}
+
+	/**
+	 * Returns the number of connections handed out by the pool.
+	 */
+	public long getAcquiredCount() {
+		return acquiredCount.sum();
+	}
+
+	/**
+	 * Returns the number of requests for a connection that timed out.
+	 */
+	public long getTimeoutCount() {
+		return timeoutCount.sum();
+	}
+
+	/**
+	 * Returns the average time in milliseconds threads waited to get a connection, or 0 if
+	 * no connections have been handed out.
+	 */
+	public double getAverageWaitMillis() {
+		long acquired = acquiredCount.sum();
+		return (acquired == 0) ? 0 : (double)totalWaitNanos.sum() / acquired / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	/**
+	 * Returns the longest time in milliseconds a thread waited to get a connection.
+	 */
+	public double getMaxWaitMillis() {
+		return (double)maxWaitNanos.get() / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	@Override
+	public String toString() {
+		return "ConnectionPoolMetrics [active=" + getActiveConnections() + ", idle=" + getIdleConnections() +
+				", total=" + getTotalConnections() + ", pending=" + getPendingThreads() + ", acquired=" +
+				getAcquiredCount() + ", timeouts=" + getTimeoutCount() + ", avgWaitMillis=" +
+				String.format("%.3f", getAverageWaitMillis()) + ", maxWaitMillis=" +
+				String.format("%.3f", getMaxWaitMillis()) + "]";
+	}
+}
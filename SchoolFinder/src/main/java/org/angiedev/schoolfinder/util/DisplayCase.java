@@ -0,0 +1,52 @@
+package org.angiedev.schoolfinder.util;
+
+import org.angiedev.schoolfinder.model.School;
+import org.apache.commons.lang3.text.WordUtils;
+
+/**
+ * DisplayCase is a utility class used to convert the all caps school data provided by 
+ * the NCES into the form displayed to users, where each word begins with a capitalized 
+ * letter followed by lower case letters.
+ * <p>
+ * The conversion is done once when the school data is loaded, so the school data is 
+ * stored and read in its display form.
+ */
+public final class DisplayCase {
+
+	private static final char[] DELIMITERS = {'(', ' '};
+
+	private DisplayCase() {
+	}
+
+	/**
+	 * Returns the display form of the passed in text.
+	 * @param text	text to convert, may be null.
+	 * @return		text with each word capitalized, or null if the text is null.
+	 */
+	public static String capitalize(String text) {
+		return WordUtils.capitalizeFully(text, DELIMITERS);
+	}
+
+	/**
+	 * Converts the school's name, street address and city into their display form.
+	 * @param school	school to convert.
+	 * @return			true if any of the fields were changed.
+	 */
+	public static boolean capitalize(School school) {
+		String name = capitalize(school.getName());
+		String streetAddress = capitalize(school.getStreetAddress());
+		String city = capitalize(school.getCity());
+		boolean changed = !equals(name, school.getName()) ||
+				!equals(streetAddress, school.getStreetAddress()) || !equals(city, school.getCity());
+		if (changed) {
+			school.setName(name);
+			school.setStreetAddress(streetAddress);
+			school.setCity(city);
+		}
+		return changed;
+	}
+
+	private static boolean equals(String s1, String s2) {
+		return (s1 == null) ? s2 == null : s1.equals(s2);
+	}
+}
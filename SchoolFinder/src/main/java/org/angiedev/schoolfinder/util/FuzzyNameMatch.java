@@ -0,0 +1,127 @@
+package org.angiedev.schoolfinder.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * FuzzyNameMatch is a utility class used by the typo tolerant (fuzzy) school name search.
+ * Each token of the search string matches a word of the school's name when it is within
+ * a small number of edits (insertions, deletions or substitutions) of the start of the
+ * word, so both misspelled and partly typed words are found.
+ * <p>
+ * The number of edits allowed grows with the length of the search token, so short
+ * tokens, where a single edit changes most of the token, must match exactly.
+ */
+public final class FuzzyNameMatch {
+
+	/** Maximum number of edits allowed for a single search token */
+	public static final int MAX_EDITS = 2;
+
+	private FuzzyNameMatch() {
+	}
+
+	/**
+	 * Returns the maximum number of edits allowed for a search token.
+	 * @param tokenLength	length of the search token.
+	 * @return				maximum number of edits allowed.
+	 */
+	public static int maxEdits(int tokenLength) {
+		if (tokenLength <= 2) {
+			return 0;
+		} else if (tokenLength <= 5) {
+			return 1;
+		}
+		return MAX_EDITS;
+	}
+
+	/**
+	 * Splits a search token into one more piece than the number of edits it allows.  Each
+	 * edit changes at most one piece, so a word matching the token contains at least one 
+	 * of the pieces unchanged, which lets a database narrow down the names to match.
+	 * @param token		case folded search token.
+	 * @return			pieces of the token, in order.
+	 */
+	public static List<String> tokenPieces(String token) {
+		int numPieces = maxEdits(token.length()) + 1;
+		List<String> pieces = new ArrayList<String>(numPieces);
+		for (int i = 0; i < numPieces; i++) {
+			pieces.add(token.substring(i * token.length() / numPieces, (i + 1) * token.length() / numPieces));
+		}
+		return pieces;
+	}
+
+	/**
+	 * Returns the minimum number of edits needed to turn the search token into the start
+	 * (any prefix) of a word.
+	 * @param token		case folded search token.
+	 * @param word		case folded word.
+	 * @param maxEdits	maximum number of edits of interest.
+	 * @return			number of edits, or maxEdits + 1 if more than maxEdits are needed.
+	 */
+	public static int prefixEditDistance(String token, String word, int maxEdits) {
+		int m = token.length();
+		int n = Math.min(word.length(), m + maxEdits);
+		if (word.length() < m - maxEdits) {
+			return maxEdits + 1;
+		}
+		// column j holds the edits between each prefix of the token and word[0..j)
+		int[] column = new int[m + 1];
+		for (int i = 0; i <= m; i++) {
+			column[i] = i;
+		}
+		int best = column[m];
+		for (int j = 1; j <= n; j++) {
+			int diagonal = column[0];
+			column[0] = j;
+			int min = column[0];
+			for (int i = 1; i <= m; i++) {
+				int above = column[i];
+				int cost = (token.charAt(i - 1) == word.charAt(j - 1)) ? 0 : 1;
+				column[i] = Math.min(Math.min(column[i - 1], above) + 1, diagonal + cost);
+				diagonal = above;
+				min = Math.min(min, column[i]);
+			}
+			best = Math.min(best, column[m]);
+			if (min > maxEdits) {
+				break;
+			}
+		}
+		return Math.min(best, maxEdits + 1);
+	}
+
+	/**
+	 * Returns the number of edits needed to match all of the search tokens with words of a
+	 * name, adding up the best match of each token.
+	 * @param tokens		case folded search tokens.
+	 * @param nameTokens	case folded words of the name.
+	 * @return				total number of edits, or -1 if a token doesn't match any word.
+	 */
+	public static int nameEdits(List<String> tokens, List<String> nameTokens) {
+		int total = 0;
+		for (String token: tokens) {
+			int maxEdits = maxEdits(token.length());
+			int best = maxEdits + 1;
+			for (String word: nameTokens) {
+				best = Math.min(best, prefixEditDistance(token, word, maxEdits));
+			}
+			if (best > maxEdits) {
+				return -1;
+			}
+			total += best;
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the rank score of a fuzzy match, blending the number of edits with the
+	 * distance of the school.  Lower scores are better matches.  A school at the edge of
+	 * the search radius scores the same as one more edit.
+	 * @param edits			number of edits needed to match the school's name.
+	 * @param distance		distance in miles to the school.
+	 * @param searchRadius	search radius in miles.
+	 * @return				score of the match.
+	 */
+	public static double score(int edits, double distance, double searchRadius) {
+		return edits + distance / searchRadius;
+	}
+}
@@ -0,0 +1,88 @@
+package org.angiedev.schoolfinder.util;
+
+/**
+ * GeoDistance is a utility class used to calculate distances between two
+ * geo locations (latitude and longitude).
+ * <p>
+ * Distances are calculated using the haversine formula with the same earth radius
+ * used by the native search queries, so results calculated in memory match the
+ * results calculated by the database.
+ */
+public final class GeoDistance {
+
+	/** Radius of the earth in miles */
+	public static final double EARTH_RADIUS_MILES = 3956;
+
+	/** Approximate number of miles in one degree of latitude */
+	public static final double MILES_PER_DEGREE = EARTH_RADIUS_MILES * Math.PI / 180;
+
+	/** Greatest distance in miles between two geo locations (half way around the earth), rounded up */
+	public static final int MAX_DISTANCE_MILES = (int)Math.ceil(Math.PI * EARTH_RADIUS_MILES);
+
+	private GeoDistance() {
+	}
+
+	/**
+	 * Returns the great circle distance in miles between two geo locations.
+	 * @param latitude1		latitude of the first location.
+	 * @param longitude1	longitude of the first location.
+	 * @param latitude2		latitude of the second location.
+	 * @param longitude2	longitude of the second location.
+	 * @return				distance in miles between the two locations.
+	 */
+	public static double distanceInMiles(double latitude1, double longitude1,
+			double latitude2, double longitude2) {
+		double sinLat = Math.sin(Math.toRadians(latitude1 - latitude2) / 2);
+		double sinLong = Math.sin(Math.toRadians(longitude1 - longitude2) / 2);
+		double a = sinLat * sinLat + Math.cos(Math.toRadians(latitude1)) *
+				Math.cos(Math.toRadians(latitude2)) * sinLong * sinLong;
+		return EARTH_RADIUS_MILES * 2 * Math.asin(Math.sqrt(Math.min(1, a)));
+	}
+
+	/**
+	 * Returns the initial bearing of the great circle path from the first geo location
+	 * to the second geo location.
+	 * @param latitude1		latitude of the first location.
+	 * @param longitude1	longitude of the first location.
+	 * @param latitude2		latitude of the second location.
+	 * @param longitude2	longitude of the second location.
+	 * @return				compass bearing in degrees, from 0 (north) up to 360 clockwise.
+	 */
+	public static double bearing(double latitude1, double longitude1,
+			double latitude2, double longitude2) {
+		double lat1 = Math.toRadians(latitude1);
+		double lat2 = Math.toRadians(latitude2);
+		double deltaLong = Math.toRadians(longitude2 - longitude1);
+		double y = Math.sin(deltaLong) * Math.cos(lat2);
+		double x = Math.cos(lat1) * Math.sin(lat2) - Math.sin(lat1) * Math.cos(lat2) * Math.cos(deltaLong);
+		double degrees = Math.toDegrees(Math.atan2(y, x));
+		return (degrees < 0) ? degrees + 360 : degrees;
+	}
+
+	/**
+	 * Returns the number of degrees of longitude spanned by a search radius around
+	 * the passed in latitude, or a value of 180 or more when the search radius
+	 * reaches a pole and every longitude needs to be searched.
+	 * @param latitude		latitude of the center of the search.
+	 * @param searchRadius	search radius in miles.
+	 * @return				half width of the search area in degrees of longitude.
+	 */
+	public static double longitudeSpan(double latitude, double searchRadius) {
+		double angularRadius = searchRadius / EARTH_RADIUS_MILES;
+		double sinSpan = Math.sin(angularRadius) / Math.cos(Math.toRadians(latitude));
+		if (Math.abs(latitude) + Math.toDegrees(angularRadius) >= 90 || sinSpan >= 1
+				|| angularRadius >= Math.PI / 2) {
+			return 180;
+		}
+		return Math.toDegrees(Math.asin(sinSpan));
+	}
+
+	/**
+	 * Returns the number of degrees of latitude spanned by a search radius.
+	 * @param searchRadius	search radius in miles.
+	 * @return				half height of the search area in degrees of latitude.
+	 */
+	public static double latitudeSpan(double searchRadius) {
+		return searchRadius / MILES_PER_DEGREE;
+	}
+}
@@ -0,0 +1,60 @@
+package org.angiedev.schoolfinder.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * NameTokens is a utility class used to split school names and search strings into
+ * the words (tokens) matched by a token search.  A token is a run of letters and digits, 
+ * and tokens are case folded so they can be compared without regard to case.
+ */
+public final class NameTokens {
+
+	private NameTokens() {
+	}
+
+	/**
+	 * Returns the case folded tokens of the passed in text in the order they are found.
+	 * @param text	text to split into tokens.
+	 * @return		tokens found in the text, empty if there are none.
+	 */
+	public static List<String> tokenize(String text) {
+		List<String> tokens = new ArrayList<String>();
+		if (text == null) {
+			return tokens;
+		}
+		StringBuilder token = new StringBuilder();
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (isTokenChar(c)) {
+				token.append(fold(c));
+			} else if (token.length() > 0) {
+				tokens.add(token.toString());
+				token.setLength(0);
+			}
+		}
+		if (token.length() > 0) {
+			tokens.add(token.toString());
+		}
+		return tokens;
+	}
+
+	/**
+	 * Returns true if the passed in character is part of a token.
+	 * @param c		character to check.
+	 * @return		true for letters and digits.
+	 */
+	public static boolean isTokenChar(char c) {
+		return Character.isLetterOrDigit(c);
+	}
+
+	/**
+	 * Returns the case folded form of a character, using the same folding as
+	 * {@link String#CASE_INSENSITIVE_ORDER}.
+	 * @param c		character to fold.
+	 * @return		case folded character.
+	 */
+	public static char fold(char c) {
+		return Character.toLowerCase(Character.toUpperCase(c));
+	}
+}
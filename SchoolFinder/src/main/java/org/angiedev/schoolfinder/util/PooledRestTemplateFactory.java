@@ -0,0 +1,142 @@
+package org.angiedev.schoolfinder.util;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.FactoryBean;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * PooledRestTemplateFactory creates a RestTemplate to be shared by the services calling
+ * web APIs (i.e. the geo location services), instead of each call creating its own.
+ * <p>
+ * The RestTemplate sends its requests through an Apache HttpClient with a pool of
+ * keep-alive connections, so calls to the same API reuse an open connection rather than
+ * paying for a new TCP connection and TLS handshake each time.  A connection is kept for
+ * as long as the API allows (its Keep-Alive header) or keepAliveMillis when it doesn't
+ * say, and idle connections are closed in the background after keepAliveMillis.  The
+ * client asks for gzip or deflate compressed responses and decompresses them.
+ * <p>
+ * Connecting, getting a connection from the pool and reading a response each time out
+ * so a stalled API can't hold up its callers for good.
+ * <p>
+ * The RestTemplate and its message converters are created once and are thread safe.  The
+ * factory is a Spring FactoryBean, so it can be configured as a bean whose pool is closed
+ * along with the application context; services created outside of Spring use the
+ * {@link #getSharedRestTemplate() shared RestTemplate} with the default settings.
+ */
+public class PooledRestTemplateFactory implements FactoryBean<RestTemplate>, DisposableBean {
+
+	private static final Object SHARED_LOCK = new Object();
+	private static volatile RestTemplate sharedRestTemplate;
+
+	private int maxConnections = 50;
+	private int maxConnectionsPerRoute = 20;
+	private int connectTimeoutMillis = 5000;
+	private int connectionRequestTimeoutMillis = 5000;
+	private int readTimeoutMillis = 30000;
+	private long keepAliveMillis = 30000;
+
+	private CloseableHttpClient httpClient;
+	private RestTemplate restTemplate;
+
+	/**
+	 * Returns the RestTemplate, with the default settings, shared by the services that
+	 * were not given one.  Its pool is kept until the JVM exits.
+	 */
+	public static RestTemplate getSharedRestTemplate() {
+		if (sharedRestTemplate == null) {
+			synchronized (SHARED_LOCK) {
+				if (sharedRestTemplate == null) {
+					sharedRestTemplate = new PooledRestTemplateFactory().getObject();
+				}
+			}
+		}
+		return sharedRestTemplate;
+	}
+
+	@Override
+	public synchronized RestTemplate getObject() {
+		if (restTemplate == null) {
+			httpClient = createHttpClient();
+			restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+		}
+		return restTemplate;
+	}
+
+	@Override
+	public Class<?> getObjectType() {
+		return RestTemplate.class;
+	}
+
+	@Override
+	public boolean isSingleton() {
+		return true;
+	}
+
+	/**
+	 * Closes the pooled connections.
+	 */
+	@Override
+	public synchronized void destroy() throws IOException {
+		if (httpClient != null) {
+			httpClient.close();
+		}
+	}
+
+	/* Creates the http client, with a pool of keep-alive connections and response compression */
+	private CloseableHttpClient createHttpClient() {
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(maxConnections);
+		connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(connectTimeoutMillis)
+				.setConnectionRequestTimeout(connectionRequestTimeoutMillis)
+				.setSocketTimeout(readTimeoutMillis)
+				.build();
+
+		// content compression (gzip and deflate) is on by default
+		return HttpClients.custom()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(requestConfig)
+				.setKeepAliveStrategy((response, context) -> {
+					long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+					return keepAlive > 0 ? keepAlive : keepAliveMillis;
+				})
+				.evictExpiredConnections()
+				.evictIdleConnections(keepAliveMillis, TimeUnit.MILLISECONDS)
+				.build();
+	}
+
+	public void setMaxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
+	}
+
+	public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+		this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+	}
+
+	public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+		this.connectTimeoutMillis = connectTimeoutMillis;
+	}
+
+	public void setConnectionRequestTimeoutMillis(int connectionRequestTimeoutMillis) {
+		this.connectionRequestTimeoutMillis = connectionRequestTimeoutMillis;
+	}
+
+	public void setReadTimeoutMillis(int readTimeoutMillis) {
+		this.readTimeoutMillis = readTimeoutMillis;
+	}
+
+	public void setKeepAliveMillis(long keepAliveMillis) {
+		this.keepAliveMillis = keepAliveMillis;
+	}
+}
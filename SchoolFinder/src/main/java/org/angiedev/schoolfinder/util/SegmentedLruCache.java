@@ -0,0 +1,297 @@
+package org.angiedev.schoolfinder.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * SegmentedLruCache is a bounded, thread safe cache whose values expire a fixed time
+ * after they are added.  The cache is bounded either by the number of values it holds or
+ * by their total weight.
+ * <p>
+ * Evictions follow the segmented LRU policy: a new value starts in a probation segment
+ * and moves to a protected segment when it is read from the cache.  Values are evicted from
+ * the least recently used end of the probation segment, so a burst of values read only
+ * once can't push out the values that are read again and again.  The protected segment
+ * holds at most 80% of the values (by weight); its least recently used values drop back
+ * to probation.
+ * <p>
+ * The keys are split over several independently locked partitions to keep lookups from
+ * waiting on each other.  Expired values are removed when they are next looked up or
+ * when they reach the end of the probation segment.
+ *
+ * @param <K>	type of the keys.
+ * @param <V>	type of the values.
+ */
+public class SegmentedLruCache<K, V> {
+
+	private static final int MAX_PARTITIONS = 16;
+	private static final int MIN_PARTITION_SIZE = 16;
+	private static final double PROTECTED_FRACTION = 0.8;
+
+	private final List<Partition> partitions;
+	private final ToIntFunction<? super V> weigher;
+	private final long timeToLiveNanos;
+	private final LongSupplier ticker;
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder missCount = new LongAdder();
+	private final LongAdder evictionCount = new LongAdder();
+
+	/**
+	 * Creates an empty cache bounded by the number of values it holds.
+	 * @param maximumSize	maximum number of values held by the cache.
+	 * @param timeToLive	time after which a value added to the cache expires.
+	 * @param unit			unit of the time to live.
+	 */
+	public SegmentedLruCache(int maximumSize, long timeToLive, TimeUnit unit) {
+		this(maximumSize, value -> 1, timeToLive, unit, System::nanoTime);
+	}
+
+	/**
+	 * Creates an empty cache bounded by the total weight of the values it holds.
+	 * @param maximumWeight	maximum total weight of the values held by the cache.
+	 * @param weigher		function returning the weight (at least 1) of a value, for
+	 * 						instance the number of elements it holds.
+	 * @param timeToLive	time after which a value added to the cache expires.
+	 * @param unit			unit of the time to live.
+	 */
+	public SegmentedLruCache(long maximumWeight, ToIntFunction<? super V> weigher, long timeToLive,
+			TimeUnit unit) {
+		this(maximumWeight, weigher, timeToLive, unit, System::nanoTime);
+	}
+
+	/* Creates an empty cache reading the time in nanoseconds from the passed in ticker */
+	SegmentedLruCache(long maximumWeight, ToIntFunction<? super V> weigher, long timeToLive, TimeUnit unit,
+			LongSupplier ticker) {
+		if (maximumWeight <= 0) {
+			throw new IllegalArgumentException("maximum size must be positive: " + maximumWeight);
+		}
+		int numPartitions = 1;
+		while (numPartitions < MAX_PARTITIONS && maximumWeight / (2 * numPartitions) >= MIN_PARTITION_SIZE) {
+			numPartitions *= 2;
+		}
+		partitions = new ArrayList<Partition>(numPartitions);
+		for (int i = 0; i < numPartitions; i++) {
+			partitions.add(new Partition(maximumWeight / numPartitions +
+					(i < maximumWeight % numPartitions ? 1 : 0)));
+		}
+		this.weigher = weigher;
+		this.timeToLiveNanos = unit.toNanos(timeToLive);
+		this.ticker = ticker;
+	}
+
+	/**
+	 * Returns the value cached for the passed in key.
+	 * @param key	key of the value.
+	 * @return		value of the key, or null if the key is not cached or has expired.
+	 */
+	public V get(K key) {
+		V value = partition(key).get(key, ticker.getAsLong());
+		(value == null ? missCount : hitCount).increment();
+		return value;
+	}
+
+	/**
+	 * Returns the value cached for the passed in key, loading and caching it first if
+	 * it is not cached.  Null values are returned but not cached.  Two threads missing
+	 * the same key at the same time may both load it.
+	 * @param key		key of the value.
+	 * @param loader	function loading the value of a key that is not cached.
+	 * @return			value of the key, or null if the loader returned null.
+	 */
+	public V get(K key, Function<? super K, ? extends V> loader) {
+		Partition partition = partition(key);
+		V value = partition.get(key, ticker.getAsLong());
+		if (value != null) {
+			hitCount.increment();
+			return value;
+		}
+		missCount.increment();
+		// a value invalidated while it was being loaded may be stale, so it isn't cached
+		long generation = partition.generation();
+		value = loader.apply(key);
+		if (value != null) {
+			partition.put(key, value, weigher.applyAsInt(value), ticker.getAsLong() + timeToLiveNanos, generation);
+		}
+		return value;
+	}
+
+	/**
+	 * Caches a value, replacing any value already cached for its key.
+	 * @param key	key of the value.
+	 * @param value	value to cache (not null).
+	 */
+	public void put(K key, V value) {
+		Partition partition = partition(key);
+		partition.put(key, value, weigher.applyAsInt(value), ticker.getAsLong() + timeToLiveNanos,
+				partition.generation());
+	}
+
+	/**
+	 * Removes the value cached for the passed in key.
+	 * @param key	key of the value.
+	 */
+	public void invalidate(K key) {
+		partition(key).invalidate(key);
+	}
+
+	/**
+	 * Removes all of the cached values.
+	 */
+	public void invalidateAll() {
+		for (Partition partition: partitions) {
+			partition.invalidateAll();
+		}
+	}
+
+	/**
+	 * Returns the number of values in the cache, including expired values not yet removed.
+	 */
+	public int size() {
+		int size = 0;
+		for (Partition partition: partitions) {
+			size += partition.size();
+		}
+		return size;
+	}
+
+	/**
+	 * Returns a snapshot of the cache's hit, miss and eviction counts.
+	 */
+	public CacheStats getStats() {
+		return new CacheStats(hitCount.sum(), missCount.sum(), evictionCount.sum(), size());
+	}
+
+	/* Returns the partition holding the passed in key */
+	private Partition partition(K key) {
+		int h = key.hashCode();
+		return partitions.get((h ^ (h >>> 16)) & (partitions.size() - 1));
+	}
+
+	/* A cached value, its weight and the time it expires */
+	private static final class CachedValue<V> {
+		final V value;
+		final int weight;
+		final long expiresAt;
+
+		CachedValue(V value, int weight, long expiresAt) {
+			this.value = value;
+			this.weight = weight;
+			this.expiresAt = expiresAt;
+		}
+
+		boolean isExpired(long now) {
+			return now - expiresAt >= 0;
+		}
+	}
+
+	/* An independently locked part of the cache with its own probation and protected segments */
+	private final class Partition {
+		private final long maximumWeight;
+		private final long maximumProtectedWeight;
+		// both in access order, least recently used first
+		private final LinkedHashMap<K, CachedValue<V>> probation = new LinkedHashMap<K, CachedValue<V>>(16, 0.75f, true);
+		private final LinkedHashMap<K, CachedValue<V>> protectedEntries = new LinkedHashMap<K, CachedValue<V>>(16, 0.75f, true);
+		private long probationWeight;
+		private long protectedWeight;
+		private long generation;	// incremented by every invalidation
+
+		Partition(long maximumWeight) {
+			this.maximumWeight = maximumWeight;
+			this.maximumProtectedWeight = (long)(maximumWeight * PROTECTED_FRACTION);
+		}
+
+		synchronized V get(K key, long now) {
+			CachedValue<V> entry = protectedEntries.get(key);
+			if (entry != null) {
+				if (entry.isExpired(now)) {
+					protectedEntries.remove(key);
+					protectedWeight -= entry.weight;
+					return null;
+				}
+				return entry.value;
+			}
+			entry = probation.remove(key);
+			if (entry == null) {
+				return null;
+			}
+			probationWeight -= entry.weight;
+			if (entry.isExpired(now)) {
+				return null;
+			}
+			// read again while on probation, promote it
+			protectedEntries.put(key, entry);
+			protectedWeight += entry.weight;
+			Iterator<Map.Entry<K, CachedValue<V>>> eldest = protectedEntries.entrySet().iterator();
+			while (protectedWeight > maximumProtectedWeight) {
+				Map.Entry<K, CachedValue<V>> demoted = eldest.next();
+				eldest.remove();
+				protectedWeight -= demoted.getValue().weight;
+				probation.put(demoted.getKey(), demoted.getValue());
+				probationWeight += demoted.getValue().weight;
+			}
+			return entry.value;
+		}
+
+		synchronized void put(K key, V value, int weight, long expiresAt, long expectedGeneration) {
+			if (generation != expectedGeneration) {
+				return;
+			}
+			CachedValue<V> entry = new CachedValue<V>(value, weight, expiresAt);
+			CachedValue<V> replaced = protectedEntries.get(key);
+			if (replaced != null) {
+				protectedEntries.put(key, entry);
+				protectedWeight += weight - replaced.weight;
+			} else {
+				replaced = probation.put(key, entry);
+				probationWeight += weight - ((replaced == null) ? 0 : replaced.weight);
+			}
+			while (probationWeight + protectedWeight > maximumWeight) {
+				boolean fromProbation = !probation.isEmpty();
+				Iterator<CachedValue<V>> eldest = (fromProbation ? probation : protectedEntries).
+						values().iterator();
+				CachedValue<V> evicted = eldest.next();
+				eldest.remove();
+				if (fromProbation) {
+					probationWeight -= evicted.weight;
+				} else {
+					protectedWeight -= evicted.weight;
+				}
+				evictionCount.increment();
+			}
+		}
+
+		synchronized long generation() {
+			return generation;
+		}
+
+		synchronized void invalidate(K key) {
+			generation++;
+			CachedValue<V> entry = protectedEntries.remove(key);
+			if (entry != null) {
+				protectedWeight -= entry.weight;
+			} else if ((entry = probation.remove(key)) != null) {
+				probationWeight -= entry.weight;
+			}
+		}
+
+		synchronized void invalidateAll() {
+			generation++;
+			protectedEntries.clear();
+			probation.clear();
+			protectedWeight = 0;
+			probationWeight = 0;
+		}
+
+		synchronized int size() {
+			return probation.size() + protectedEntries.size();
+		}
+	}
+}
@@ -0,0 +1,247 @@
+package org.angiedev.schoolfinder.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+/**
+ * SlowQueryLoggingDataSource times every statement run on its connections and logs the
+ * ones that take longer than a threshold, with their parameters and timing, as a single
+ * line of key=value pairs.  Statements under the threshold are only counted, so nothing
+ * is written for the usual fast search.
+ * <p>
+ * It wraps the data source handing out the connections (the connection pool) and keeps
+ * counts of the statements run, the slow statements and their execution times, along
+ * with the log line of the last slow statement.
+ */
+public class SlowQueryLoggingDataSource extends DelegatingDataSource {
+
+	private static final Log log = LogFactory.getLog(SlowQueryLoggingDataSource.class);
+
+	private static final int MAX_PARAMETER_LENGTH = 100;
+	private static final int MAX_LOGGED_PARAMETERS = 50;
+
+	private volatile long thresholdNanos = TimeUnit.MILLISECONDS.toNanos(250);
+	private final LongAdder statementCount = new LongAdder();
+	private final LongAdder slowStatementCount = new LongAdder();
+	private final LongAdder totalExecutionNanos = new LongAdder();
+	private final LongAccumulator maxExecutionNanos = new LongAccumulator(Math::max, 0);
+	private volatile String lastSlowStatement;
+
+	/**
+	 * Creates the data source; the target data source must be set before it is used.
+	 */
+	public SlowQueryLoggingDataSource() {
+	}
+
+	/**
+	 * Creates the data source wrapping the passed in data source.
+	 * @param targetDataSource	data source handing out the connections.
+	 */
+	public SlowQueryLoggingDataSource(DataSource targetDataSource) {
+		super(targetDataSource);
+	}
+
+	/**
+	 * Sets the execution time in milliseconds at or above which a statement is logged.
+	 * @param thresholdMillis	threshold in milliseconds.
+	 */
+	public void setThresholdMillis(long thresholdMillis) {
+		this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+	}
+
+	public long getThresholdMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(thresholdNanos);
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return wrap(getTargetDataSource().getConnection());
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		return wrap(getTargetDataSource().getConnection(username, password));
+	}
+
+	/**
+	 * Returns the number of statements run.
+	 */
+	public long getStatementCount() {
+		return statementCount.sum();
+	}
+
+	/**
+	 * Returns the number of statements that took at least the threshold time.
+	 */
+	public long getSlowStatementCount() {
+		return slowStatementCount.sum();
+	}
+
+	/**
+	 * Returns the average execution time of the statements in milliseconds, or 0 if no
+	 * statements have been run.
+	 */
+	public double getAverageExecutionMillis() {
+		long count = statementCount.sum();
+		return (count == 0) ? 0 : (double)totalExecutionNanos.sum() / count / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	/**
+	 * Returns the longest execution time of a statement in milliseconds.
+	 */
+	public double getMaxExecutionMillis() {
+		return (double)maxExecutionNanos.get() / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	/**
+	 * Returns the log line of the last statement that took at least the threshold time,
+	 * or null if there has been none.
+	 */
+	public String getLastSlowStatement() {
+		return lastSlowStatement;
+	}
+
+	@Override
+	public String toString() {
+		return "SlowQueryLoggingDataSource [statements=" + getStatementCount() + ", slowStatements=" +
+				getSlowStatementCount() + ", avgMillis=" + String.format("%.3f", getAverageExecutionMillis()) +
+				", maxMillis=" + String.format("%.3f", getMaxExecutionMillis()) + "]";
+	}
+
+	/* Records the execution of a statement, logging it if it is slow */
+	private void record(String sql, Map<Integer, Object> parameters, long elapsedNanos, boolean failed) {
+		statementCount.increment();
+		totalExecutionNanos.add(elapsedNanos);
+		maxExecutionNanos.accumulate(elapsedNanos);
+		if (elapsedNanos < thresholdNanos) {
+			return;
+		}
+		slowStatementCount.increment();
+		StringBuilder line = new StringBuilder("slow statement: millis=").
+				append(String.format("%.3f", (double)elapsedNanos / TimeUnit.MILLISECONDS.toNanos(1))).
+				append(" failed=").append(failed).
+				append(" sql=\"").append(sql == null ? "" : sql.replaceAll("\\s+", " ").trim()).
+				append("\" parameters=[");
+		boolean first = true;
+		for (Map.Entry<Integer, Object> parameter: parameters.entrySet()) {
+			if (parameter.getKey() > MAX_LOGGED_PARAMETERS) {
+				// bulk statements have thousands of parameters
+				line.append(", ... (").append(parameters.size()).append(" parameters)");
+				break;
+			}
+			line.append(first ? "" : ", ").append(parameter.getKey()).append('=').
+					append(formatParameter(parameter.getValue()));
+			first = false;
+		}
+		lastSlowStatement = line.append(']').toString();
+		log.warn(lastSlowStatement);
+	}
+
+	/* Returns a parameter value as it appears in the log */
+	private static String formatParameter(Object value) {
+		if (value == null) {
+			return "null";
+		}
+		String text = String.valueOf(value);
+		if (text.length() > MAX_PARAMETER_LENGTH) {
+			text = text.substring(0, MAX_PARAMETER_LENGTH) + "...";
+		}
+		return (value instanceof CharSequence) ? "'" + text + "'" : text;
+	}
+
+	/* Returns a connection whose statements are timed */
+	private Connection wrap(Connection connection) {
+		return (Connection)Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { Connection.class }, new ConnectionHandler(connection));
+	}
+
+	/* Calls the target, passing on the exception it throws rather than wrapping it */
+	private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getTargetException();
+		}
+	}
+
+	/* Wraps the statements created by a connection */
+	private class ConnectionHandler implements InvocationHandler {
+		private final Connection target;
+
+		ConnectionHandler(Connection target) {
+			this.target = target;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			Object result = SlowQueryLoggingDataSource.invoke(target, method, args);
+			Class<?> statementType;
+			if (result instanceof CallableStatement) {
+				statementType = CallableStatement.class;
+			} else if (result instanceof PreparedStatement) {
+				statementType = PreparedStatement.class;
+			} else if (result instanceof Statement) {
+				statementType = Statement.class;
+			} else {
+				return result;
+			}
+			String sql = (args != null && args.length > 0 && args[0] instanceof String) ? (String)args[0] : null;
+			return Proxy.newProxyInstance(SlowQueryLoggingDataSource.class.getClassLoader(),
+					new Class<?>[] { statementType }, new StatementHandler(result, sql));
+		}
+	}
+
+	/* Records the parameters set on a statement and times its executions */
+	private class StatementHandler implements InvocationHandler {
+		private final Object target;
+		private final String sql;
+		private final Map<Integer, Object> parameters = new TreeMap<Integer, Object>();
+
+		StatementHandler(Object target, String sql) {
+			this.target = target;
+			this.sql = sql;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (name.startsWith("execute")) {
+				String executed = (args != null && args.length > 0 && args[0] instanceof String) ?
+						(String)args[0] : sql;
+				boolean failed = true;
+				long start = System.nanoTime();
+				try {
+					Object result = SlowQueryLoggingDataSource.invoke(target, method, args);
+					failed = false;
+					return result;
+				} finally {
+					record(executed, parameters, System.nanoTime() - start, failed);
+				}
+			}
+			if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+				parameters.put((Integer)args[0], name.equals("setNull") ? null : args[1]);
+			} else if (name.equals("clearParameters")) {
+				parameters.clear();
+			}
+			return SlowQueryLoggingDataSource.invoke(target, method, args);
+		}
+	}
+}
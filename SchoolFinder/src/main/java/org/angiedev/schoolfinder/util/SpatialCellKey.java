@@ -0,0 +1,118 @@
+package org.angiedev.schoolfinder.util;
+
+import java.util.Arrays;
+
+/**
+ * SpatialCellKey is a utility class used to calculate the spatial cell key stored with
+ * each school.  A cell key is a geohash style Z-order (Morton) code built by interleaving
+ * the bits of the school's latitude and longitude.  Locations that are close together
+ * usually share a long key prefix, and every cell of the grid at a given level covers a
+ * single contiguous range of keys.
+ * <p>
+ * A search area is expanded into a small set of these key ranges so a database index on
+ * the cell key column can be range scanned instead of scanning a whole latitude stripe.
+ */
+public final class SpatialCellKey {
+
+	/** Number of bits used for the latitude and for the longitude in a cell key */
+	public static final int BITS = 26;
+
+	/** Number of key ranges returned by {@link #coveringRanges(double, double, double)} */
+	public static final int MAX_RANGES = 8;
+
+	private SpatialCellKey() {
+	}
+
+	/**
+	 * Returns the cell key of a geo location.
+	 * @param latitude	latitude of the location.
+	 * @param longitude	longitude of the location.
+	 * @return			cell key of the location.
+	 */
+	public static long encode(double latitude, double longitude) {
+		return interleave(Math.min(quantize(latitude + 90, 180, BITS), (1 << BITS) - 1),
+				Math.floorMod(quantize(longitude + 180, 360, BITS), 1 << BITS));
+	}
+
+	/**
+	 * Returns the ranges of cell keys covering the area within a search radius of a geo
+	 * location.  The returned array always contains {@link #MAX_RANGES} inclusive ranges
+	 * stored as pairs of start and end keys, so queries using the ranges always have the
+	 * same number of parameters.  When fewer ranges are needed the last range is repeated.
+	 * @param latitude		latitude of the center of the search area.
+	 * @param longitude		longitude of the center of the search area.
+	 * @param searchRadius	search radius in miles.
+	 * @return				start and end keys of each range covering the search area.
+	 */
+	public static long[] coveringRanges(double latitude, double longitude, double searchRadius) {
+		double latSpan = GeoDistance.latitudeSpan(searchRadius);
+		double longSpan = GeoDistance.longitudeSpan(latitude, searchRadius);
+		double minLat = Math.max(-90, latitude - latSpan) + 90;
+		double maxLat = Math.min(90, latitude + latSpan) + 90;
+		double minLong = (longSpan >= 180) ? 0 : longitude - longSpan + 180;
+		double maxLong = (longSpan >= 180) ? 360 : longitude + longSpan + 180;
+
+		// find the smallest cells that cover the search area with no more than MAX_RANGES cells
+		for (int level = BITS; level >= 0; level--) {
+			int minY = quantize(minLat, 180, level);
+			int maxY = Math.min(quantize(maxLat, 180, level), (1 << level) - 1);
+			int minX = quantize(minLong, 360, level);
+			int maxX = Math.min(quantize(maxLong, 360, level), minX + (1 << level) - 1);
+			long numCells = (long)(maxY - minY + 1) * (maxX - minX + 1);
+			if (numCells > MAX_RANGES) {
+				continue;
+			}
+
+			int shift = 2 * (BITS - level);
+			long[] starts = new long[(int)numCells];
+			int n = 0;
+			for (int y = minY; y <= maxY; y++) {
+				for (int x = minX; x <= maxX; x++) {
+					// wrap around the date line
+					starts[n++] = interleave(y, Math.floorMod(x, 1 << level)) << shift;
+				}
+			}
+			Arrays.sort(starts);
+
+			long[] ranges = new long[2 * MAX_RANGES];
+			int numRanges = 0;
+			long cellSize = 1L << shift;
+			for (long start: starts) {
+				if (numRanges > 0 && ranges[2 * numRanges - 1] + 1 == start) {
+					ranges[2 * numRanges - 1] = start + cellSize - 1;
+				} else {
+					ranges[2 * numRanges] = start;
+					ranges[2 * numRanges + 1] = start + cellSize - 1;
+					numRanges++;
+				}
+			}
+			for (int i = numRanges; i < MAX_RANGES; i++) {
+				ranges[2 * i] = ranges[2 * numRanges - 2];
+				ranges[2 * i + 1] = ranges[2 * numRanges - 1];
+			}
+			return ranges;
+		}
+		throw new IllegalStateException("Unable to cover search area");
+	}
+
+	/* Returns the cell number of a value within a range divided into 2^bits cells */
+	private static int quantize(double value, double range, int bits) {
+		return (int)Math.floor(value / range * (1 << bits));
+	}
+
+	/* Interleaves the bits of y and x, with the bits of x in the even positions */
+	private static long interleave(int y, int x) {
+		return (spread(y) << 1) | spread(x);
+	}
+
+	/* Spreads the bits of a value so there is a zero bit between each of them */
+	private static long spread(int value) {
+		long v = value & 0xFFFFFFFFL;
+		v = (v | (v << 16)) & 0x0000FFFF0000FFFFL;
+		v = (v | (v << 8)) & 0x00FF00FF00FF00FFL;
+		v = (v | (v << 4)) & 0x0F0F0F0F0F0F0F0FL;
+		v = (v | (v << 2)) & 0x3333333333333333L;
+		v = (v | (v << 1)) & 0x5555555555555555L;
+		return v;
+	}
+}
@@ -0,0 +1,115 @@
+package org.angiedev.schoolfinder.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TokenBucket limits the rate at which something is done by any number of threads.
+ * <p>
+ * The bucket holds up to capacity tokens and is refilled at a steady rate of tokens per
+ * second.  Each call takes a token, waiting for one when the bucket is empty, so calls are
+ * let through at the bucket's rate with bursts of at most its capacity.  The rate can be
+ * changed while the bucket is in use, and the bucket can be paused, holding back all
+ * calls for a while and then starting again from an empty bucket.
+ */
+public class TokenBucket {
+
+	private final int capacity;
+	private double ratePerSecond;
+	private double tokens;
+	private long lastRefillNanos;
+	private long pausedUntilNanos;
+
+	/**
+	 * Creates a full bucket.
+	 * @param ratePerSecond	number of tokens added per second.
+	 * @param capacity		maximum number of tokens held, which is the largest burst let through.
+	 */
+	public TokenBucket(double ratePerSecond, int capacity) {
+		if (ratePerSecond <= 0 || capacity < 1) {
+			throw new IllegalArgumentException("Rate and capacity must be positive");
+		}
+		this.ratePerSecond = ratePerSecond;
+		this.capacity = capacity;
+		this.tokens = capacity;
+		this.lastRefillNanos = System.nanoTime();
+		this.pausedUntilNanos = lastRefillNanos;
+	}
+
+	/**
+	 * Takes a token, waiting until there is one.
+	 * @throws InterruptedException	if the thread was interrupted while waiting.
+	 */
+	public void acquire() throws InterruptedException {
+		long waitNanos;
+		while ((waitNanos = tryAcquire()) > 0) {
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+		}
+	}
+
+	/**
+	 * Takes a token if there is one.
+	 * @return	0 if a token was taken, otherwise the time in nanoseconds until there
+	 * 			should be one.
+	 */
+	public synchronized long tryAcquire() {
+		long now = System.nanoTime();
+		if (now - pausedUntilNanos < 0) {
+			return pausedUntilNanos - now;
+		}
+		refill(now);
+		if (tokens >= 1) {
+			tokens--;
+			return 0;
+		}
+		return Math.max((long)((1 - tokens) / ratePerSecond * 1e9), 1);
+	}
+
+	/**
+	 * Holds back all calls for the passed in time, after which the bucket starts empty.
+	 * A pause ending later than this one is not shortened.
+	 * @param millis	time to pause for.
+	 */
+	public synchronized void pause(long millis) {
+		long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+		if (until - pausedUntilNanos > 0) {
+			pausedUntilNanos = until;
+		}
+		tokens = 0;
+		lastRefillNanos = pausedUntilNanos;
+	}
+
+	/**
+	 * Returns true if the bucket is paused.
+	 */
+	public synchronized boolean isPaused() {
+		return System.nanoTime() - pausedUntilNanos < 0;
+	}
+
+	public synchronized double getRatePerSecond() {
+		return ratePerSecond;
+	}
+
+	/**
+	 * Changes the rate at which tokens are added from now on.
+	 * @param ratePerSecond	number of tokens added per second.
+	 */
+	public synchronized void setRatePerSecond(double ratePerSecond) {
+		if (ratePerSecond <= 0) {
+			throw new IllegalArgumentException("Rate must be positive");
+		}
+		refill(System.nanoTime());
+		this.ratePerSecond = ratePerSecond;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/* Adds the tokens earned since the last refill */
+	private void refill(long now) {
+		if (now - lastRefillNanos > 0) {
+			tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * ratePerSecond / 1e9);
+			lastRefillNanos = now;
+		}
+	}
+}
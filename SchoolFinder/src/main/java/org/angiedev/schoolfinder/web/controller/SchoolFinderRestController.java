@@ -1,14 +1,27 @@
 package org.angiedev.schoolfinder.web.controller;
 
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 
+import javax.servlet.http.HttpServletResponse;
+
+import org.angiedev.schoolfinder.model.NameMatchMode;
 import org.angiedev.schoolfinder.model.School;
+import org.angiedev.schoolfinder.model.SchoolSearchResult;
 import org.angiedev.schoolfinder.service.SchoolFinderService;
+import org.angiedev.schoolfinder.util.GeoDistance;
+import org.angiedev.schoolfinder.web.json.SchoolSearchHit;
+import org.angiedev.schoolfinder.web.json.SchoolSearchHitWriter;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 
 
@@ -23,35 +36,100 @@ import org.springframework.web.bind.annotation.RestController;
 @RequestMapping("/schools")
 public class SchoolFinderRestController {
 
+	private static final String SORT_BY_NAME = "name";
+	private static final String SORT_BY_DISTANCE = "distance";
+
+	// largest number of schools returned by a search
+	private static final int MAX_NUM_RESULTS = 1000;
+
 	@Autowired 
 	private SchoolFinderService finderService;
 	
+	private SchoolSearchHitWriter hitWriter = new SchoolSearchHitWriter();
+	
 	/**
-	 * Returns the list of schools within the passed in searchRadius of the given 
-	 * location identified by latitude and longitude and optionally matching a passed
-	 * in search string within the school's name 
+	 * Returns the list of schools near the given location identified by latitude and 
+	 * longitude and optionally matching a passed in search string within the school's name.
+	 * When sorted by name only the schools within the search radius are returned.  When
+	 * sorted by distance the nearest schools are returned, limited to the search radius if
+	 * one is passed in. 
 	 * @param searchString	search string to find within the school's name
-	 * @param latitude		latitude of location we are searching from.
-	 * @param longitude		longitude of location we are searching from.
-	 * @param searchRadius	search radius in miles in which we are searching
-	 *                      (must be a string with value "BY_DISTANCE" or "BY_NAME")
-	 * @param maxNumResults	maximum number of schools to return
-	 * @return				list of schools within search radius
+	 * @param latitude		latitude of location we are searching from (from -90 to 90).
+	 * @param longitude		longitude of location we are searching from (from -180 to 180).
+	 * @param searchRadius	search radius in miles in which we are searching 
+	 * 						(required when sorting by name, from 1 up to half way around
+	 * 						the earth)
+	 * @param maxNumResults	maximum number of schools to return (from 1 up to 1000)
+	 * @param sort			order of the returned schools 
+	 *                      (must be a string with value "name" or "distance")
+	 * @param match			how the search string is matched against the school's name 
+	 * 						(must be a string with value "prefix", "tokens" or "fuzzy")
+	 * @param response		response the JSON array of {@link SchoolSearchHit}s is streamed to, 
+	 * 						one per school along with its distance (in miles) and bearing 
+	 * 						from the search location
+	 * @throws IOException	if the schools could not be written to the response
 	 */
 	
 	@RequestMapping(value="search", method=RequestMethod.GET)
-	public List<School> searchForSchools(
+	public void searchForSchools(
 			@RequestParam(value="searchString", required=false) String searchString,
 			@RequestParam("lat") double latitude,
 			@RequestParam("long") double longitude, 
-			@RequestParam("searchRadius") int searchRadius,
-			@RequestParam("maxNumResults") int maxNumResults) {
+			@RequestParam(value="searchRadius", required=false) Integer searchRadius,
+			@RequestParam("maxNumResults") int maxNumResults,
+			@RequestParam(value="sort", defaultValue=SORT_BY_NAME) String sort,
+			@RequestParam(value="match", defaultValue="prefix") String match,
+			HttpServletResponse response) throws IOException {
+		
+		List<SchoolSearchResult> schools = findSchools(searchString, latitude, longitude, searchRadius,
+				maxNumResults, sort, toMatchMode(match));
+		response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+		hitWriter.write(schools, response.getOutputStream());
+	}
+	
+	/* Runs the search requested, validating the request parameters first */
+	private List<SchoolSearchResult> findSchools(String searchString, double latitude, double longitude,
+			Integer searchRadius, int maxNumResults, String sort, NameMatchMode matchMode) {
+		// written so that NaN fails the range checks too
+		if (!(latitude >= -90 && latitude <= 90)) {
+			throw new IllegalArgumentException("Invalid lat: " + latitude + " (must be from -90 to 90)");
+		} else if (!(longitude >= -180 && longitude <= 180)) {
+			throw new IllegalArgumentException("Invalid long: " + longitude + " (must be from -180 to 180)");
+		} else if (searchRadius != null && (searchRadius <= 0 || searchRadius > GeoDistance.MAX_DISTANCE_MILES)) {
+			throw new IllegalArgumentException("Invalid searchRadius: " + searchRadius + 
+					" (must be from 1 to " + GeoDistance.MAX_DISTANCE_MILES + ")");
+		} else if (maxNumResults <= 0 || maxNumResults > MAX_NUM_RESULTS) {
+			throw new IllegalArgumentException("Invalid maxNumResults: " + maxNumResults + 
+					" (must be from 1 to " + MAX_NUM_RESULTS + ")");
+		}
+		
+		if (SORT_BY_DISTANCE.equalsIgnoreCase(sort)) {
+			return finderService.getNearestSchools(latitude, longitude, searchRadius, searchString, 
+					matchMode, maxNumResults);
+		} else if (!SORT_BY_NAME.equalsIgnoreCase(sort)) {
+			throw new IllegalArgumentException("Invalid sort: " + sort + 
+					" (must be " + SORT_BY_NAME + " or " + SORT_BY_DISTANCE + ")");
+		} else if (searchRadius == null) {
+			throw new IllegalArgumentException("searchRadius is required when sorting by name");
+		}
 		
 		if (searchString == null) {
 			return finderService.getSchools(latitude, longitude, searchRadius, maxNumResults);
 		} else {
-			return finderService.getSchools(latitude, longitude, searchRadius, searchString, maxNumResults);
+			return finderService.getSchools(latitude, longitude, searchRadius, searchString, matchMode, 
+					maxNumResults);
+		}
+	}
+	
+	/* Converts the match request parameter into the name match mode it names */
+	private NameMatchMode toMatchMode(String match) {
+		for (NameMatchMode mode: NameMatchMode.values()) {
+			if (mode.name().equalsIgnoreCase(match)) {
+				return mode;
+			}
 		}
+		throw new IllegalArgumentException("Invalid match: " + match + 
+				" (must be one of " + Arrays.toString(NameMatchMode.values()).toLowerCase() + ")");
 	}
 	
 	/**
@@ -64,6 +142,18 @@ public class SchoolFinderRestController {
 		return finderService.getSchoolByNcesId(ncesId);
 	}
 	
+	/**
+	 * Returns a bad request response with the error message when the request parameters 
+	 * passed in are invalid
+	 * @param e		exception describing the invalid parameter
+	 * @return		error message
+	 */
+	@ExceptionHandler(IllegalArgumentException.class)
+	@ResponseStatus(HttpStatus.BAD_REQUEST)
+	public String handleInvalidRequest(IllegalArgumentException e) {
+		return e.getMessage();
+	}
+	
 	public SchoolFinderService getFinderService() {
 		return finderService;
 	}
@@ -0,0 +1,125 @@
+package org.angiedev.schoolfinder.web.json;
+
+import org.angiedev.schoolfinder.model.District;
+import org.angiedev.schoolfinder.model.School;
+import org.angiedev.schoolfinder.model.SchoolSearchResult;
+
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * SchoolSearchHit is a flat data transfer object used to return a school found by a
+ * search to clients of the REST webservice.  It copies only the fields clients use out of
+ * the School entity, and its district, so converting it to JSON never walks the hibernate
+ * object graph.
+ */
+@JsonPropertyOrder({"ncesId", "name", "streetAddress", "city", "state", "zip", "status",
+	"lowGrade", "highGrade", "latitude", "longitude", "districtName", "leaId", "distance",
+	"bearing"})
+public class SchoolSearchHit {
+
+	private final String ncesId;
+	private final String name;
+	private final String streetAddress;
+	private final String city;
+	private final String state;
+	private final String zip;
+	private final int status;
+	private final String lowGrade;
+	private final String highGrade;
+	private final Double latitude;
+	private final Double longitude;
+	private final String districtName;
+	private final String leaId;
+	private final double distance;
+	private final double bearing;
+
+	/**
+	 * Creates the hit for the passed in search result.
+	 * @param result	school found by the search along with its distance and bearing.
+	 */
+	public SchoolSearchHit(SchoolSearchResult result) {
+		School school = result.getSchool();
+		District district = school.getDistrict();
+		this.ncesId = school.getNcesId();
+		this.name = school.getName();
+		this.streetAddress = school.getStreetAddress();
+		this.city = school.getCity();
+		this.state = school.getState();
+		this.zip = school.getZip();
+		this.status = school.getStatus();
+		this.lowGrade = school.getLowGrade();
+		this.highGrade = school.getHighGrade();
+		this.latitude = school.getLatitude();
+		this.longitude = school.getLongitude();
+		this.districtName = (district == null) ? null : district.getName();
+		this.leaId = (district == null) ? null : district.getLeaId();
+		this.distance = result.getDistance();
+		this.bearing = result.getBearing();
+	}
+
+	public String getNcesId() {
+		return ncesId;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getStreetAddress() {
+		return streetAddress;
+	}
+
+	public String getCity() {
+		return city;
+	}
+
+	public String getState() {
+		return state;
+	}
+
+	public String getZip() {
+		return zip;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public String getLowGrade() {
+		return lowGrade;
+	}
+
+	public String getHighGrade() {
+		return highGrade;
+	}
+
+	public Double getLatitude() {
+		return latitude;
+	}
+
+	public Double getLongitude() {
+		return longitude;
+	}
+
+	public String getDistrictName() {
+		return districtName;
+	}
+
+	public String getLeaId() {
+		return leaId;
+	}
+
+	public double getDistance() {
+		return distance;
+	}
+
+	public double getBearing() {
+		return bearing;
+	}
+
+	@Override
+	public String toString() {
+		return "SchoolSearchHit [ncesId=" + ncesId + ", name=" + name + ", distance=" + distance +
+				", bearing=" + bearing + "]";
+	}
+}
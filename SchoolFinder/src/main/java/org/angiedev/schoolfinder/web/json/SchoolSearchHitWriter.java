@@ -0,0 +1,40 @@
+package org.angiedev.schoolfinder.web.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.angiedev.schoolfinder.model.SchoolSearchResult;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * SchoolSearchHitWriter writes search results as a JSON array of {@link SchoolSearchHit}s
+ * using a streaming JsonGenerator.  Each result is converted and written on its own, so
+ * no tree or list of the whole response is built, and the generator passes its output
+ * on to the stream each time its buffer fills rather than after the last result.
+ */
+public class SchoolSearchHitWriter {
+
+	// thread safe once configured, and caches the SchoolSearchHit serializer
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	/**
+	 * Writes the passed in search results to the stream as a JSON array.  The stream is
+	 * flushed but not closed.
+	 * @param results	search results to write, in the order they are written.
+	 * @param out		stream to write to.
+	 * @throws IOException	if the results could not be written to the stream.
+	 */
+	public void write(Iterable<SchoolSearchResult> results, OutputStream out) throws IOException {
+		try (JsonGenerator generator = MAPPER.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+			generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+			generator.writeStartArray();
+			for (SchoolSearchResult result: results) {
+				generator.writeObject(new SchoolSearchHit(result));
+			}
+			generator.writeEndArray();
+		}
+	}
+}
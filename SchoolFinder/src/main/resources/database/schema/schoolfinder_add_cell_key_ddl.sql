@@ -0,0 +1,7 @@
+# DB Schema Migration Script for School Finder Web Service
+# Adds the spatial cell key column used by the geo location searches to an existing
+# School table.  Run SchoolCellKeyBackfiller afterwards to calculate the cell keys
+# of the schools that already have geo location data.
+
+ALTER TABLE School ADD COLUMN cell_key BIGINT(20) AFTER latitude,
+	ADD INDEX (cell_key);
@@ -0,0 +1,12 @@
+# DB Schema Migration Script for School Finder Web Service
+# Adds the GeoCodeCache table, which keeps the result of each geo location lookup
+# (see CachingGeoLocationService) so an address is only looked up once.
+
+CREATE TABLE GeoCodeCache ( address_key VARCHAR(180) NOT NULL,
+	source VARCHAR(40) NOT NULL,
+	longitude DOUBLE,
+	latitude DOUBLE,
+	failure VARCHAR(255),
+	looked_up_at DATETIME NOT NULL,
+	PRIMARY KEY (address_key)
+) ENGINE=INNODB;
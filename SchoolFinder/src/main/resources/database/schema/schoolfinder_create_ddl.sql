@@ -20,7 +20,18 @@ CREATE TABLE School ( school_id BIGINT(20) NOT NULL auto_increment,
 	high_grade VARCHAR(2) NOT NULL,
 	longitude FLOAT(10,6),
 	latitude FLOAT(10,6),
+	cell_key BIGINT(20),
 	PRIMARY KEY (school_id),
 	FOREIGN KEY (district_id) REFERENCES District(district_id),
-	UNIQUE INDEX (nces_id)
+	UNIQUE INDEX (nces_id),
+	INDEX (cell_key)
+) ENGINE=INNODB;
+
+CREATE TABLE GeoCodeCache ( address_key VARCHAR(180) NOT NULL,
+	source VARCHAR(40) NOT NULL,
+	longitude DOUBLE,
+	latitude DOUBLE,
+	failure VARCHAR(255),
+	looked_up_at DATETIME NOT NULL,
+	PRIMARY KEY (address_key)
 ) ENGINE=INNODB;
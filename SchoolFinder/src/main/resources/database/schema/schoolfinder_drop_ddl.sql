@@ -1,3 +1,4 @@
 # DB Schema Deletion Script for School Finder Web Service
+DROP TABLE GeoCodeCache;
 DROP TABLE School; 
 DROP TABLE District;
\ No newline at end of file
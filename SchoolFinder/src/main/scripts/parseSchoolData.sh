@@ -37,6 +37,7 @@
 # sh parseSchoolData.sh ../resources/data/Sch14pre.txt ../resources/data/Parsed-Sch14pre.txt
 #
 # This script should not have to be run again unless a new initial data input file is provided
-# prior to initial launch of our application.
+# prior to initial launch of our application.  SchoolDataLoader also reads the raw input file
+# directly, so the parsed file is only needed by tools expecting its 11 column layout.
 
 awk -F\t '{print $2 "\t" $4 "\t" $8 "\t" $9 "\t" $16 "\t" $17 "\t" $18 "\t" $19 "\t" $22 "\t" $25 "\t" $26 }' $1 > $2
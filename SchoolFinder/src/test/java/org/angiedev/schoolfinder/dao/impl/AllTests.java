@@ -5,7 +5,8 @@ import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(Suite.class)
-@SuiteClasses({ HibernateDistrictDAOTest.class, HibernateSchoolDAOTest.class  })
+@SuiteClasses({ HibernateDistrictDAOTest.class, HibernateSchoolDAOTest.class, SpatialIndexSchoolDAOTest.class,
+	HibernateCacheTest.class, JdbcBulkLoadDAOTest.class })
 public class AllTests {
 
 }
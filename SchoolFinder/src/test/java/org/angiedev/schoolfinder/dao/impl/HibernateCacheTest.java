@@ -0,0 +1,92 @@
+package org.angiedev.schoolfinder.dao.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import org.angiedev.schoolfinder.dao.DistrictDAO;
+import org.angiedev.schoolfinder.dao.SchoolDAO;
+import org.angiedev.schoolfinder.model.District;
+import org.angiedev.schoolfinder.model.School;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Checks that repeated lookups of schools and districts, each in its own session, are 
+ * answered by the hibernate second level and query caches without running any SQL.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations={"/SchoolFinderConfig.xml"})
+public class HibernateCacheTest {
+
+	private static final String SCHOOL_NCES_ID = "063459005738";	// NCES Id of Simonds Elementary
+	private static final String DISTRICT_LEA_ID = "0634590";		// LEA Id of San Jose Unified
+	
+	@Autowired
+	private SchoolDAO schoolDAO;
+	
+	@Autowired
+	private DistrictDAO districtDAO;
+	
+	@Autowired
+	private SessionFactory sessionFactory;
+	
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+	
+	private TransactionTemplate transaction;
+	
+	@Before
+	public void setUp() throws Exception {
+		transaction = new TransactionTemplate(transactionManager);
+		transaction.setReadOnly(true);
+	}
+	
+	@Test
+	public void testRepeatedGetSchoolByNcesIdIssuesNoSql() throws Exception {
+		School school = transaction.execute(status -> schoolDAO.getSchoolByNcesId(SCHOOL_NCES_ID));
+		assertNotNull("School should be found", school);
+		
+		Statistics statistics = sessionFactory.getStatistics();
+		long numStatements = statistics.getPrepareStatementCount();
+		School cachedSchool = transaction.execute(status -> schoolDAO.getSchoolByNcesId(SCHOOL_NCES_ID));
+		
+		assertEquals("Repeated lookup should not run any SQL", numStatements, statistics.getPrepareStatementCount());
+		assertEquals("Cached school should match the school read", school, cachedSchool);
+	}
+	
+	@Test
+	public void testRepeatedGetSchoolIssuesNoSql() throws Exception {
+		School school = transaction.execute(status -> schoolDAO.getSchoolByNcesId(SCHOOL_NCES_ID));
+		
+		Statistics statistics = sessionFactory.getStatistics();
+		long numStatements = statistics.getPrepareStatementCount();
+		School cachedSchool = transaction.execute(status -> schoolDAO.getSchool(school.getSchoolId()));
+		
+		assertEquals("Lookup by id and of the school's district should not run any SQL", numStatements, 
+				statistics.getPrepareStatementCount());
+		assertEquals("Cached school should match the school read", school, cachedSchool);
+	}
+	
+	@Test
+	public void testRepeatedGetDistrictByLeaIdIssuesNoSql() throws Exception {
+		District district = transaction.execute(status -> districtDAO.getDistrictByLeaId(DISTRICT_LEA_ID));
+		assertNotNull("District should be found", district);
+		
+		Statistics statistics = sessionFactory.getStatistics();
+		long numStatements = statistics.getPrepareStatementCount();
+		District cachedDistrict = transaction.execute(status -> districtDAO.getDistrictByLeaId(DISTRICT_LEA_ID));
+		District districtById = transaction.execute(status -> districtDAO.getDistrict(district.getDistrictId()));
+		
+		assertEquals("Repeated lookups should not run any SQL", numStatements, statistics.getPrepareStatementCount());
+		assertEquals("Cached district should match the district read", district, cachedDistrict);
+		assertEquals("Cached district should match the district read", district, districtById);
+	}
+}
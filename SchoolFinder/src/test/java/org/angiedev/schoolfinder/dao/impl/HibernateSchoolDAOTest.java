@@ -2,12 +2,17 @@ package org.angiedev.schoolfinder.dao.impl;
 
 
 import org.angiedev.schoolfinder.model.District;
+import org.angiedev.schoolfinder.model.NameMatchMode;
 import org.angiedev.schoolfinder.model.School;
+import org.angiedev.schoolfinder.model.SchoolSearchResult;
 import org.angiedev.schoolfinder.dao.DistrictDAO;
 import org.angiedev.schoolfinder.dao.SchoolDAO;
 
+import java.util.ArrayList;
 import java.util.List; 
 
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -61,6 +66,9 @@ public class HibernateSchoolDAOTest {
 	
 	@Autowired 
 	private SchoolDAO schoolDAO;
+	
+	@Autowired
+	private SessionFactory sessionFactory;
 
 	private District district;
 	
@@ -343,22 +351,28 @@ public class HibernateSchoolDAOTest {
 		school4.setLongitude( -117.6725555);
 		schoolDAO.insertSchool(school4);
 		
-		List<School> schools = schoolDAO.getSchoolsNearGeoLocation(37.21873,-121.886661, 3, 100);
+		List<SchoolSearchResult> results = schoolDAO.getSchoolsNearGeoLocation(37.21873,-121.886661, 3, 100);
+		List<School> schools = schoolsOf(results);
 		
 		assertTrue("Was school 1 returned as expected?", schools.contains( school1));
 		assertTrue("Was school 2 returned as expected?", schools.contains(school2));
 		assertFalse("Was school 3 not returned as expected?", schools.contains(school3));
 		assertFalse("Was school 4 not returned as expected?", schools.contains(school4));
 		
+		for (SchoolSearchResult result: results) {
+			assertTrue("Is distance within search radius?", result.getDistance() < 3);
+			assertTrue("Is bearing a compass bearing?", result.getBearing() >= 0 && result.getBearing() < 360);
+		}
+		
 		// Now limit it with search String 
-		schools = schoolDAO.getSchoolsNearGeoLocation(37.21873,-121.886661, 3, "SIMONDS", 100);
+		schools = schoolsOf(schoolDAO.getSchoolsNearGeoLocation(37.21873,-121.886661, 3, "SIMONDS", 100));
 		
 		assertTrue("Was school 1 returned as expected?", schools.contains( school1));
 		assertFalse("Was school 2 not returned as expected?", schools.contains(school2));
 		assertFalse("Was school 3 not returned as expected?", schools.contains(school3));
 		assertFalse("Was school 4 not returned as expected?", schools.contains(school4));
 		
-		schools =  schoolDAO.getSchoolsNearGeoLocation(37.21873,-121.886661, 3, "will", 100);
+		schools =  schoolsOf(schoolDAO.getSchoolsNearGeoLocation(37.21873,-121.886661, 3, "will", 100));
 		
 		assertFalse("Was school 1 not returned as expected?", schools.contains( school1));
 		assertTrue("Was school 2 returned as expected?", schools.contains(school2));
@@ -367,4 +381,95 @@ public class HibernateSchoolDAOTest {
 		
 	}
 	
+	@Test
+	@Transactional
+	@Rollback(true)
+	public void testGetSchoolsNearGeoLocationLoadsDistrictsInOneQuery() throws Exception {
+		for (int i = 0; i < 5; i++) {
+			District schoolDistrict = new District(DISTRICT_NAME + i, "T" + i);
+			districtDAO.insertDistrict(schoolDistrict);
+			School school = new School("Test:" + i, SCHOOL_NAME + i, SCHOOL_STR_ADDRESS, SCHOOL_CITY, 
+					SCHOOL_STATE, SCHOOL_ZIP, SCHOOL_STATUS, SCHOOL_LOW_GRADE, SCHOOL_HIGH_GRADE, schoolDistrict);
+			school.setLatitude(37.2205341 + i * 0.001);
+			school.setLongitude(-121.8690651);
+			schoolDAO.insertSchool(school);
+		}
+		// make the search load the schools and districts from the database
+		sessionFactory.getCurrentSession().flush();
+		sessionFactory.getCurrentSession().clear();
+		sessionFactory.getCache().evictEntityRegion(District.class);
+		
+		Statistics statistics = sessionFactory.getStatistics();
+		long numStatements = statistics.getPrepareStatementCount();
+		List<SchoolSearchResult> results = schoolDAO.getSchoolsNearGeoLocation(37.2205341, -121.8690651, 1,
+				SCHOOL_NAME, 100);
+		
+		assertEquals("Search should find each school", 5, results.size());
+		for (SchoolSearchResult result: results) {
+			assertTrue("Was district loaded?", result.getSchool().getDistrict().getName().startsWith(DISTRICT_NAME));
+		}
+		assertEquals("Search should run a single SQL statement", numStatements + 1, 
+				statistics.getPrepareStatementCount());
+	}
+	
+	@Test
+	@Transactional
+	@Rollback(true)
+	public void testGetSchoolsNearGeoLocationFindsSchoolsWithoutCellKey() throws Exception {
+		School school = new School(SCHOOL_NCES_ID, SCHOOL_NAME, SCHOOL_STR_ADDRESS, SCHOOL_CITY, 
+				SCHOOL_STATE, SCHOOL_ZIP, SCHOOL_STATUS, SCHOOL_LOW_GRADE, SCHOOL_HIGH_GRADE, district);
+		school.setLatitude(37.2205341);
+		school.setLongitude(-121.8690651);
+		schoolDAO.insertSchool(school);
+		
+		// a school geo located before the cell key column was added
+		sessionFactory.getCurrentSession().flush();
+		sessionFactory.getCurrentSession().createNativeQuery("update School set cell_key = null where nces_id = :ncesId").
+				setParameter("ncesId", SCHOOL_NCES_ID).executeUpdate();
+		sessionFactory.getCurrentSession().clear();
+		
+		List<School> schools = schoolsOf(schoolDAO.getSchoolsNearGeoLocation(37.21873, -121.886661, 3, 100));
+		assertTrue("Was school without cell key returned?", schools.contains(school));
+		schools = schoolsOf(schoolDAO.getSchoolsNearestGeoLocation(37.21873, -121.886661, null, SCHOOL_NAME, 
+				NameMatchMode.PREFIX, 1));
+		assertTrue("Was school without cell key found nearest?", schools.contains(school));
+	}
+	
+	@Test
+	@Transactional
+	@Rollback(true)
+	public void testFuzzySearchReadsEveryPageOfCandidates() throws Exception {
+		// misspelled names nearest, the exact name farthest
+		List<School> schools = new ArrayList<School>();
+		for (int i = 0; i < 5; i++) {
+			School school = new School("Test:" + i, (i < 4 ? "Quorvalen School " : "Quorvalin School ") + i,
+					SCHOOL_STR_ADDRESS, SCHOOL_CITY, SCHOOL_STATE, SCHOOL_ZIP, SCHOOL_STATUS, SCHOOL_LOW_GRADE, 
+					SCHOOL_HIGH_GRADE, district);
+			school.setLatitude(37.2205341 + i * 0.001);
+			school.setLongitude(-121.8690651);
+			schoolDAO.insertSchool(school);
+			schools.add(school);
+		}
+		sessionFactory.getCurrentSession().flush();
+		
+		// two candidates at a time, so the best match is on the last page
+		HibernateSchoolDAO pagedDAO = new HibernateSchoolDAO(sessionFactory);
+		pagedDAO.setFuzzyCandidatePageSize(2);
+		
+		List<SchoolSearchResult> results = pagedDAO.getSchoolsNearGeoLocation(37.2205341, -121.8690651, 1,
+				"Quorvalin", NameMatchMode.FUZZY, 1);
+		assertEquals("Was the farthest, exact match ranked first?", schools.subList(4, 5), schoolsOf(results));
+		results = pagedDAO.getSchoolsNearestGeoLocation(37.2205341, -121.8690651, 1, "Quorvalin", 
+				NameMatchMode.FUZZY, 5);
+		assertEquals("Were the matches of every page found, nearest first?", schools, schoolsOf(results));
+	}
+	
+	private List<School> schoolsOf(List<SchoolSearchResult> results) {
+		List<School> schools = new ArrayList<School>();
+		for (SchoolSearchResult result: results) {
+			schools.add(result.getSchool());
+		}
+		return schools;
+	}
+	
 }
@@ -0,0 +1,120 @@
+package org.angiedev.schoolfinder.dao.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.angiedev.schoolfinder.dao.BulkLoadDAO;
+import org.angiedev.schoolfinder.model.District;
+import org.angiedev.schoolfinder.model.School;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations={"/SchoolFinderConfig.xml"})
+public class JdbcBulkLoadDAOTest {
+
+	private static final String DISTRICT_LEA_ID = "1234567";
+	private static final String OTHER_DISTRICT_LEA_ID = "7654321";
+	private static final String SCHOOL_NCES_ID = "Test:NCESID";
+
+	@Autowired
+	BulkLoadDAO bulkLoadDAO;
+
+	@Autowired
+	DataSource dataSource;
+
+	JdbcTemplate jdbcTemplate;
+
+	@Before
+	public void setUp() throws Exception {
+		jdbcTemplate = new JdbcTemplate(dataSource);
+	}
+
+	@Test
+	@Transactional
+	@Rollback(true)
+	public void testUpsertDistricts() throws Exception {
+
+		Map<String, Long> districtIds = bulkLoadDAO.upsertDistricts(Arrays.asList(
+				new District("Test: District Name", DISTRICT_LEA_ID),
+				new District("Test: Other District Name", OTHER_DISTRICT_LEA_ID)));
+		assertEquals(2, districtIds.size());
+		assertNotNull(districtIds.get(DISTRICT_LEA_ID));
+		assertNotNull(districtIds.get(OTHER_DISTRICT_LEA_ID));
+
+		// loading the district again updates it in place
+		Map<String, Long> reloadedIds = bulkLoadDAO.upsertDistricts(Collections.singletonList(
+				new District("Test: New District Name", DISTRICT_LEA_ID)));
+		assertEquals(districtIds.get(DISTRICT_LEA_ID), reloadedIds.get(DISTRICT_LEA_ID));
+		assertEquals("Test: New District Name", jdbcTemplate.queryForObject(
+				"select name from District where lea_id = ?", String.class, DISTRICT_LEA_ID));
+	}
+
+	@Test
+	@Transactional
+	@Rollback(true)
+	public void testUpsertSchoolsKeepsGeoData() throws Exception {
+
+		District district = new District("Test: District Name", DISTRICT_LEA_ID);
+		district.setDistrictId(bulkLoadDAO.upsertDistricts(Collections.singletonList(district)).
+				get(DISTRICT_LEA_ID));
+
+		School school = new School(SCHOOL_NCES_ID, "Test: School Name", "Test: School Address",
+				"Test: School City", "CA", "12345", 1, "01", "06", district);
+		assertEquals(1, bulkLoadDAO.upsertSchools(Collections.singletonList(school)));
+		jdbcTemplate.update("update School set latitude = 37.219836, longitude = -121.861611 where nces_id = ?",
+				SCHOOL_NCES_ID);
+
+		// loading the school again updates its school data but keeps its geo location
+		school.setName("Test: New Name");
+		bulkLoadDAO.upsertSchools(Collections.singletonList(school));
+		assertEquals(Integer.valueOf(1), jdbcTemplate.queryForObject(
+				"select count(*) from School where nces_id = ?", Integer.class, SCHOOL_NCES_ID));
+		assertEquals("Test: New Name", jdbcTemplate.queryForObject(
+				"select name from School where nces_id = ?", String.class, SCHOOL_NCES_ID));
+		assertNotNull(jdbcTemplate.queryForObject(
+				"select latitude from School where nces_id = ?", Double.class, SCHOOL_NCES_ID));
+	}
+
+	@Test
+	@Transactional
+	@Rollback(true)
+	public void testUpsertSchoolsClearsGeoDataWhenAddressChanges() throws Exception {
+
+		District district = new District("Test: District Name", DISTRICT_LEA_ID);
+		district.setDistrictId(bulkLoadDAO.upsertDistricts(Collections.singletonList(district)).
+				get(DISTRICT_LEA_ID));
+
+		School school = new School(SCHOOL_NCES_ID, "Test: School Name", "Test: School Address",
+				"Test: School City", "CA", "12345", 1, "01", "06", district);
+		bulkLoadDAO.upsertSchools(Collections.singletonList(school));
+		jdbcTemplate.update("update School set latitude = 37.219836, longitude = -121.861611, cell_key = 1 " +
+				"where nces_id = ?", SCHOOL_NCES_ID);
+
+		// the school moved, so its old geo location no longer applies
+		school.setStreetAddress("Test: New School Address");
+		bulkLoadDAO.upsertSchools(Collections.singletonList(school));
+		assertEquals("Test: New School Address", jdbcTemplate.queryForObject(
+				"select street_address from School where nces_id = ?", String.class, SCHOOL_NCES_ID));
+		assertNull(jdbcTemplate.queryForObject(
+				"select latitude from School where nces_id = ?", Double.class, SCHOOL_NCES_ID));
+		assertNull(jdbcTemplate.queryForObject(
+				"select longitude from School where nces_id = ?", Double.class, SCHOOL_NCES_ID));
+		assertNull(jdbcTemplate.queryForObject(
+				"select cell_key from School where nces_id = ?", Long.class, SCHOOL_NCES_ID));
+	}
+}
@@ -0,0 +1,150 @@
+package org.angiedev.schoolfinder.dao.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import javax.sql.DataSource;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Benchmark of search statements whose limit is concatenated into the statement text,
+ * as the searches used to be built, against statements with a bound limit, as Hibernate
+ * builds them for setMaxResults.  The same searches, with maxNumResults picked at random,
+ * are run both ways on one connection.  The statement cache hit rate is that of an LRU
+ * cache keyed by statement text the size of the driver's prepared statement cache.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations={"/SchoolFinderConfig.xml"})
+public class SearchStatementBenchmarkTest {
+
+	private static final int NUM_SEARCHES = 2000;
+	private static final int MAX_NUM_RESULTS = 1000;
+
+	// Address of Safeway parking lot in Almaden
+	private static final double LATITUDE = 37.219836;
+	private static final double LONGITUDE = -121.861611;
+
+	private static final String SEARCH_SQL = "select school_id, name, latitude, longitude from School" +
+			" where latitude between ? and ? and longitude between ? and ? order by name";
+
+	@Autowired
+	DataSource dataSource;
+
+	@Value("${jdbc.prepStmtCacheSize:250}")
+	int statementCacheSize;
+
+	@Test
+	public void testBoundLimitIsReusedFromStatementCache() throws Exception {
+
+		// warm up both before measuring
+		runSearches(false, NUM_SEARCHES / 4);
+		runSearches(true, NUM_SEARCHES / 4);
+
+		Result concatenated = runSearches(false, NUM_SEARCHES);
+		Result bound = runSearches(true, NUM_SEARCHES);
+
+		System.out.println("Concatenated limit: " + concatenated);
+		System.out.println("Bound limit:        " + bound);
+
+		assertEquals("A bound limit should have a single statement text", 1, bound.statementTexts);
+		assertTrue("A bound limit should hit the statement cache more often",
+				bound.getHitRate() > concatenated.getHitRate());
+	}
+
+	/* Runs the searches on one connection with their limit either bound or concatenated */
+	private Result runSearches(boolean boundLimit, int numSearches) throws SQLException {
+		Random random = new Random(42);
+		Set<String> statementTexts = new HashSet<String>();
+		StatementCache cache = new StatementCache(statementCacheSize);
+		long elapsedNanos = 0;
+		try (Connection connection = dataSource.getConnection()) {
+			for (int i = 0; i < numSearches; i++) {
+				int maxNumResults = 1 + random.nextInt(MAX_NUM_RESULTS);
+				String sql = SEARCH_SQL + (boundLimit ? " limit ?" : " limit " + maxNumResults);
+				statementTexts.add(sql);
+				cache.lookup(sql);
+				long start = System.nanoTime();
+				try (PreparedStatement statement = connection.prepareStatement(sql)) {
+					statement.setDouble(1, LATITUDE - 0.1);
+					statement.setDouble(2, LATITUDE + 0.1);
+					statement.setDouble(3, LONGITUDE - 0.1);
+					statement.setDouble(4, LONGITUDE + 0.1);
+					if (boundLimit) {
+						statement.setInt(5, maxNumResults);
+					}
+					try (ResultSet rs = statement.executeQuery()) {
+						while (rs.next()) {
+							rs.getString(2);
+						}
+					}
+				}
+				elapsedNanos += System.nanoTime() - start;
+			}
+		}
+		return new Result(numSearches, statementTexts.size(), cache.hits, elapsedNanos);
+	}
+
+	/* LRU cache of statement texts counting its hits */
+	private static final class StatementCache extends LinkedHashMap<String, Boolean> {
+		private static final long serialVersionUID = 1L;
+		private final int maxSize;
+		int hits;
+
+		StatementCache(int maxSize) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		void lookup(String sql) {
+			if (put(sql, Boolean.TRUE) != null) {
+				hits++;
+			}
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+			return size() > maxSize;
+		}
+	}
+
+	/* Statement texts, cache hit rate and latency of a run of searches */
+	private static final class Result {
+		final int searches;
+		final int statementTexts;
+		final int cacheHits;
+		final long elapsedNanos;
+
+		Result(int searches, int statementTexts, int cacheHits, long elapsedNanos) {
+			this.searches = searches;
+			this.statementTexts = statementTexts;
+			this.cacheHits = cacheHits;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		double getHitRate() {
+			return (double)cacheHits / searches;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d statement texts, %.1f%% statement cache hits, %.1f microseconds per search",
+					statementTexts, getHitRate() * 100, elapsedNanos / 1000.0 / searches);
+		}
+	}
+}
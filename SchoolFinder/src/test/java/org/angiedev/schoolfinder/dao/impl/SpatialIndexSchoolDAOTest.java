@@ -0,0 +1,312 @@
+package org.angiedev.schoolfinder.dao.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.angiedev.schoolfinder.dao.DistrictDAO;
+import org.angiedev.schoolfinder.dao.SchoolDAO;
+import org.angiedev.schoolfinder.model.District;
+import org.angiedev.schoolfinder.model.NameMatchMode;
+import org.angiedev.schoolfinder.model.School;
+import org.angiedev.schoolfinder.model.SchoolSearchResult;
+import org.angiedev.schoolfinder.util.GeoDistance;
+import org.angiedev.schoolfinder.util.NameTokens;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Compares the results of the in memory spatial index searches against the
+ * results of the native SQL searches for the schools loaded in the database.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations={"/SchoolFinderConfig.xml"})
+public class SpatialIndexSchoolDAOTest {
+
+	private static final int NUM_SEARCHES = 200;
+	private static final int MAX_RESULTS = 100000;
+
+	// schools this close to the edge of the search radius may be placed on either side
+	// of it due to the FLOAT precision of the database columns
+	private static final double BOUNDARY_TOLERANCE = 0.001;
+
+	private static final String[] SEARCH_STRINGS = { "A", "LIN", "SAN", "WASHINGTON", "ZZZ" };
+
+	// target latency of the fuzzy name searches over the schools in the test database; it has
+	// not been measured against the NCES data set yet, so it is a goal rather than a known bound
+	private static final int NUM_FUZZY_WARMUP_SEARCHES = 500;
+	private static final int NUM_FUZZY_SEARCHES = 2000;
+	private static final long FUZZY_P99_TARGET_MILLIS = 25;
+
+	// longest wait for the index to be rebuilt after a school is changed
+	private static final long REFRESH_TIMEOUT_MILLIS = 30000;
+
+	@Autowired
+	@Qualifier("hibernateSchoolDAO")
+	private SchoolDAO hibernateDAO;
+
+	@Autowired
+	@Qualifier("spatialIndexSchoolDAO")
+	private SchoolDAO indexDAO;
+
+	@Autowired
+	private DistrictDAO districtDAO;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Test
+	public void testChangedSchoolIsFoundAfterIndexIsRebuilt() throws Exception {
+		TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+
+		// a school in the Gulf of Guinea, where no other school is
+		District district = new District("Test: District Name", "1234567");
+		School school = new School("Test:NCESID", "Test: School Name", "Test: School Address",
+				"Test: School City", "CA", "12345", 1, "01", "06", district);
+		school.setLatitude(0.5);
+		school.setLongitude(0.5);
+		transaction.execute(status -> {
+			districtDAO.insertDistrict(district);
+			indexDAO.insertSchool(school);
+			return null;
+		});
+		try {
+			long deadline = System.currentTimeMillis() + REFRESH_TIMEOUT_MILLIS;
+			List<SchoolSearchResult> schools;
+			do {
+				Thread.sleep(100);
+				schools = indexDAO.getSchoolsNearGeoLocation(0.5, 0.5, 1, 10);
+			} while (schools.isEmpty() && System.currentTimeMillis() < deadline);
+
+			assertEquals("Is inserted school found once the index is rebuilt?", 1, schools.size());
+			assertEquals("Test:NCESID", schools.get(0).getSchool().getNcesId());
+		} finally {
+			transaction.execute(status -> {
+				indexDAO.deleteSchool(indexDAO.getSchool(school.getSchoolId()));
+				districtDAO.deleteDistrict(districtDAO.getDistrict(district.getDistrictId()));
+				return null;
+			});
+		}
+	}
+
+	@Test
+	@Transactional
+	public void testGetSchoolsNearGeoLocationMatchesSql() throws Exception {
+		Random random = new Random(42);
+
+		for (int i = 0; i < NUM_SEARCHES; i++) {
+			double latitude = 25 + random.nextDouble() * 24;
+			double longitude = -124 + random.nextDouble() * 57;
+			int searchRadius = 1 + random.nextInt(25);
+
+			List<SchoolSearchResult> expected = hibernateDAO.getSchoolsNearGeoLocation(latitude, longitude,
+					searchRadius, MAX_RESULTS);
+			List<SchoolSearchResult> actual = indexDAO.getSchoolsNearGeoLocation(latitude, longitude,
+					searchRadius, MAX_RESULTS);
+
+			assertSameSchools(latitude, longitude, searchRadius, expected, actual);
+		}
+	}
+
+	@Test
+	@Transactional
+	public void testGetSchoolsNearGeoLocationWithSearchStringMatchesSql() throws Exception {
+		Random random = new Random(7);
+
+		for (int i = 0; i < NUM_SEARCHES; i++) {
+			double latitude = 25 + random.nextDouble() * 24;
+			double longitude = -124 + random.nextDouble() * 57;
+			int searchRadius = 1 + random.nextInt(50);
+			String searchString = SEARCH_STRINGS[random.nextInt(SEARCH_STRINGS.length)];
+
+			List<SchoolSearchResult> expected = hibernateDAO.getSchoolsNearGeoLocation(latitude, longitude,
+					searchRadius, searchString, MAX_RESULTS);
+			List<SchoolSearchResult> actual = indexDAO.getSchoolsNearGeoLocation(latitude, longitude,
+					searchRadius, searchString, MAX_RESULTS);
+
+			assertSameSchools(latitude, longitude, searchRadius, expected, actual);
+		}
+	}
+
+	@Test
+	@Transactional
+	public void testWideSearchMatchesSql() throws Exception {
+		Random random = new Random(5);
+
+		// these search areas cover more grid cells than there are occupied cells
+		for (int i = 0; i < 10; i++) {
+			double latitude = 25 + random.nextDouble() * 24;
+			double longitude = -124 + random.nextDouble() * 57;
+			int searchRadius = 500 + random.nextInt(GeoDistance.MAX_DISTANCE_MILES - 500);
+
+			List<SchoolSearchResult> expected = hibernateDAO.getSchoolsNearGeoLocation(latitude, longitude,
+					searchRadius, "WASHINGTON", MAX_RESULTS);
+			List<SchoolSearchResult> actual = indexDAO.getSchoolsNearGeoLocation(latitude, longitude,
+					searchRadius, "WASHINGTON", MAX_RESULTS);
+
+			assertSameSchools(latitude, longitude, searchRadius, expected, actual);
+		}
+	}
+
+	@Test
+	@Transactional
+	public void testNonPositiveSearchRadiusFindsNothing() throws Exception {
+		for (int searchRadius: new int[] { 0, -15 }) {
+			assertTrue(indexDAO.getSchoolsNearGeoLocation(37.219836, -121.861611, searchRadius, 10).isEmpty());
+			assertTrue(indexDAO.getSchoolsNearestGeoLocation(37.219836, -121.861611, searchRadius, null,
+					NameMatchMode.PREFIX, 10).isEmpty());
+			assertTrue(indexDAO.getSchoolsNearGeoLocation(37.219836, -121.861611, searchRadius, "LINCLON",
+					NameMatchMode.FUZZY, 10).isEmpty());
+		}
+	}
+
+	@Test
+	@Transactional
+	public void testGetSchoolsNearGeoLocationIsLimitedAndOrderedByName() throws Exception {
+		// Address of Safeway parking lot in Almaden
+		List<SchoolSearchResult> schools = indexDAO.getSchoolsNearGeoLocation(37.219836, -121.861611, 15, 10);
+
+		assertEquals(10, schools.size());
+		for (int i = 1; i < schools.size(); i++) {
+			assertTrue("Are schools ordered by name?",
+					schools.get(i - 1).getSchool().getName().compareToIgnoreCase(
+							schools.get(i).getSchool().getName()) <= 0);
+		}
+	}
+
+	@Test
+	@Transactional
+	public void testGetSchoolsNearGeoLocationDistancesMatchSql() throws Exception {
+		Random random = new Random(11);
+
+		for (int i = 0; i < NUM_SEARCHES; i++) {
+			double latitude = 25 + random.nextDouble() * 24;
+			double longitude = -124 + random.nextDouble() * 57;
+			int searchRadius = 1 + random.nextInt(25);
+
+			Map<String, Double> expected = distances(hibernateDAO.getSchoolsNearGeoLocation(latitude, 
+					longitude, searchRadius, MAX_RESULTS));
+			Map<String, Double> actual = distances(indexDAO.getSchoolsNearGeoLocation(latitude, 
+					longitude, searchRadius, MAX_RESULTS));
+
+			for (Map.Entry<String, Double> e: actual.entrySet()) {
+				assertTrue("Is distance within search radius?", e.getValue() < searchRadius);
+				if (expected.containsKey(e.getKey())) {
+					assertEquals("Distance of school " + e.getKey(), expected.get(e.getKey()), 
+							e.getValue(), BOUNDARY_TOLERANCE);
+				}
+			}
+		}
+	}
+
+	@Test
+	@Transactional
+	public void testFuzzySearchLatency() throws Exception {
+		Random random = new Random(3);
+
+		// misspell the names of schools found at random locations
+		List<School> schools = new ArrayList<School>();
+		List<String> misspelledNames = new ArrayList<String>();
+		while (schools.size() < NUM_FUZZY_SEARCHES) {
+			double latitude = 25 + random.nextDouble() * 24;
+			double longitude = -124 + random.nextDouble() * 57;
+			School school = indexDAO.getSchoolsNearestGeoLocation(latitude, longitude, null, null,
+					NameMatchMode.PREFIX, 1).get(0).getSchool();
+			String misspelled = misspell(school.getName(), random);
+			if (misspelled != null) {
+				schools.add(school);
+				misspelledNames.add(misspelled);
+			}
+		}
+
+		for (int i = 0; i < NUM_FUZZY_WARMUP_SEARCHES; i++) {
+			School school = schools.get(i % schools.size());
+			indexDAO.getSchoolsNearGeoLocation(school.getLatitude(), school.getLongitude(), 25,
+					misspelledNames.get(i % schools.size()), NameMatchMode.FUZZY, 10);
+		}
+
+		long[] times = new long[NUM_FUZZY_SEARCHES];
+		for (int i = 0; i < NUM_FUZZY_SEARCHES; i++) {
+			School school = schools.get(i);
+			long start = System.nanoTime();
+			List<SchoolSearchResult> results = indexDAO.getSchoolsNearGeoLocation(school.getLatitude(),
+					school.getLongitude(), 25, misspelledNames.get(i), NameMatchMode.FUZZY, 10);
+			times[i] = System.nanoTime() - start;
+			assertFalse("Was " + school.getName() + " found as " + misspelledNames.get(i) + "?",
+					results.isEmpty());
+		}
+
+		Arrays.sort(times);
+		long p50 = times[NUM_FUZZY_SEARCHES / 2] / 1000;
+		long p99 = times[NUM_FUZZY_SEARCHES * 99 / 100] / 1000;
+		System.out.println("Fuzzy search latency: p50 " + p50 + " us, p99 " + p99 + " us");
+		assertTrue("Is p99 latency of " + p99 + " us within target?", p99 <= FUZZY_P99_TARGET_MILLIS * 1000);
+	}
+
+	/* Deletes or replaces one letter of a word of the name, or returns null if no word is long enough */
+	private String misspell(String name, Random random) {
+		List<String> words = NameTokens.tokenize(name);
+		List<String> longWords = new ArrayList<String>();
+		for (String word: words) {
+			if (word.length() >= 4) {
+				longWords.add(word);
+			}
+		}
+		if (longWords.isEmpty()) {
+			return null;
+		}
+		String word = longWords.get(random.nextInt(longWords.size()));
+		int i = 1 + random.nextInt(word.length() - 1);
+		String typo = random.nextBoolean() ? word.substring(0, i) + word.substring(i + 1) :
+				word.substring(0, i) + (char)('a' + random.nextInt(26)) + word.substring(i + 1);
+		List<String> misspelled = new ArrayList<String>(words);
+		misspelled.set(words.indexOf(word), typo);
+		return String.join(" ", misspelled);
+	}
+
+	private Map<String, Double> distances(List<SchoolSearchResult> results) {
+		Map<String, Double> distances = new HashMap<String, Double>();
+		for (SchoolSearchResult result: results) {
+			distances.put(result.getSchool().getNcesId(), result.getDistance());
+		}
+		return distances;
+	}
+
+	private void assertSameSchools(double latitude, double longitude, int searchRadius,
+			List<SchoolSearchResult> expected, List<SchoolSearchResult> actual) {
+		Set<String> expectedIds = ncesIds(latitude, longitude, searchRadius, expected);
+		Set<String> actualIds = ncesIds(latitude, longitude, searchRadius, actual);
+		assertEquals("Schools near " + latitude + "," + longitude + " within " + searchRadius,
+				expectedIds, actualIds);
+	}
+
+	private Set<String> ncesIds(double latitude, double longitude, int searchRadius,
+			List<SchoolSearchResult> results) {
+		Set<String> ids = new HashSet<String>();
+		for (SchoolSearchResult result: results) {
+			School s = result.getSchool();
+			double distance = GeoDistance.distanceInMiles(latitude, longitude,
+					s.getLatitude(), s.getLongitude());
+			if (Math.abs(distance - searchRadius) > BOUNDARY_TOLERANCE) {
+				ids.add(s.getNcesId());
+			}
+		}
+		return ids;
+	}
+}
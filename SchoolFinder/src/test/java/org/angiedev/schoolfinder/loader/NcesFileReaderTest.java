@@ -0,0 +1,166 @@
+package org.angiedev.schoolfinder.loader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+
+import org.angiedev.schoolfinder.loader.NcesFileReader.Field;
+import org.junit.Test;
+
+public class NcesFileReaderTest {
+
+	private static final String PARSED_HEADER = "NCESSCH\tLEAID\tLEANM\tSCHNAM\tLSTREE\tLCITY\tLSTATE\t" +
+			"LZIP\tSTATUS\tGSLO\tGSHI\n";
+	private static final String PARSED_ROW = "063459005738\t0634590\tSAN JOSE UNIFIED\tSIMONDS ELEMENTARY\t" +
+			"6515 GRAPEVINE WAY\tSAN JOSE\tCA\t95120\t1\tKG\t05";
+
+	private static final String RAW_HEADER = "SURVYEAR\tNCESSCH\tFIPST\tLEAID\tSCHNO\tSTID\tSEASCH\tLEANM\t" +
+			"SCHNAM\tPHONE\tMSTREE\tMCITY\tMSTATE\tMZIP\tMZIP4\tLSTREE\tLCITY\tLSTATE\tLZIP\tLZIP4\tTYPE\t" +
+			"STATUS\tULOCAL\tLATCOD\tGSLO\tGSHI\n";
+	private static final String RAW_ROW = "2014-2015\t063459005738\t06\t0634590\t05738\t43\t6049886\t" +
+			"SAN JOSE UNIFIED\tSIMONDS ELEMENTARY\t4085351000\tPO BOX 1\tSAN JOSE\tCA\t95120\t0000\t" +
+			"6515 GRAPEVINE WAY\tSAN JOSE\tCA\t95120\t1234\t1\t1\t21\t37.223\tKG\t05";
+
+	@Test
+	public void testReadsParsedLayout() throws Exception {
+
+		NcesFileReader reader = reader(PARSED_HEADER + PARSED_ROW + "\n", 64);
+		assertFalse("Parsed layout should be recognized", reader.isRawLayout());
+		assertTrue(reader.next());
+		assertSimonds(reader);
+		assertFalse(reader.next());
+	}
+
+	@Test
+	public void testReadsRawLayout() throws Exception {
+
+		NcesFileReader reader = reader(RAW_HEADER + RAW_ROW + "\n", 64);
+		assertTrue("Raw layout should be recognized", reader.isRawLayout());
+		assertTrue(reader.next());
+		assertSimonds(reader);
+		assertFalse(reader.next());
+	}
+
+	@Test
+	public void testReadsLinesAcrossBufferRefills() throws Exception {
+
+		// CRLF line breaks, a blank line, no line break at the end and lines longer than the buffer
+		StringBuilder data = new StringBuilder(PARSED_HEADER);
+		for (int i = 0; i < 100; i++) {
+			data.append(PARSED_ROW.replace("063459005738", String.format("%012d", i))).append("\r\n");
+			if (i == 50) {
+				data.append("\r\n");
+			}
+		}
+		data.append(PARSED_ROW);
+
+		NcesFileReader reader = reader(data.toString(), 16);
+		for (int i = 0; i < 100; i++) {
+			assertTrue(reader.next());
+			assertEquals(String.format("%012d", i), reader.get(Field.NCES_ID));
+			assertEquals("05", reader.get(Field.HIGH_GRADE));
+		}
+		assertTrue(reader.next());
+		assertSimonds(reader);
+		assertFalse(reader.next());
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testRejectsShortLine() throws Exception {
+
+		reader(PARSED_HEADER + "063459005738\t0634590\n", 64).next();
+	}
+
+	@Test
+	public void testThroughputComparedToScanner() throws Exception {
+
+		File file = File.createTempFile("nces", ".txt");
+		file.deleteOnExit();
+		int numRows = 200000;
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.ISO_8859_1)) {
+			writer.write(RAW_HEADER);
+			for (int i = 0; i < numRows; i++) {
+				writer.write(RAW_ROW.replace("063459005738", String.format("%012d", i)));
+				writer.write('\n');
+			}
+		}
+
+		// warm up both before measuring
+		readWithScanner(file);
+		readWithReader(file);
+
+		long start = System.nanoTime();
+		int scannerRows = readWithScanner(file);
+		double scannerSeconds = (System.nanoTime() - start) / 1e9;
+
+		start = System.nanoTime();
+		int readerRows = readWithReader(file);
+		double readerSeconds = (System.nanoTime() - start) / 1e9;
+
+		double megabytes = file.length() / 1e6;
+		System.out.println(String.format("Scanner and split: %.0f rows/sec, %.1f MB/sec",
+				scannerRows / scannerSeconds, megabytes / scannerSeconds));
+		System.out.println(String.format("NcesFileReader:    %.0f rows/sec, %.1f MB/sec",
+				readerRows / readerSeconds, megabytes / readerSeconds));
+
+		assertEquals(numRows, scannerRows);
+		assertEquals(numRows, readerRows);
+	}
+
+	/* Reads the school fields of each row the way the loader used to */
+	private static int readWithScanner(File file) throws IOException {
+		int numRows = 0;
+		try (Scanner scanner = new Scanner(new FileInputStream(file), "ISO-8859-1")) {
+			scanner.nextLine();
+			while (scanner.hasNext()) {
+				String[] tokens = scanner.nextLine().split("\t");
+				if (Integer.parseInt(tokens[21]) >= 0 && tokens[1].length() > 0) {
+					numRows++;
+				}
+			}
+		}
+		return numRows;
+	}
+
+	/* Reads the school fields of each row with an NcesFileReader */
+	private static int readWithReader(File file) throws IOException {
+		int numRows = 0;
+		try (NcesFileReader reader = new NcesFileReader(file.getPath())) {
+			while (reader.next()) {
+				if (reader.getInt(Field.STATUS) >= 0 && reader.get(Field.NCES_ID).length() > 0) {
+					numRows++;
+				}
+			}
+		}
+		return numRows;
+	}
+
+	private static NcesFileReader reader(String data, int bufferSize) throws IOException {
+		return new NcesFileReader(new ByteArrayInputStream(data.getBytes(StandardCharsets.ISO_8859_1)),
+				StandardCharsets.ISO_8859_1, bufferSize);
+	}
+
+	private static void assertSimonds(NcesFileReader reader) {
+		assertEquals("063459005738", reader.get(Field.NCES_ID));
+		assertEquals("0634590", reader.get(Field.LEA_ID));
+		assertEquals("SAN JOSE UNIFIED", reader.get(Field.DISTRICT));
+		assertEquals("SIMONDS ELEMENTARY", reader.get(Field.SCHOOL));
+		assertEquals("6515 GRAPEVINE WAY", reader.get(Field.ADDRESS));
+		assertEquals("SAN JOSE", reader.get(Field.CITY));
+		assertEquals("CA", reader.get(Field.STATE));
+		assertEquals("95120", reader.get(Field.ZIP));
+		assertEquals(1, reader.getInt(Field.STATUS));
+		assertEquals("KG", reader.get(Field.LOW_GRADE));
+		assertEquals("05", reader.get(Field.HIGH_GRADE));
+	}
+}
@@ -0,0 +1,210 @@
+package org.angiedev.schoolfinder.loader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.angiedev.schoolfinder.dao.BulkLoadDAO;
+import org.angiedev.schoolfinder.model.District;
+import org.angiedev.schoolfinder.model.School;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DeadlockLoserDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations={"/SchoolFinderConfig.xml"})
+public class SchoolLoadPipelineTest {
+
+	private static final String PARSED_HEADER = "NCESSCH\tLEAID\tLEANM\tSCHNAM\tLSTREE\tLCITY\tLSTATE\t" +
+			"LZIP\tSTATUS\tGSLO\tGSHI\n";
+
+	// lea ids of the test districts, which the NCES ids of their schools start with
+	private static final String LEA_ID_PREFIX = "T9";
+	private static final int NUM_DISTRICTS = 3;
+	private static final int NUM_SCHOOLS = 30;
+
+	private static final int NUM_WORKERS = 2;
+	private static final int BATCH_SIZE = 4;
+	private static final long TIMEOUT_MILLIS = 60000;
+
+	@Autowired
+	SchoolLoadPipeline pipeline;
+
+	@Autowired
+	BulkLoadDAO bulkLoadDAO;
+
+	@Autowired
+	DataSource dataSource;
+
+	JdbcTemplate jdbcTemplate;
+
+	@Before
+	public void setUp() throws Exception {
+		jdbcTemplate = new JdbcTemplate(dataSource);
+	}
+
+	// the pipeline commits each batch, so the rows it wrote are deleted here
+	@After
+	public void tearDown() throws Exception {
+		jdbcTemplate.update("delete from School where nces_id like ?", LEA_ID_PREFIX + "%");
+		jdbcTemplate.update("delete from District where lea_id like ?", LEA_ID_PREFIX + "%");
+	}
+
+	@Test(timeout = TIMEOUT_MILLIS)
+	public void testLoadsEverySchool() throws Exception {
+
+		pipeline.load(reader(data(NUM_SCHOOLS, -1)), NUM_WORKERS, BATCH_SIZE);
+
+		assertEquals(NUM_SCHOOLS, countSchools());
+		assertEquals(NUM_DISTRICTS, countDistricts());
+
+		// loading the file again updates the rows in place
+		pipeline.load(reader(data(NUM_SCHOOLS, -1)), NUM_WORKERS, BATCH_SIZE);
+		assertEquals(NUM_SCHOOLS, countSchools());
+		assertEquals(NUM_DISTRICTS, countDistricts());
+	}
+
+	@Test(timeout = TIMEOUT_MILLIS)
+	public void testRetriesBatchThatLostDeadlock() throws Exception {
+
+		StubBulkLoadDAO stubDAO = new StubBulkLoadDAO(bulkLoadDAO, 2, null);
+		pipeline(stubDAO).load(reader(data(NUM_SCHOOLS, -1)), NUM_WORKERS, BATCH_SIZE);
+
+		assertEquals(2, stubDAO.deadlocks.get());
+		assertEquals(NUM_SCHOOLS, countSchools());
+	}
+
+	@Test(timeout = TIMEOUT_MILLIS)
+	public void testFailedParserStopsOtherStages() throws Exception {
+
+		// a row missing its columns half way through the file
+		try {
+			pipeline.load(reader(data(NUM_SCHOOLS, NUM_SCHOOLS / 2)), NUM_WORKERS, BATCH_SIZE);
+			fail("Load of a malformed file should fail");
+		} catch (IllegalStateException e) {
+			assertTrue("Was the parser's failure passed on? " + e, e.getMessage().startsWith("Line "));
+		}
+		assertTrue("Were the rows after the malformed one left out?", countSchools() <= NUM_SCHOOLS / 2);
+	}
+
+	@Test(timeout = TIMEOUT_MILLIS)
+	public void testFailedWriterStopsOtherStages() throws Exception {
+
+		StubBulkLoadDAO stubDAO = new StubBulkLoadDAO(bulkLoadDAO, 0, ncesId(0));
+		try {
+			pipeline(stubDAO).load(reader(data(NUM_SCHOOLS, -1)), NUM_WORKERS, BATCH_SIZE);
+			fail("Load of a school that can't be written should fail");
+		} catch (DataIntegrityViolationException e) {
+			// the writer's failure is passed on, rather than that of the stages it stopped
+		}
+		assertTrue("Were the other batches left out?", countSchools() < NUM_SCHOOLS - BATCH_SIZE);
+	}
+
+	/* Returns a pipeline writing through the passed in DAO */
+	private SchoolLoadPipeline pipeline(BulkLoadDAO dao) {
+		SchoolLoadPipeline stubPipeline = new SchoolLoadPipeline();
+		ReflectionTestUtils.setField(stubPipeline, "bulkLoadDAO", dao);
+		ReflectionTestUtils.setField(stubPipeline, "transactionManager",
+				ReflectionTestUtils.getField(pipeline, "transactionManager"));
+		return stubPipeline;
+	}
+
+	/*
+	 * Returns a parsed layout data file of the passed in number of schools spread over the
+	 * test districts, the school at malformedRow having no columns after its NCES id
+	 */
+	private static String data(int numSchools, int malformedRow) {
+		StringBuilder data = new StringBuilder(PARSED_HEADER);
+		for (int i = 0; i < numSchools; i++) {
+			String leaId = leaId(i);
+			String ncesId = ncesId(i);
+			if (i == malformedRow) {
+				data.append(ncesId).append("\n");
+				continue;
+			}
+			data.append(String.join("\t", ncesId, leaId, "TEST DISTRICT " + leaId, "TEST SCHOOL " + i,
+					i + " MAIN STREET", "SAN JOSE", "CA", "95120", "1", "KG", "05"));
+			data.append("\n");
+		}
+		return data.toString();
+	}
+
+	private static String leaId(int school) {
+		return LEA_ID_PREFIX + String.format("%05d", school % NUM_DISTRICTS);
+	}
+
+	private static String ncesId(int school) {
+		return leaId(school) + String.format("%05d", school);
+	}
+
+	private static NcesFileReader reader(String data) throws Exception {
+		return new NcesFileReader(new ByteArrayInputStream(data.getBytes(StandardCharsets.ISO_8859_1)));
+	}
+
+	private int countSchools() {
+		return jdbcTemplate.queryForObject("select count(*) from School where nces_id like ?", Integer.class,
+				LEA_ID_PREFIX + "%");
+	}
+
+	private int countDistricts() {
+		return jdbcTemplate.queryForObject("select count(*) from District where lea_id like ?", Integer.class,
+				LEA_ID_PREFIX + "%");
+	}
+
+	/* 
+	 * BulkLoadDAO whose first school upserts lose a deadlock, as MySQL reports it, and that
+	 * fails to write the batch of the passed in school
+	 */
+	private static class StubBulkLoadDAO implements BulkLoadDAO {
+
+		final BulkLoadDAO dao;
+		final AtomicInteger deadlocksLeft;
+		final AtomicInteger deadlocks = new AtomicInteger();
+		final String failingNcesId;
+
+		StubBulkLoadDAO(BulkLoadDAO dao, int numDeadlocks, String failingNcesId) {
+			this.dao = dao;
+			this.deadlocksLeft = new AtomicInteger(numDeadlocks);
+			this.failingNcesId = failingNcesId;
+		}
+
+		@Override
+		public Map<String, Long> upsertDistricts(Collection<District> districts) {
+			return dao.upsertDistricts(districts);
+		}
+
+		@Override
+		public int upsertSchools(List<School> schools) {
+			// the rows written are rolled back along with the transaction
+			int numWritten = dao.upsertSchools(schools);
+			if (deadlocksLeft.getAndDecrement() > 0) {
+				deadlocks.incrementAndGet();
+				throw new DeadlockLoserDataAccessException("Deadlock found when trying to get lock; " +
+						"try restarting transaction", null);
+			}
+			for (School school: schools) {
+				if (school.getNcesId().equals(failingNcesId)) {
+					throw new DataIntegrityViolationException("Data too long for column 'state'");
+				}
+			}
+			return numWritten;
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package org.angiedev.schoolfinder.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.angiedev.schoolfinder.dao.GeoCodeCacheDAO;
+import org.angiedev.schoolfinder.model.Address;
+import org.angiedev.schoolfinder.model.GeoCodeCacheEntry;
+import org.angiedev.schoolfinder.model.GeoLocation;
+import org.angiedev.schoolfinder.service.BatchGeoLocationService;
+import org.angiedev.schoolfinder.service.GeoLocationNotFoundException;
+import org.angiedev.schoolfinder.service.GeoLocationThrottledException;
+import org.angiedev.schoolfinder.util.AddressKey;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations={"/SchoolFinderConfig.xml"})
+public class CachingGeoLocationServiceTest {
+
+	@Autowired
+	GeoCodeCacheDAO cacheDAO;
+
+	// provider finding every address except those on "Nowhere" streets
+	StubProvider provider = new StubProvider();
+
+	@Test
+	public void testNormalizesAddress() {
+
+		assertEquals(AddressKey.normalize("6515 Grapevine Way", "San Jose", "CA", "95120"),
+				AddressKey.normalize("  6515 GRAPEVINE   WAY ", "san jose", "ca", "95120-1234"));
+		assertEquals(AddressKey.normalize("10 North Main Street, Suite 2", "Saint Paul", "MN", "55101"),
+				AddressKey.normalize("10 N. Main St. Ste 2", "St Paul", "MN", "55101"));
+	}
+
+	@Test
+	@Transactional
+	@Rollback(true)
+	public void testRepeatLookupIsAnsweredFromCache() throws Exception {
+
+		CachingGeoLocationService service = new CachingGeoLocationService(provider, "stub", cacheDAO);
+		GeoLocation geoLocation = service.getGeoLocationForAddress("Test: 1 Main Street", "San Jose", "CA", "95120");
+		assertEquals(1, provider.lookups.get());
+
+		// another way of writing the address, by a new service as after a restart
+		service = new CachingGeoLocationService(provider, "other", cacheDAO);
+		GeoLocation cached = service.getGeoLocationForAddress("Test: 1 MAIN ST", "San Jose", "CA", "95120");
+		assertEquals(1, provider.lookups.get());
+		assertEquals(geoLocation, cached);
+		assertEquals(1, service.getHitCount());
+
+		GeoCodeCacheEntry entry = cacheDAO.getEntry(AddressKey.normalize("Test: 1 Main St", "San Jose", "CA", "95120"));
+		assertEquals("stub", entry.getSource());
+	}
+
+	@Test
+	@Transactional
+	@Rollback(true)
+	public void testFailureIsCachedUntilExpired() throws Exception {
+
+		CachingGeoLocationService service = new CachingGeoLocationService(provider, "stub", cacheDAO);
+		assertLookupFails(service, "Test: 1 Nowhere Lane");
+		assertLookupFails(service, "Test: 1 Nowhere Lane");
+		assertEquals("Known bad address should not be looked up again", 1, provider.lookups.get());
+		assertEquals(1, service.getFailureHitCount());
+
+		service.setFailureTtlHours(0);
+		assertLookupFails(service, "Test: 1 Nowhere Lane");
+		assertEquals("Expired failure should be looked up again", 2, provider.lookups.get());
+	}
+
+	@Test
+	@Transactional
+	@Rollback(true)
+	public void testThrottledLookupIsNotCached() throws Exception {
+
+		provider.throttle = true;
+		CachingGeoLocationService service = new CachingGeoLocationService(provider, "stub", cacheDAO);
+		try {
+			service.getGeoLocationForAddress("Test: 1 Main Street", "San Jose", "CA", "95120");
+			fail("Throttled lookup should fail");
+		} catch (GeoLocationThrottledException e) {
+			assertNull(cacheDAO.getEntry(AddressKey.normalize("Test: 1 Main Street", "San Jose", "CA", "95120")));
+		}
+	}
+
+	@Test
+	@Transactional
+	@Rollback(true)
+	public void testProviderErrorIsNotCached() throws Exception {
+
+		provider.error = true;
+		CachingGeoLocationService service = new CachingGeoLocationService(provider, "stub", cacheDAO);
+		assertLookupFails(service, "Test: 1 Main Street");
+		assertNull(cacheDAO.getEntry(AddressKey.normalize("Test: 1 Main Street", "San Jose", "CA", "95120")));
+
+		// the address is looked up again once the provider is back
+		provider.error = false;
+		service.getGeoLocationForAddress("Test: 1 Main Street", "San Jose", "CA", "95120");
+		assertEquals(2, provider.lookups.get());
+	}
+
+	@Test
+	@Transactional
+	@Rollback(true)
+	public void testBatchSendsOnlyUncachedAddresses() throws Exception {
+
+		CachingBatchGeoLocationService service = new CachingBatchGeoLocationService(provider, "stub", cacheDAO);
+		service.getGeoLocationForAddress("Test: 1 Main Street", "San Jose", "CA", "95120");
+		assertLookupFails(service, "Test: 1 Nowhere Lane");
+
+		Map<String, GeoLocation> geoLocations = service.getGeoLocationsForAddresses(Arrays.asList(
+				new Address("a", "Test: 1 Main St", "San Jose", "CA", "95120"),
+				new Address("b", "Test: 1 Nowhere Lane", "San Jose", "CA", "95120"),
+				new Address("c", "Test: 2 Main Street", "San Jose", "CA", "95120"),
+				new Address("d", "Test: 2 Main St", "San Jose", "CA", "95120")));
+
+		assertEquals("Only the uncached address should be sent", 1, provider.batchAddresses.get());
+		assertEquals(3, geoLocations.size());
+		assertNull(geoLocations.get("b"));
+		assertEquals(geoLocations.get("c"), geoLocations.get("d"));
+
+		service.getGeoLocationsForAddresses(Arrays.asList(new Address("c", "Test: 2 Main Street", "San Jose", "CA", "95120")));
+		assertEquals("Batch results should be cached", 1, provider.batchAddresses.get());
+	}
+
+	private static void assertLookupFails(CachingGeoLocationService service, String address) {
+		try {
+			service.getGeoLocationForAddress(address, "San Jose", "CA", "95120");
+			fail("Lookup of " + address + " should fail");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	/* Provider placing each address it finds at a latitude taken from its street number */
+	private static class StubProvider implements BatchGeoLocationService {
+
+		final AtomicInteger lookups = new AtomicInteger();
+		final AtomicInteger batchAddresses = new AtomicInteger();
+		volatile boolean throttle;
+		volatile boolean error;
+
+		@Override
+		public GeoLocation getGeoLocationForAddress(String address, String city, String stateCode, String zip)
+				throws IOException {
+			lookups.incrementAndGet();
+			if (throttle) {
+				throw new GeoLocationThrottledException("Too many requests", 0);
+			} else if (error) {
+				throw new IOException("REQUEST_DENIED: The provided API key is invalid");
+			} else if (address.contains("Nowhere")) {
+				throw new GeoLocationNotFoundException("Address not found: " + address);
+			}
+			GeoLocation geoLocation = new GeoLocation();
+			geoLocation.setLatitude(37 + Integer.parseInt(address.replaceAll("\\D", "")) / 100.0);
+			geoLocation.setLongitude(-121.5);
+			return geoLocation;
+		}
+
+		@Override
+		public Map<String, GeoLocation> getGeoLocationsForAddresses(List<Address> addresses) throws IOException {
+			Map<String, GeoLocation> geoLocations = new HashMap<String, GeoLocation>();
+			for (Address address: addresses) {
+				batchAddresses.incrementAndGet();
+				if (!address.getStreetAddress().contains("Nowhere")) {
+					geoLocations.put(address.getId(), getGeoLocationForAddress(address.getStreetAddress(),
+							address.getCity(), address.getStateCode(), address.getZip()));
+				}
+			}
+			return geoLocations;
+		}
+
+		@Override
+		public int getMaxBatchSize() {
+			return 100;
+		}
+	}
+}
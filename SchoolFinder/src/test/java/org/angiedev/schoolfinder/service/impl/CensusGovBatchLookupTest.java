@@ -0,0 +1,146 @@
+package org.angiedev.schoolfinder.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.angiedev.schoolfinder.model.Address;
+import org.angiedev.schoolfinder.model.GeoLocation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class CensusGovBatchLookupTest {
+
+	// a line of the uploaded address file: id, street address, city, state, zip
+	private static final Pattern ADDRESS_LINE = Pattern.compile("^\"(\\d+)\",\"(.*)\",\"(.*)\",\"(.*)\",\"(.*)\"$");
+
+	private HttpServer server;
+	private final AtomicInteger batches = new AtomicInteger();
+	private final List<String> uploadedLines = new ArrayList<String>();
+	private volatile int numThrottled;
+
+	@Before
+	public void setUp() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/geocoder/locations/addressbatch", this::handle);
+		server.start();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	@Test
+	public void testLooksUpBatch() throws Exception {
+
+		List<Address> addresses = new ArrayList<Address>();
+		for (int i = 1; i <= 100; i++) {
+			addresses.add(new Address(String.valueOf(i), i + " Main St", "San Jose", "CA", "95120"));
+		}
+		addresses.add(new Address("1000", "6515 \"A\" Grapevine Way, Suite 1", "San Jose", "CA", "95120"));
+
+		Map<String, GeoLocation> geoLocations = service().getGeoLocationsForAddresses(addresses);
+
+		assertEquals("One request should lookup the whole batch", 1, batches.get());
+		assertEquals(101, uploadedLines.size());
+		// the stand-in matches the even ids only
+		assertEquals(51, geoLocations.size());
+		assertFalse("Unmatched address should be left out", geoLocations.containsKey("7"));
+		assertEquals(37.42, geoLocations.get("42").getLatitude(), 0.0001);
+		assertEquals(-121.42, geoLocations.get("42").getLongitude(), 0.0001);
+		assertTrue("Quotes and commas should be escaped",
+				uploadedLines.contains("\"1000\",\"6515 \"\"A\"\" Grapevine Way, Suite 1\",\"San Jose\",\"CA\",\"95120\""));
+		assertEquals(38, geoLocations.get("1000").getLatitude(), 0.0001);
+	}
+
+	@Test
+	public void testRetriesThrottledBatch() throws Exception {
+
+		numThrottled = 2;
+		RateLimitedBatchGeoLocationService service = new RateLimitedBatchGeoLocationService(service(), 10);
+		service.setInitialBackoffMillis(10);
+
+		Map<String, GeoLocation> geoLocations = service.getGeoLocationsForAddresses(
+				Collections.singletonList(new Address("2", "2 Main St", "San Jose", "CA", "95120")));
+
+		assertEquals(3, batches.get());
+		assertEquals(2, service.getThrottledCount());
+		assertEquals(37.02, geoLocations.get("2").getLatitude(), 0.0001);
+	}
+
+	private CensusGovGeoLocationService service() {
+		CensusGovGeoLocationService census = new CensusGovGeoLocationService();
+		census.setBatchUrl("http://localhost:" + server.getAddress().getPort() + "/geocoder/locations/addressbatch");
+		return census;
+	}
+
+	/*
+	 * Stand-in for the batch lookup: matches the addresses with even ids (at latitude 37 and
+	 * longitude -121 plus a hundredth of the id) and the one with id 1000, and throttles the
+	 * first numThrottled batches
+	 */
+	private void handle(HttpExchange exchange) throws IOException {
+		int batch = batches.incrementAndGet();
+		String upload = read(exchange.getRequestBody());
+		StringBuilder response = new StringBuilder();
+		int status = 200;
+		if (batch <= numThrottled) {
+			status = 429;
+			response.append("Too many requests");
+		} else {
+			for (String line: upload.split("\r\n")) {
+				Matcher address = ADDRESS_LINE.matcher(line);
+				if (address.matches()) {
+					uploadedLines.add(line);
+					int id = Integer.parseInt(address.group(1));
+					response.append('"').append(id).append("\",\"").append(address.group(2).replace("\"\"", "'"))
+						.append(", San Jose, CA, 95120\",");
+					if (id == 1000) {
+						response.append("\"Match\",\"Exact\",\"6515 GRAPEVINE WAY, SAN JOSE, CA, 95120\"," +
+								"\"-121,38\",\"1\",\"L\"\n");
+					} else if (id % 2 == 0) {
+						response.append("\"Match\",\"Non_Exact\",\"MAIN ST, SAN JOSE, CA, 95120\",\"")
+							.append(-121 - id / 100.0).append(',').append(37 + id / 100.0).append("\",\"1\",\"R\"\n");
+					} else {
+						response.append("\"No_Match\"\n");
+					}
+				}
+			}
+		}
+		byte[] body = response.toString().getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/csv");
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private static String read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = in.read(buffer)) > 0) {
+			out.write(buffer, 0, n);
+		}
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,226 @@
+package org.angiedev.schoolfinder.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import org.angiedev.schoolfinder.model.GeoLocation;
+import org.angiedev.schoolfinder.util.PooledRestTemplateFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Benchmark of geo location lookups made with a new RestTemplate for each lookup, as
+ * the services used to make them, against lookups made with the shared, pooled
+ * RestTemplate of {@link PooledRestTemplateFactory}.  The lookups are made one after
+ * another against a stub of the Census geocoder on localhost, which counts the
+ * connections opened and answers in gzip when asked to.
+ * <p>
+ * A new RestTemplate per lookup still reuses its connection, since HttpURLConnection
+ * keeps connections alive in a JVM wide cache, so what the pooled RestTemplate saves
+ * over it is rebuilding the RestTemplate and its message converters, and the size of
+ * uncompressed responses.  What reusing a connection saves is measured by running the
+ * pooled RestTemplate against the stub closing each connection after its response.
+ * Being on localhost without TLS, that leaves out the round trips and handshake a new
+ * connection to a real provider would cost.
+ * <p>
+ * The stub is a plain socket server that disables Nagle's algorithm on its connections
+ * and writes each response in one write, so responses don't stall on delayed ACKs.
+ */
+public class GeoLocationHttpClientBenchmarkTest {
+
+	private static final int WARM_UP_LOOKUPS = 200;
+	private static final int LOOKUPS = 1000;
+
+	private static final String MATCH = "{\"result\":{\"input\":{\"benchmark\":{\"id\":\"4\"," +
+			"\"benchmarkName\":\"Public_AR_Current\",\"isDefault\":true},\"address\":" +
+			"{\"address\":\"1 Infinite Loop,Cupertino,CA,95014\"}},\"addressMatches\":[{\"matchedAddress\":" +
+			"\"1 INFINITE LOOP, CUPERTINO, CA, 95014\",\"coordinates\":{\"x\":-122.02158463013," +
+			"\"y\":37.3174643482011},\"tigerLine\":{\"tigerLineId\":\"647318405\",\"side\":\"L\"}," +
+			"\"addressComponents\":{\"fromAddress\":\"1\",\"toAddress\":\"99\",\"preQualifier\":\"\"," +
+			"\"preDirection\":\"\",\"preType\":\"\",\"streetName\":\"INFINITE\",\"suffixType\":\"LOOP\"," +
+			"\"suffixDirection\":\"\",\"suffixQualifier\":\"\",\"city\":\"CUPERTINO\",\"state\":\"CA\"," +
+			"\"zip\":\"95014\"}}]}}";
+
+	private ServerSocket server;
+	private ExecutorService serverThreads;
+	private final Set<Socket> openSockets = ConcurrentHashMap.newKeySet();
+	private String lookupUrl;
+	// remote ports of the connections made to the stub
+	private final Set<Integer> connections = ConcurrentHashMap.newKeySet();
+	private final AtomicInteger gzipResponses = new AtomicInteger();
+	// whether the stub closes each connection after its response
+	private volatile boolean closeConnections;
+
+	private PooledRestTemplateFactory restTemplateFactory;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new ServerSocket(0, 50, InetAddress.getByName("localhost"));
+		serverThreads = Executors.newCachedThreadPool();
+		serverThreads.execute(this::accept);
+		lookupUrl = "http://localhost:" + server.getLocalPort() + "/geocoder?";
+		restTemplateFactory = new PooledRestTemplateFactory();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		restTemplateFactory.destroy();
+		server.close();
+		for (Socket socket: openSockets) {
+			socket.close();
+		}
+		serverThreads.shutdownNow();
+	}
+
+	@Test
+	public void testPooledClientLookupLatency() throws Exception {
+
+		CensusGovGeoLocationService service = new CensusGovGeoLocationService();
+		service.setLookupUrl(lookupUrl);
+
+		run(service, null, WARM_UP_LOOKUPS);
+		Result perLookup = run(service, null, LOOKUPS);
+		RestTemplate pooled = restTemplateFactory.getObject();
+		run(service, pooled, WARM_UP_LOOKUPS);
+		Result shared = run(service, pooled, LOOKUPS);
+
+		closeConnections = true;
+		run(service, pooled, WARM_UP_LOOKUPS);
+		Result newConnections = run(service, pooled, LOOKUPS);
+
+		System.out.println("New RestTemplate per lookup:        " + perLookup);
+		System.out.println("Pooled RestTemplate:                " + shared);
+		System.out.println("Pooled RestTemplate, no keep-alive: " + newConnections);
+
+		assertEquals("HttpURLConnection should keep its connection alive", 1, perLookup.connections);
+		assertEquals("Lookups should reuse one pooled connection", 1, shared.connections);
+		assertEquals("Each lookup should open a connection", LOOKUPS, newConnections.connections);
+		assertEquals("Responses should be gzip compressed", LOOKUPS, shared.gzipResponses);
+		assertTrue("Pooled lookups should be faster", shared.elapsedNanos < perLookup.elapsedNanos);
+	}
+
+	/*
+	 * Makes the passed in number of lookups with the pooled RestTemplate, or with a new
+	 * RestTemplate for each lookup if it is null
+	 */
+	private Result run(CensusGovGeoLocationService service, RestTemplate pooled, int lookups) throws IOException {
+		connections.clear();
+		gzipResponses.set(0);
+		long start = System.nanoTime();
+		for (int i = 0; i < lookups; i++) {
+			service.setRestTemplate(pooled != null ? pooled : new RestTemplate());
+			GeoLocation geoLocation = service.getGeoLocationForAddress(i + " Infinite Loop", "Cupertino", "CA", "95014");
+			assertEquals(37.3174643482011, geoLocation.getLatitude(), 1e-9);
+		}
+		return new Result(lookups, System.nanoTime() - start, connections.size(), gzipResponses.get());
+	}
+
+	/* Accepts connections to the stub until it is closed */
+	private void accept() {
+		while (true) {
+			try {
+				Socket socket = server.accept();
+				socket.setTcpNoDelay(true);
+				openSockets.add(socket);
+				serverThreads.execute(() -> serve(socket));
+			} catch (IOException e) {
+				return;		// closed by tearDown
+			}
+		}
+	}
+
+	/*
+	 * Answers the requests made on a keep-alive connection until the client closes it, or
+	 * until the first response if the stub closes its connections
+	 */
+	private void serve(Socket socket) {
+		try (Socket s = socket) {
+			BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(),
+					StandardCharsets.ISO_8859_1));
+			OutputStream out = s.getOutputStream();
+			while (in.readLine() != null) {
+				boolean gzip = false;
+				boolean close = closeConnections;
+				for (String header = in.readLine(); header != null && !header.isEmpty(); header = in.readLine()) {
+					String lowerCase = header.toLowerCase(Locale.ROOT);
+					if (lowerCase.startsWith("accept-encoding:") && lowerCase.contains("gzip")) {
+						gzip = true;
+					} else if (lowerCase.startsWith("connection:") && lowerCase.contains("close")) {
+						close = true;
+					}
+				}
+				connections.add(s.getPort());
+				out.write(response(gzip, close));
+				out.flush();
+				if (close) {
+					return;
+				}
+			}
+		} catch (IOException e) {
+			// connection dropped by the client or closed by tearDown
+		} finally {
+			openSockets.remove(socket);
+		}
+	}
+
+	/* Returns the status line, headers and body of a match response */
+	private byte[] response(boolean gzip, boolean close) throws IOException {
+		byte[] body = MATCH.getBytes(StandardCharsets.UTF_8);
+		if (gzip) {
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+				out.write(body);
+			}
+			body = compressed.toByteArray();
+			gzipResponses.incrementAndGet();
+		}
+		String headers = "HTTP/1.1 200 OK\r\nContent-Type: application/json\r\n" +
+				(gzip ? "Content-Encoding: gzip\r\n" : "") + (close ? "Connection: close\r\n" : "") +
+				"Content-Length: " + body.length + "\r\n\r\n";
+		ByteArrayOutputStream response = new ByteArrayOutputStream();
+		response.write(headers.getBytes(StandardCharsets.ISO_8859_1));
+		response.write(body);
+		return response.toByteArray();
+	}
+
+	/* Latency, connections opened and compressed responses of a run of lookups */
+	private static final class Result {
+
+		final int lookups;
+		final long elapsedNanos;
+		final int connections;
+		final int gzipResponses;
+
+		Result(int lookups, long elapsedNanos, int connections, int gzipResponses) {
+			this.lookups = lookups;
+			this.elapsedNanos = elapsedNanos;
+			this.connections = connections;
+			this.gzipResponses = gzipResponses;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d lookups, %.1f us per lookup, %d connections, %d gzip responses",
+					lookups, elapsedNanos / 1000.0 / lookups, connections, gzipResponses);
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package org.angiedev.schoolfinder.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.angiedev.schoolfinder.model.GeoLocation;
+import org.angiedev.schoolfinder.service.GeoLocationThrottledException;
+import org.angiedev.schoolfinder.util.TokenBucket;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class RateLimitedGeoLocationServiceTest {
+
+	private static final String MATCH = "{\"result\":{\"addressMatches\":[{\"coordinates\":" +
+			"{\"x\":-122.02158463013,\"y\":37.3174643482011}}]}}";
+
+	private HttpServer server;
+	private final AtomicInteger requests = new AtomicInteger();
+	private final AtomicInteger throttled = new AtomicInteger();
+	// decides whether the stub geocoder throttles a request
+	private volatile Throttle throttle = request -> false;
+
+	private interface Throttle {
+		boolean throttle(int request);
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/geocoder", this::handle);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	@Test
+	public void testLimitsRate() throws Exception {
+
+		RateLimitedGeoLocationService service = service(20);
+		long start = System.nanoTime();
+		lookUpConcurrently(service, 50, 8);
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		// a burst of 20 lookups, the other 30 at 20 a second
+		assertEquals(50, requests.get());
+		assertTrue("Lookups should be held to the rate, took " + seconds + " seconds", seconds > 1.3);
+	}
+
+	@Test
+	public void testBacksOffAndRetriesWhenThrottled() throws Exception {
+
+		throttle = request -> request <= 3;
+		RateLimitedGeoLocationService service = service(100);
+		service.setInitialBackoffMillis(50);
+
+		lookUpConcurrently(service, 10, 4);
+
+		assertEquals(3, service.getThrottledCount());
+		assertEquals(13, service.getLookupCount());
+		assertTrue("Rate should be lowered, is " + service.getRequestsPerSecond(),
+				service.getRequestsPerSecond() < service.getMaxRequestsPerSecond());
+	}
+
+	@Test
+	public void testGivesUpWhenStillThrottled() throws Exception {
+
+		throttle = request -> true;
+		RateLimitedGeoLocationService service = service(100);
+		service.setMaxRetries(2);
+		service.setInitialBackoffMillis(10);
+
+		try {
+			lookUp(service);
+			fail("Lookup should fail once out of retries");
+		} catch (GeoLocationThrottledException e) {
+			assertEquals(3, service.getLookupCount());
+		}
+	}
+
+	@Test
+	public void testAdaptsToProviderLimit() throws Exception {
+
+		// the provider lets through 25 lookups a second, the service is set up for 200
+		TokenBucket providerLimit = new TokenBucket(25, 5);
+		throttle = request -> providerLimit.tryAcquire() > 0;
+		RateLimitedGeoLocationService service = service(200);
+		service.setInitialBackoffMillis(50);
+		service.setMaxRetries(20);
+
+		long start = System.nanoTime();
+		lookUpConcurrently(service, 100, 16);
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		System.out.println(String.format("%d lookups in %.1f seconds with %d throttled (%s)",
+				100, seconds, throttled.get(), service));
+		assertEquals(100, requests.get() - throttled.get());
+		assertTrue("Provider should have throttled lookups", service.getThrottledCount() > 0);
+		assertTrue("Rate should be lowered, is " + service.getRequestsPerSecond(),
+				service.getRequestsPerSecond() < service.getMaxRequestsPerSecond());
+	}
+
+	/* Creates a rate limited census service looking up addresses with the stub geocoder */
+	private RateLimitedGeoLocationService service(double requestsPerSecond) {
+		CensusGovGeoLocationService census = new CensusGovGeoLocationService();
+		census.setLookupUrl("http://localhost:" + server.getAddress().getPort() +
+				"/geocoder/locations/onelineaddress?");
+		return new RateLimitedGeoLocationService(census, requestsPerSecond);
+	}
+
+	private static GeoLocation lookUp(RateLimitedGeoLocationService service) throws IOException {
+		return service.getGeoLocationForAddress("10411 Lansdale Ave", "Cupertino", "CA", "95014");
+	}
+
+	/* Makes numLookups lookups from numThreads threads, checking each one's result */
+	private static void lookUpConcurrently(RateLimitedGeoLocationService service, int numLookups,
+			int numThreads) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Future<GeoLocation>> lookups = new ArrayList<Future<GeoLocation>>();
+			for (int i = 0; i < numLookups; i++) {
+				lookups.add(executor.submit(() -> lookUp(service)));
+			}
+			for (Future<GeoLocation> lookup: lookups) {
+				assertEquals(37.3174643482011, lookup.get().getLatitude(), 0.001);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/* Stub geocoder: answers with a census match unless the request is throttled */
+	private void handle(HttpExchange exchange) throws IOException {
+		int request = requests.incrementAndGet();
+		byte[] body;
+		if (throttle.throttle(request)) {
+			throttled.incrementAndGet();
+			body = "Too many requests".getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(429, body.length);
+		} else {
+			body = MATCH.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "application/json");
+			exchange.sendResponseHeaders(200, body.length);
+		}
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+}
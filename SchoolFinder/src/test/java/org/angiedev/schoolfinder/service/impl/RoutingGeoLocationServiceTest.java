@@ -0,0 +1,234 @@
+package org.angiedev.schoolfinder.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.angiedev.schoolfinder.model.GeoLocation;
+import org.angiedev.schoolfinder.model.Address;
+import org.angiedev.schoolfinder.service.BatchGeoLocationService;
+import org.angiedev.schoolfinder.service.GeoLocationNotFoundException;
+import org.angiedev.schoolfinder.service.GeoLocationService;
+import org.angiedev.schoolfinder.service.GeoLocationThrottledException;
+import org.junit.Test;
+
+public class RoutingGeoLocationServiceTest {
+
+	@Test
+	public void testRoutesToFastestProvider() throws Exception {
+
+		StubProvider slow = new StubProvider(30);
+		StubProvider fast = new StubProvider(2);
+		RoutingGeoLocationService service = service(slow, fast);
+		service.setDefaultHedgeDelayMillis(10);
+
+		lookUp(service, 200);
+
+		// the fast provider gets its stats from the hedged lookups, and then the lookups
+		assertTrue("Most lookups should go to the fast provider: " + service,
+				service.getAnsweredCount("b") > 150);
+		assertEquals(200, service.getAnsweredCount("a") + service.getAnsweredCount("b"));
+	}
+
+	@Test
+	public void testHedgesSlowLookup() throws Exception {
+
+		StubProvider first = new StubProvider(2);
+		StubProvider second = new StubProvider(2);
+		RoutingGeoLocationService service = service(first, second);
+		service.setExploreInterval(0);
+		lookUp(service, 50);
+		assertEquals(50, service.getAnsweredCount("a"));
+
+		// a stalled lookup is answered by the second provider after the first's p95 latency,
+		// counted from after the warm up, whose lookups may have run past it too
+		long hedges = service.getHedgeCount("a");
+		long answeredBySecond = service.getAnsweredCount("b");
+		first.delayMillis = 2000;
+		long start = System.nanoTime();
+		lookUp(service, 1);
+		long millis = (System.nanoTime() - start) / 1000000;
+
+		assertTrue("Stalled lookup should be hedged, took " + millis + " ms", millis < 1000);
+		assertEquals(hedges + 1, service.getHedgeCount("a"));
+		assertEquals(answeredBySecond + 1, service.getAnsweredCount("b"));
+	}
+
+	@Test
+	public void testFailsOverWhenThrottled() throws Exception {
+
+		StubProvider first = new StubProvider(0);
+		StubProvider second = new StubProvider(0);
+		first.throttle = true;
+		RoutingGeoLocationService service = service(first, second);
+
+		lookUp(service, 10);
+
+		// the first provider cools down after it throttled the first lookup
+		assertEquals(1, first.lookups.get());
+		assertEquals(1, service.getThrottledCount("a"));
+		assertEquals(1, service.getFailoverCount());
+		assertEquals(10, service.getAnsweredCount("b"));
+	}
+
+	@Test
+	public void testFailsOverOnErrorButNotWhenNotFound() throws Exception {
+
+		StubProvider first = new StubProvider(0);
+		StubProvider second = new StubProvider(0);
+		RoutingGeoLocationService service = service(first, second);
+		service.setExploreInterval(0);
+
+		first.error = true;
+		lookUp(service, 1);
+		assertEquals(1, service.getErrorCount("a"));
+		assertEquals(1, service.getAnsweredCount("b"));
+
+		// a lookup turned down by the provider fails over too
+		first.error = false;
+		second.deny = true;
+		lookUp(service, 1);
+		assertEquals(1, service.getErrorCount("b"));
+		assertEquals(2, service.getFailoverCount());
+		second.deny = false;
+
+		try {
+			service.getGeoLocationForAddress("1 Nowhere Lane", "San Jose", "CA", "95120");
+			fail("Address not found should not be failed over");
+		} catch (IOException e) {
+			// asked of one provider only
+			assertEquals(5, first.lookups.get() + second.lookups.get());
+			assertEquals(2, service.getFailoverCount());
+		}
+	}
+
+	@Test
+	public void testPassesBatchesToBatchProvider() throws Exception {
+
+		Map<String, GeoLocationService> services = new LinkedHashMap<String, GeoLocationService>();
+		services.put("a", new StubProvider(0));
+		services.put("b", new StubBatchProvider());
+		RoutingGeoLocationService service = new RoutingGeoLocationService(services);
+
+		Map<String, GeoLocation> geoLocations = service.getGeoLocationsForAddresses(Arrays.asList(
+				new Address("1", "1 Main Street", "San Jose", "CA", "95120"),
+				new Address("2", "1 Nowhere Lane", "San Jose", "CA", "95120")));
+
+		assertEquals(1, geoLocations.size());
+		assertEquals(37.3, geoLocations.get("1").getLatitude(), 1e-9);
+		assertEquals(1, service.getBatchCount("b"));
+		assertEquals(StubBatchProvider.MAX_BATCH_SIZE, service.getMaxBatchSize());
+	}
+
+	@Test
+	public void testRoutesBatchOneAtATimeWhenBatchThrottled() throws Exception {
+
+		StubBatchProvider batchProvider = new StubBatchProvider();
+		batchProvider.throttle = true;
+		Map<String, GeoLocationService> services = new LinkedHashMap<String, GeoLocationService>();
+		services.put("a", new StubProvider(0));
+		services.put("b", batchProvider);
+		RoutingGeoLocationService service = new RoutingGeoLocationService(services);
+
+		Map<String, GeoLocation> geoLocations = service.getGeoLocationsForAddresses(Arrays.asList(
+				new Address("1", "1 Main Street", "San Jose", "CA", "95120"),
+				new Address("2", "1 Nowhere Lane", "San Jose", "CA", "95120")));
+
+		// the batch provider cools down, so the addresses are looked up by the other one
+		assertEquals(1, geoLocations.size());
+		assertEquals(37.3, geoLocations.get("1").getLatitude(), 1e-9);
+		assertEquals(1, service.getThrottledCount("b"));
+		assertEquals(1, service.getFailoverCount());
+		assertEquals(1, service.getAnsweredCount("a"));
+		assertEquals(1, batchProvider.lookups.get());
+		service.destroy();
+	}
+
+	private static RoutingGeoLocationService service(StubProvider first, StubProvider second) {
+		Map<String, GeoLocationService> services = new LinkedHashMap<String, GeoLocationService>();
+		services.put("a", first);
+		services.put("b", second);
+		return new RoutingGeoLocationService(services);
+	}
+
+	private static void lookUp(RoutingGeoLocationService service, int numLookups) throws IOException {
+		for (int i = 1; i <= numLookups; i++) {
+			GeoLocation geoLocation = service.getGeoLocationForAddress(i + " Main Street", "San Jose", "CA", "95120");
+			assertEquals(37.3, geoLocation.getLatitude(), 1e-9);
+		}
+	}
+
+	/* Provider taking delayMillis to find every address except those on "Nowhere" streets */
+	private static class StubProvider implements GeoLocationService {
+
+		final AtomicInteger lookups = new AtomicInteger();
+		volatile long delayMillis;
+		volatile boolean throttle;
+		volatile boolean error;
+		volatile boolean deny;
+
+		StubProvider(long delayMillis) {
+			this.delayMillis = delayMillis;
+		}
+
+		@Override
+		public GeoLocation getGeoLocationForAddress(String address, String city, String stateCode, String zip)
+				throws IOException {
+			lookups.incrementAndGet();
+			if (throttle) {
+				throw new GeoLocationThrottledException("Too many requests", 60000);
+			} else if (error) {
+				throw new IllegalStateException("Connection refused");
+			} else if (deny) {
+				throw new IOException("REQUEST_DENIED: The provided API key is invalid");
+			} else if (address.contains("Nowhere")) {
+				throw new GeoLocationNotFoundException("Address not found: " + address);
+			}
+			try {
+				Thread.sleep(delayMillis);
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException("Interrupted");
+			}
+			GeoLocation geoLocation = new GeoLocation();
+			geoLocation.setLatitude(37.3);
+			geoLocation.setLongitude(-121.9);
+			return geoLocation;
+		}
+	}
+
+	/* Stub provider that also looks up batches */
+	private static class StubBatchProvider extends StubProvider implements BatchGeoLocationService {
+
+		static final int MAX_BATCH_SIZE = 500;
+
+		StubBatchProvider() {
+			super(0);
+		}
+
+		@Override
+		public Map<String, GeoLocation> getGeoLocationsForAddresses(List<Address> addresses) throws IOException {
+			Map<String, GeoLocation> geoLocations = new HashMap<String, GeoLocation>();
+			for (Address address: addresses) {
+				if (!address.getStreetAddress().contains("Nowhere")) {
+					geoLocations.put(address.getId(), getGeoLocationForAddress(address.getStreetAddress(),
+							address.getCity(), address.getStateCode(), address.getZip()));
+				}
+			}
+			return geoLocations;
+		}
+
+		@Override
+		public int getMaxBatchSize() {
+			return MAX_BATCH_SIZE;
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package org.angiedev.schoolfinder.service.impl;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
@@ -7,7 +8,9 @@ import static org.junit.Assert.assertTrue;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.angiedev.schoolfinder.model.NameMatchMode;
 import org.angiedev.schoolfinder.model.School;
+import org.angiedev.schoolfinder.model.SchoolSearchResult;
 import org.angiedev.schoolfinder.service.SchoolFinderService;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -30,12 +33,12 @@ public class SchoolFinderServiceImplTest {
 		double longitude = -121.861611;
 		int searchRadius = 2;
 		
-		List<School> schools = service.getSchools(latitude, longitude, searchRadius, 100);
+		List<SchoolSearchResult> schools = service.getSchools(latitude, longitude, searchRadius, 100);
 		
 		List<String> schoolNames = new ArrayList<String>();
 		
-		for (School school: schools) {
-			schoolNames.add(school.getName());
+		for (SchoolSearchResult school: schools) {
+			schoolNames.add(school.getSchool().getName());
 		}
 		
 		assertTrue("Simonds should be found", schoolNames.contains("Simonds Elementary"));
@@ -58,12 +61,12 @@ public class SchoolFinderServiceImplTest {
 		double longitude = -121.861611;
 		int searchRadius = 5;
 		
-		List<School> schools = service.getSchools(latitude, longitude, searchRadius, 100);
+		List<SchoolSearchResult> schools = service.getSchools(latitude, longitude, searchRadius, 100);
 		
 		List<String> schoolNames = new ArrayList<String>();
 		
-		for (School school: schools) {
-			schoolNames.add(school.getName());
+		for (SchoolSearchResult school: schools) {
+			schoolNames.add(school.getSchool().getName());
 		}
 		
 		assertTrue("Simonds should be found", schoolNames.contains("Simonds Elementary"));
@@ -85,12 +88,12 @@ public class SchoolFinderServiceImplTest {
 		double longitude = -121.861611;
 		int searchRadius = 15;
 		
-		List<School> schools = service.getSchools(latitude, longitude, searchRadius, "Will", 100);
+		List<SchoolSearchResult> schools = service.getSchools(latitude, longitude, searchRadius, "Will", 100);
 		
 		List<String> schoolNames = new ArrayList<String>();
 		
-		for (School school: schools) {
-			schoolNames.add(school.getName());
+		for (SchoolSearchResult school: schools) {
+			schoolNames.add(school.getSchool().getName());
 		}
 		
 		assertFalse("Simonds should not be found", schoolNames.contains("Simonds Elementary"));
@@ -104,6 +107,58 @@ public class SchoolFinderServiceImplTest {
 		assertFalse("Reed should not be found", schoolNames.contains("Reed Elementary"));
 	}
 
+	@Test
+	public void testGetSchoolsWithTokenSearchString() throws Exception {
+		// Address of Safeway parking lot in Almaden
+		double latitude = 37.219836;
+		double longitude = -121.861611;
+		int searchRadius = 15;
+		
+		List<SchoolSearchResult> schools = service.getSchools(latitude, longitude, searchRadius, 
+				"elem will", NameMatchMode.TOKENS, 100);
+		
+		List<String> schoolNames = new ArrayList<String>();
+		
+		for (SchoolSearchResult school: schools) {
+			schoolNames.add(school.getSchool().getName());
+		}
+		
+		assertTrue("Williams should be found", schoolNames.contains("Williams Elementary"));
+		assertTrue("Willow Glen should be found", schoolNames.contains("Willow Glen Elementary"));
+		assertFalse("Simonds should not be found", schoolNames.contains("Simonds Elementary"));
+		assertFalse("Leland should not be found", schoolNames.contains("Leland High"));
+		
+		// words are matched at their start only
+		schools = service.getSchools(latitude, longitude, searchRadius, "lementary", 
+				NameMatchMode.TOKENS, 100);
+		assertTrue("No school should be found", schools.isEmpty());
+	}
+
+	@Test
+	public void testCachedSearchReturnsCopies() throws Exception {
+		// Address of Safeway parking lot in Almaden
+		double latitude = 37.219836;
+		double longitude = -121.861611;
+		
+		List<SchoolSearchResult> first = service.getSchools(latitude, longitude, 2, 100);
+		first.get(0).getSchool().setName("Changed by caller");
+		first.get(0).getSchool().getDistrict().setName("Changed by caller");
+		List<SchoolSearchResult> second = service.getSchools(latitude, longitude, 2, 100);
+		
+		assertEquals(first.size(), second.size());
+		assertFalse("Cached school should not be changed", 
+				second.get(0).getSchool().getName().equals("Changed by caller"));
+		assertFalse("Cached district should not be changed", 
+				second.get(0).getSchool().getDistrict().getName().equals("Changed by caller"));
+	}
+	
+	@Test
+	public void testGetSchoolsWithoutPositiveLimitFindsNothing() throws Exception {
+		assertTrue(service.getSchools(37.219836, -121.861611, 2, 0).isEmpty());
+		assertTrue(service.getSchools(37.219836, -121.861611, 2, -1).isEmpty());
+		assertTrue(service.getNearestSchools(37.219836, -121.861611, 2, null, NameMatchMode.PREFIX, -1).isEmpty());
+	}
+
 	@Test
 	public void testGetSchoolByNcesId() throws Exception {
 		String ncesId = "063459005738";  // NCES Id of Simonds Elementary
@@ -119,5 +174,17 @@ public class SchoolFinderServiceImplTest {
 		assertTrue("School high grade should be KG", s.getHighGrade().equals("05"));
 		assertTrue("School id should be 063459005738", s.getNcesId().equals("063459005738"));
 	}
+	
+	@Test
+	public void testGetSchoolByNcesIdIsCached() throws Exception {
+		String ncesId = "063459005738";  // NCES Id of Simonds Elementary
+		School first = service.getSchoolByNcesId(ncesId);
+		long hits = service.getSchoolCacheStats().getHitCount();
+		School second = service.getSchoolByNcesId(ncesId);
+		
+		assertTrue("Second lookup should be a cache hit", service.getSchoolCacheStats().getHitCount() == hits + 1);
+		assertTrue("Cached school should match the school read", first.equals(second));
+		assertTrue("Each caller should get its own copy", first != second);
+	}
 
 }
@@ -0,0 +1,84 @@
+package org.angiedev.schoolfinder.service.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.angiedev.schoolfinder.model.District;
+import org.angiedev.schoolfinder.model.NameMatchMode;
+import org.angiedev.schoolfinder.model.School;
+import org.angiedev.schoolfinder.model.SchoolSearchResult;
+import org.angiedev.schoolfinder.service.impl.SchoolSearchCache.CandidateSearch;
+import org.junit.Test;
+
+public class SchoolSearchCacheTest {
+
+	private static final double LATITUDE = 37.2205341;
+	private static final double LONGITUDE = -121.8690651;
+	private static final int MAX_CANDIDATES_PER_SEARCH = 10;
+
+	private final SchoolSearchCache cache = new SchoolSearchCache(0.01, 1000, MAX_CANDIDATES_PER_SEARCH, 300);
+
+	@Test
+	public void testOversizedCellIsSearchedOnce() throws Exception {
+
+		CountingSearch search = new CountingSearch(MAX_CANDIDATES_PER_SEARCH + 1);
+
+		// the first search looks for candidates, finds too many and then searches
+		assertEquals(5, find("LIN", 5, 5, search).size());
+		assertEquals(2, search.numSearches);
+
+		// the same or a larger radius is passed straight on
+		find("LIN", 5, 5, search);
+		find("LIN", 10, 5, search);
+		assertEquals(4, search.numSearches);
+
+		// a smaller radius may have few enough candidates to cache
+		find("LIN", 2, 5, search);
+		assertEquals(6, search.numSearches);
+	}
+
+	@Test
+	public void testSearchStringsDifferingInCaseShareCandidates() throws Exception {
+
+		CountingSearch search = new CountingSearch(3);
+
+		assertEquals(3, find("Lin", 5, 5, search).size());
+		assertEquals(3, find("LIN", 5, 5, search).size());
+		assertEquals(3, find("lin", 5, 5, search).size());
+		assertEquals(1, search.numSearches);
+	}
+
+	private List<SchoolSearchResult> find(String searchString, int searchRadius, int maxNumResults,
+			CandidateSearch search) {
+		return cache.find(LATITUDE, LONGITUDE, searchRadius, searchString, NameMatchMode.PREFIX, false,
+				maxNumResults, search);
+	}
+
+	/* Search finding numSchools schools at the search location, counting the searches made */
+	private static class CountingSearch implements CandidateSearch {
+
+		final int numSchools;
+		int numSearches;
+
+		CountingSearch(int numSchools) {
+			this.numSchools = numSchools;
+		}
+
+		@Override
+		public List<SchoolSearchResult> find(double latitude, double longitude, int searchRadius,
+				int maxNumResults) {
+			numSearches++;
+			List<SchoolSearchResult> results = new ArrayList<SchoolSearchResult>();
+			for (int i = 0; i < Math.min(numSchools, maxNumResults); i++) {
+				School school = new School("Test:" + i, "Lincoln " + i, "Test: School Address",
+						"Test: School City", "CA", "12345", 1, "01", "06", new District("Test: District", "1234567"));
+				school.setLatitude(LATITUDE);
+				school.setLongitude(LONGITUDE);
+				results.add(new SchoolSearchResult(school, 0, 0));
+			}
+			return results;
+		}
+	}
+}
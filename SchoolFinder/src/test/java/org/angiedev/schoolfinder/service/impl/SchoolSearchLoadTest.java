@@ -0,0 +1,159 @@
+package org.angiedev.schoolfinder.service.impl;
+
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.angiedev.schoolfinder.service.SchoolFinderService;
+import org.angiedev.schoolfinder.util.ConnectionPoolMetrics;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Load test of the searches behind /schools/search.  Each search runs in its own read
+ * only transaction and so takes a connection from the data source, which is what the
+ * connection pool speeds up.  The throughput is printed along with the pool's metrics.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations={"/SchoolFinderConfig.xml"})
+public class SchoolSearchLoadTest {
+
+	private static final int NUM_THREADS = 8;
+	private static final long RUN_MILLIS = 3000;
+
+	// Address of Safeway parking lot in Almaden
+	private static final double LATITUDE = 37.219836;
+	private static final double LONGITUDE = -121.861611;
+
+	private static final String NAME_SEARCH_SQL =
+			"select school_id, name from School where name like ? order by name";
+
+	@Autowired
+	SchoolFinderService service;
+
+	@Autowired
+	DataSource dataSource;
+
+	@Autowired
+	ConnectionPoolMetrics poolMetrics;
+
+	@Value("${jdbc.driver}")
+	String driver;
+
+	@Value("${jdbc.url}")
+	String url;
+
+	@Value("${jdbc.username}")
+	String username;
+
+	@Value("${jdbc.password}")
+	String password;
+
+	@Test
+	public void testPooledConnectionThroughput() throws Exception {
+
+		DriverManagerDataSource unpooled = new DriverManagerDataSource(url, username, password);
+		unpooled.setDriverClassName(driver);
+
+		// warm up both before measuring
+		runLoad(() -> searchByName(unpooled), RUN_MILLIS / 3);
+		runLoad(() -> searchByName(dataSource), RUN_MILLIS / 3);
+
+		double unpooledThroughput = runLoad(() -> searchByName(unpooled), RUN_MILLIS);
+		double pooledThroughput = runLoad(() -> searchByName(dataSource), RUN_MILLIS);
+
+		System.out.println(String.format("Searches per second with DriverManagerDataSource: %.1f",
+				unpooledThroughput));
+		System.out.println(String.format("Searches per second with connection pool: %.1f (%.1fx)",
+				pooledThroughput, pooledThroughput / unpooledThroughput));
+		System.out.println(poolMetrics);
+
+		assertTrue("Pooled connections should not be slower than unpooled ones",
+				pooledThroughput >= unpooledThroughput);
+	}
+
+	@Test
+	public void testSearchesUnderLoad() throws Exception {
+
+		long acquired = poolMetrics.getAcquiredCount();
+		long timeouts = poolMetrics.getTimeoutCount();
+
+		double throughput = runLoad(() -> {
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			service.getSchools(LATITUDE + random.nextDouble(-0.05, 0.05),
+					LONGITUDE + random.nextDouble(-0.05, 0.05), 5, 50);
+		}, RUN_MILLIS);
+
+		System.out.println(String.format("Service searches per second: %.1f", throughput));
+		System.out.println(poolMetrics);
+
+		assertTrue("Searches should take connections from the pool", poolMetrics.getAcquiredCount() > acquired);
+		assertTrue("No search should time out waiting for a connection",
+				poolMetrics.getTimeoutCount() == timeouts);
+	}
+
+	/* Runs a search, in the same way as a request, on a connection from the data source */
+	private static void searchByName(DataSource source) throws SQLException {
+		try (Connection connection = source.getConnection()) {
+			connection.setReadOnly(true);
+			connection.setAutoCommit(false);
+			try (PreparedStatement statement = connection.prepareStatement(NAME_SEARCH_SQL)) {
+				statement.setString(1, "Willow%");
+				statement.setMaxRows(50);
+				try (ResultSet rs = statement.executeQuery()) {
+					while (rs.next()) {
+						rs.getString(2);
+					}
+				}
+			}
+			connection.commit();
+			connection.setAutoCommit(true);
+			connection.setReadOnly(false);
+		}
+	}
+
+	/* Runs the passed in request repeatedly on NUM_THREADS threads and returns the requests per second */
+	private static double runLoad(Request request, long millis) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+		List<Future<Long>> counts = new ArrayList<Future<Long>>();
+		for (int i = 0; i < NUM_THREADS; i++) {
+			counts.add(executor.submit(() -> {
+				long count = 0;
+				while (System.nanoTime() - deadline < 0) {
+					request.run();
+					count++;
+				}
+				return count;
+			}));
+		}
+		long total = 0;
+		for (Future<Long> count: counts) {
+			total += count.get();
+		}
+		executor.shutdown();
+		return total * 1000.0 / millis;
+	}
+
+	/* A request sent by the load test */
+	private interface Request {
+		void run() throws Exception;
+	}
+}
@@ -0,0 +1,108 @@
+package org.angiedev.schoolfinder.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class SegmentedLruCacheTest {
+
+	@Test
+	public void testReadThroughCountsHitsAndMisses() {
+		SegmentedLruCache<String, String> cache = new SegmentedLruCache<String, String>(10, 1, TimeUnit.MINUTES);
+		AtomicLong numLoads = new AtomicLong();
+		
+		for (int i = 0; i < 5; i++) {
+			assertEquals("value should be loaded", "a1", cache.get("a", key -> {
+				numLoads.incrementAndGet();
+				return key + "1";
+			}));
+		}
+		assertNull("null values should not be cached", cache.get("b", key -> null));
+		
+		CacheStats stats = cache.getStats();
+		assertEquals("value should only be loaded once", 1, numLoads.get());
+		assertEquals("hits", 4, stats.getHitCount());
+		assertEquals("misses", 2, stats.getMissCount());
+		assertEquals("size", 1, stats.getSize());
+	}
+	
+	@Test
+	public void testScanDoesNotEvictFrequentlyReadValues() {
+		SegmentedLruCache<Integer, Integer> cache = new SegmentedLruCache<Integer, Integer>(10, 1, TimeUnit.MINUTES);
+		for (int key = 0; key < 5; key++) {
+			cache.put(key, key);
+			cache.get(key);
+		}
+		// values read only once, more than the cache holds
+		for (int key = 100; key < 200; key++) {
+			cache.put(key, key);
+		}
+		
+		for (int key = 0; key < 5; key++) {
+			assertNotNull("protected value " + key + " should still be cached", cache.get(key));
+		}
+		assertEquals("size should stay bounded", 10, cache.size());
+		assertEquals("evictions", 95, cache.getStats().getEvictionCount());
+	}
+	
+	@Test
+	public void testValuesExpire() {
+		AtomicLong now = new AtomicLong();
+		SegmentedLruCache<String, String> cache = new SegmentedLruCache<String, String>(10, value -> 1, 10, 
+				TimeUnit.SECONDS, now::get);
+		cache.put("a", "a");
+		now.addAndGet(TimeUnit.SECONDS.toNanos(9));
+		assertEquals("value should not have expired", "a", cache.get("a"));
+		now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+		assertNull("value should have expired", cache.get("a"));
+	}
+	
+	@Test
+	public void testInvalidateDuringLoadIsNotCached() {
+		SegmentedLruCache<String, String> cache = new SegmentedLruCache<String, String>(10, 1, TimeUnit.MINUTES);
+		cache.get("a", key -> {
+			cache.invalidate(key);
+			return "stale";
+		});
+		assertNull("value loaded before the invalidation should not be cached", cache.get("a"));
+		
+		cache.put("a", "a");
+		cache.invalidate("a");
+		assertNull("invalidated value should be removed", cache.get("a"));
+	}
+	
+	@Test
+	public void testStaysBoundedAcrossPartitions() {
+		SegmentedLruCache<Integer, Integer> cache = new SegmentedLruCache<Integer, Integer>(1000, 1, TimeUnit.MINUTES);
+		for (int key = 0; key < 10000; key++) {
+			cache.put(key, key);
+			if (key % 3 == 0) {
+				cache.get(key);
+			}
+		}
+		assertTrue("size should not exceed maximum: " + cache.size(), cache.size() <= 1000);
+		assertEquals("evictions", 10000 - cache.size(), cache.getStats().getEvictionCount());
+	}
+	
+	@Test
+	public void testBoundedByWeight() {
+		SegmentedLruCache<Integer, String> cache = new SegmentedLruCache<Integer, String>(20, String::length, 
+				1, TimeUnit.MINUTES);
+		for (int key = 0; key < 5; key++) {
+			cache.put(key, "0123456789");
+		}
+		assertEquals("only 2 values of weight 10 should fit", 2, cache.size());
+		assertEquals("evictions", 3, cache.getStats().getEvictionCount());
+		
+		cache.invalidate(4);
+		cache.put(100, "a");
+		assertEquals("invalidated weight should be released", 2, cache.size());
+		assertNotNull("value should fit in the released weight", cache.get(3));
+	}
+}
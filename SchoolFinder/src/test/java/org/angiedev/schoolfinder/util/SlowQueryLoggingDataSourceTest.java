@@ -0,0 +1,65 @@
+package org.angiedev.schoolfinder.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations={"/SchoolFinderConfig.xml"})
+public class SlowQueryLoggingDataSourceTest {
+
+	private static final String SQL = "select name from School where nces_id = ?";
+
+	@Autowired
+	SlowQueryLoggingDataSource dataSource;
+
+	@Test
+	public void testFastStatementIsCountedButNotLogged() throws Exception {
+
+		long statements = dataSource.getStatementCount();
+		long slowStatements = dataSource.getSlowStatementCount();
+
+		assertEquals("Simonds Elementary", findName("063459005738"));
+
+		assertEquals("Statement should be counted", statements + 1, dataSource.getStatementCount());
+		assertEquals("Fast statement should not be slow", slowStatements, dataSource.getSlowStatementCount());
+	}
+
+	@Test
+	public void testSlowStatementIsLoggedWithParameters() throws Exception {
+
+		long threshold = dataSource.getThresholdMillis();
+		long slowStatements = dataSource.getSlowStatementCount();
+		dataSource.setThresholdMillis(0);
+		try {
+			findName("063459005738");
+		} finally {
+			dataSource.setThresholdMillis(threshold);
+		}
+
+		assertEquals("Statement should be slow", slowStatements + 1, dataSource.getSlowStatementCount());
+		String logged = dataSource.getLastSlowStatement();
+		assertTrue("Log should hold the statement", logged.contains("sql=\"" + SQL + "\""));
+		assertTrue("Log should hold the parameters", logged.contains("parameters=[1='063459005738']"));
+	}
+
+	/* Looks up the name of a school through the data source */
+	private String findName(String ncesId) throws Exception {
+		try (Connection connection = dataSource.getConnection();
+				PreparedStatement statement = connection.prepareStatement(SQL)) {
+			statement.setString(1, ncesId);
+			try (ResultSet rs = statement.executeQuery()) {
+				return rs.next() ? rs.getString(1) : null;
+			}
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package org.angiedev.schoolfinder.web.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.angiedev.schoolfinder.model.District;
+import org.angiedev.schoolfinder.model.School;
+import org.angiedev.schoolfinder.model.SchoolSearchResult;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class SchoolSearchHitWriterTest {
+
+	private static final List<String> FIELD_NAMES = Arrays.asList("ncesId", "name", "streetAddress", "city",
+			"state", "zip", "status", "lowGrade", "highGrade", "latitude", "longitude", "districtName", "leaId",
+			"distance", "bearing");
+
+	private final SchoolSearchHitWriter writer = new SchoolSearchHitWriter();
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	@Test
+	public void testWritesHitsInOrder() throws Exception {
+
+		School school = new School("063459005738", "Simonds Elementary", "6515 Grapevine Way", "San Jose", "CA",
+				"95120", 1, "KG", "05", new District("San Jose Unified", "0634590"));
+		school.setLatitude(37.2205341);
+		school.setLongitude(-121.8690651);
+		school.setCellKey(12345L);
+		School other = new School(school);
+		other.setNcesId("063459005739");
+
+		JsonNode hits = write(Arrays.asList(new SchoolSearchResult(school, 0.5, 90),
+				new SchoolSearchResult(other, 1.5, 180)));
+
+		assertEquals(2, hits.size());
+		JsonNode hit = hits.get(0);
+		assertEquals(FIELD_NAMES, fieldNames(hit));
+		assertEquals("063459005738", hit.get("ncesId").asText());
+		assertEquals("Simonds Elementary", hit.get("name").asText());
+		assertEquals(1, hit.get("status").asInt());
+		assertEquals(37.2205341, hit.get("latitude").asDouble(), 1e-9);
+		assertEquals("San Jose Unified", hit.get("districtName").asText());
+		assertEquals("0634590", hit.get("leaId").asText());
+		assertEquals(0.5, hit.get("distance").asDouble(), 1e-9);
+		assertEquals(90, hit.get("bearing").asDouble(), 1e-9);
+		assertFalse("Is the cell key left out?", hit.has("cellKey"));
+		assertEquals("063459005739", hits.get(1).get("ncesId").asText());
+		assertEquals(1.5, hits.get(1).get("distance").asDouble(), 1e-9);
+	}
+
+	@Test
+	public void testEscapesText() throws Exception {
+
+		String name = "St. Mary's \"Star\" School\\Annex\n\u00c9cole \u2013 \u4e2d\u6587";
+		School school = new School("063459005738", name, "6515 Grapevine Way", "San Jose", "CA", "95120", 1,
+				"KG", "05", new District("San Jose Unified", "0634590"));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writer.write(Collections.singletonList(new SchoolSearchResult(school, 0, 0)), out);
+		String json = new String(out.toByteArray(), StandardCharsets.UTF_8);
+
+		assertTrue("Were the quotes, backslash and line break escaped? " + json,
+				json.contains("\\\"Star\\\" School\\\\Annex\\n"));
+		assertEquals(name, mapper.readTree(json).get(0).get("name").asText());
+	}
+
+	@Test
+	public void testWritesNulls() throws Exception {
+
+		// a school that isn't geo located yet, without its district
+		School school = new School("063459005738", "Simonds Elementary", "6515 Grapevine Way", "San Jose", "CA",
+				"95120", 1, "KG", "05", null);
+
+		JsonNode hit = write(Collections.singletonList(new SchoolSearchResult(school, 0, 0))).get(0);
+
+		assertEquals(FIELD_NAMES, fieldNames(hit));
+		assertTrue(hit.get("latitude").isNull());
+		assertTrue(hit.get("longitude").isNull());
+		assertTrue(hit.get("districtName").isNull());
+		assertTrue(hit.get("leaId").isNull());
+	}
+
+	@Test
+	public void testWritesEmptyArrayAndLeavesStreamOpen() throws Exception {
+
+		ClosingCheckStream out = new ClosingCheckStream();
+		writer.write(Collections.<SchoolSearchResult>emptyList(), out);
+
+		assertEquals("[]", new String(out.toByteArray(), StandardCharsets.UTF_8));
+		assertFalse("Was the stream closed?", out.closed);
+	}
+
+	private JsonNode write(List<SchoolSearchResult> results) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writer.write(results, out);
+		return mapper.readTree(out.toByteArray());
+	}
+
+	private static List<String> fieldNames(JsonNode node) {
+		List<String> names = new ArrayList<String>();
+		for (Iterator<String> it = node.fieldNames(); it.hasNext(); ) {
+			names.add(it.next());
+		}
+		return names;
+	}
+
+	/* Stream recording whether it was closed */
+	private static class ClosingCheckStream extends ByteArrayOutputStream {
+
+		boolean closed;
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+	}
+}